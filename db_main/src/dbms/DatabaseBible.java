@@ -1,5 +1,7 @@
 package dbms;
 
+import dbms.engine.Table;
+
 /**
  * Created by blackvvine on 10/25/15.
  */
@@ -7,6 +9,24 @@ public class DatabaseBible {
 
     public static boolean JUDGE_MODE = true;
 
+    /* layout used for tables created by CREATE TABLE */
+    public static Table.StorageMode DEFAULT_STORAGE_MODE = Table.StorageMode.ROW;
+
+    /* page frames shared by PAGED tables, 8KB each */
+    public static int BUFFER_POOL_FRAMES = 4096;
+
+    /* where PAGED tables keep their data files, null for the temp directory */
+    public static String PAGE_DIRECTORY = null;
+
+    /* where SAVE writes database snapshots, restored from on startup */
+    public static String SNAPSHOT_DIRECTORY = "snapshot";
+
+    /* checkpoint after this many modifying queries, 0 turns it off */
+    public static int CHECKPOINT_INTERVAL = 0;
+
+    /* worker threads for parallel query execution, 1 keeps everything on the calling thread */
+    public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
     public static final int EVENT_CREATE_DATABASE = 1000;
     public static final int EVENT_CREATE_TABLE = 1100;
 
@@ -1,9 +1,11 @@
 package dbms.cli;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Scanner;
 
 import dbms.UserInterface;
+import dbms.engine.DatabaseCore;
 import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryExecutionError;
 import dbms.exceptions.CoSQLQueryParseError;
@@ -62,6 +64,14 @@ public class Shell implements UserInterface {
     }
 
     public static void main(String... args) {
+
+        // pick up where the last SAVE left off
+        try {
+            DatabaseCore.restoreDatabases(new File(SNAPSHOT_DIRECTORY));
+        } catch (CoSQLQueryExecutionError e) {
+            System.err.println(e);
+        }
+
         Shell shell = new Shell();
         shell.exec();
     }
@@ -0,0 +1,520 @@
+package dbms.engine;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ordered map used by {@link Table.Index}. Nodes keep their keys in flat
+ * arrays (primitive {@code long[]} for INT columns, {@code String[]} with
+ * packed {@code long} prefixes for VARCHAR columns) and leaves are linked,
+ * so range scans walk the leaf chain instead of the tree.
+ *
+ * Values that are not keys of the column type (the "NULL" cells) are kept
+ * aside and never show up in range scans.
+ *
+ * Removal does not rebalance; emptied leaves stay in the chain until the
+ * tree runs empty.
+ */
+abstract class BPlusTree<V> implements Serializable {
+
+    /* max keys per node */
+    static final int ORDER = 64;
+
+    static class Node implements Serializable {
+        int size;
+        long[] longKeys;
+        String[] stringKeys;
+    }
+
+    static class Leaf extends Node {
+        Object[] values = new Object[ORDER + 1];
+        Leaf next;
+    }
+
+    static class Inner extends Node {
+        Node[] children = new Node[ORDER + 2];
+    }
+
+    private static class Split {
+        Object key;
+        Node right;
+
+        Split(Object key, Node right) {
+            this.key = key;
+            this.right = right;
+        }
+    }
+
+    private Node root;
+    private int size;
+    private HashMap<Object, V> others = new HashMap<>();
+
+    /* value replaced by the last put, set while descending */
+    private transient Object replaced;
+
+    static <V> BPlusTree<V> forType(Table.ColumnType type) {
+        if (type == Table.ColumnType.INT) {
+            return new LongTree<>();
+        } else {
+            return new StringTree<>();
+        }
+    }
+
+    /* type specific key handling */
+
+    abstract boolean isKey(Object key);
+
+    abstract void allocKeys(Node node);
+
+    abstract Object keyAt(Node node, int i);
+
+    abstract void setKey(Node node, int i, Object key);
+
+    /* same contract as Arrays.binarySearch over the node's keys */
+    abstract int search(Node node, Object key);
+
+    abstract int compareAt(Node node, int i, Object key);
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+
+        if (!isKey(key)) {
+            return others.get(key);
+        }
+
+        if (root == null) {
+            return null;
+        }
+
+        Leaf leaf = findLeaf(key);
+        int pos = search(leaf, key);
+        return pos >= 0 ? (V) leaf.values[pos] : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(Object key, V value) {
+
+        if (!isKey(key)) {
+            V prev = others.put(key, value);
+            if (prev == null) {
+                size++;
+            }
+            return prev;
+        }
+
+        if (root == null) {
+            root = newLeaf();
+        }
+
+        replaced = null;
+        Split split = insert(root, key, value);
+
+        if (split != null) {
+            Inner newRoot = newInner();
+            setKey(newRoot, 0, split.key);
+            newRoot.children[0] = root;
+            newRoot.children[1] = split.right;
+            newRoot.size = 1;
+            root = newRoot;
+        }
+
+        V prev = (V) replaced;
+        replaced = null;
+        if (prev == null) {
+            size++;
+        }
+        return prev;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+
+        if (!isKey(key)) {
+            V prev = others.remove(key);
+            if (prev != null) {
+                size--;
+            }
+            return prev;
+        }
+
+        if (root == null) {
+            return null;
+        }
+
+        Leaf leaf = findLeaf(key);
+        int pos = search(leaf, key);
+        if (pos < 0) {
+            return null;
+        }
+
+        V prev = (V) leaf.values[pos];
+        removeAt(leaf, pos);
+        leaf.values[leaf.size] = null;
+
+        size--;
+        if (size == others.size()) {
+            // drop the emptied structure
+            root = null;
+        }
+        return prev;
+    }
+
+    /**
+     * Values whose keys fall in the given range, in key order. A null
+     * bound leaves that side open. Walks the leaf chain lazily.
+     */
+    public Iterable<V> range(final Object from, final boolean fromInclusive,
+                             final Object to, final boolean toInclusive) {
+
+        return new Iterable<V>() {
+            @Override
+            public Iterator<V> iterator() {
+
+                if (root == null || (from != null && !isKey(from)) || (to != null && !isKey(to))) {
+                    return new RangeIterator(null, 0, null, false);
+                }
+
+                Leaf leaf;
+                int pos;
+                if (from == null) {
+                    leaf = leftmostLeaf();
+                    pos = 0;
+                } else {
+                    leaf = findLeaf(from);
+                    pos = search(leaf, from);
+                    if (pos >= 0) {
+                        pos = fromInclusive ? pos : pos + 1;
+                    } else {
+                        pos = -(pos + 1);
+                    }
+                }
+
+                return new RangeIterator(leaf, pos, to, toInclusive);
+            }
+        };
+    }
+
+    public Iterable<V> values() {
+        return range(null, true, null, true);
+    }
+
+    private class RangeIterator implements Iterator<V> {
+
+        Leaf leaf;
+        int pos;
+        Object to;
+        boolean toInclusive;
+
+        RangeIterator(Leaf leaf, int pos, Object to, boolean toInclusive) {
+            this.leaf = leaf;
+            this.pos = pos;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            settle();
+        }
+
+        private void settle() {
+
+            // skip exhausted (or emptied) leaves
+            while (leaf != null && pos >= leaf.size) {
+                leaf = leaf.next;
+                pos = 0;
+            }
+
+            // stop at the upper bound
+            if (leaf != null && to != null) {
+                int cmp = compareAt(leaf, pos, to);
+                if (cmp > 0 || (cmp == 0 && !toInclusive)) {
+                    leaf = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            V value = (V) leaf.values[pos++];
+            settle();
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private Leaf findLeaf(Object key) {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childIndex(node, key)];
+        }
+        return (Leaf) node;
+    }
+
+    private Leaf leftmostLeaf() {
+        Node node = root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[0];
+        }
+        return (Leaf) node;
+    }
+
+    private int childIndex(Node inner, Object key) {
+        int pos = search(inner, key);
+        return pos >= 0 ? pos + 1 : -(pos + 1);
+    }
+
+    private Split insert(Node node, Object key, Object value) {
+
+        if (node instanceof Leaf) {
+
+            Leaf leaf = (Leaf) node;
+            int pos = search(leaf, key);
+
+            if (pos >= 0) {
+                replaced = leaf.values[pos];
+                leaf.values[pos] = value;
+                return null;
+            }
+
+            pos = -(pos + 1);
+            shiftRight(leaf, pos);
+            System.arraycopy(leaf.values, pos, leaf.values, pos + 1, leaf.size - pos);
+            setKey(leaf, pos, key);
+            leaf.values[pos] = value;
+            leaf.size++;
+
+            if (leaf.size <= ORDER) {
+                return null;
+            }
+
+            // split leaf in halves, right half goes to a new leaf
+            Leaf right = newLeaf();
+            int mid = leaf.size / 2;
+            int moved = leaf.size - mid;
+            copyKeys(leaf, mid, right, 0, moved);
+            System.arraycopy(leaf.values, mid, right.values, 0, moved);
+            for (int i = mid; i < leaf.size; i++) {
+                leaf.values[i] = null;
+            }
+            right.size = moved;
+            leaf.size = mid;
+
+            right.next = leaf.next;
+            leaf.next = right;
+
+            return new Split(keyAt(right, 0), right);
+        }
+
+        Inner inner = (Inner) node;
+        int child = childIndex(inner, key);
+
+        Split split = insert(inner.children[child], key, value);
+        if (split == null) {
+            return null;
+        }
+
+        // place separator at child, new node right after it
+        shiftRight(inner, child);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - child);
+        setKey(inner, child, split.key);
+        inner.children[child + 1] = split.right;
+        inner.size++;
+
+        if (inner.size <= ORDER) {
+            return null;
+        }
+
+        // split inner node, middle key moves up
+        Inner right = newInner();
+        int mid = inner.size / 2;
+        Object upKey = keyAt(inner, mid);
+        int moved = inner.size - mid - 1;
+        copyKeys(inner, mid + 1, right, 0, moved);
+        System.arraycopy(inner.children, mid + 1, right.children, 0, moved + 1);
+        for (int i = mid + 1; i <= inner.size; i++) {
+            inner.children[i] = null;
+        }
+        right.size = moved;
+        inner.size = mid;
+
+        return new Split(upKey, right);
+    }
+
+    private Leaf newLeaf() {
+        Leaf leaf = new Leaf();
+        allocKeys(leaf);
+        return leaf;
+    }
+
+    private Inner newInner() {
+        Inner inner = new Inner();
+        allocKeys(inner);
+        return inner;
+    }
+
+    private void shiftRight(Node node, int pos) {
+        copyKeys(node, pos, node, pos + 1, node.size - pos);
+    }
+
+    private void removeAt(Leaf leaf, int pos) {
+        copyKeys(leaf, pos + 1, leaf, pos, leaf.size - pos - 1);
+        System.arraycopy(leaf.values, pos + 1, leaf.values, pos, leaf.size - pos - 1);
+        leaf.size--;
+    }
+
+    private static void copyKeys(Node src, int srcPos, Node dst, int dstPos, int length) {
+        if (src.longKeys != null) {
+            System.arraycopy(src.longKeys, srcPos, dst.longKeys, dstPos, length);
+        }
+        if (src.stringKeys != null) {
+            System.arraycopy(src.stringKeys, srcPos, dst.stringKeys, dstPos, length);
+        }
+    }
+
+    /**
+     * INT column keys, compared as primitives.
+     */
+    static class LongTree<V> extends BPlusTree<V> {
+
+        @Override
+        boolean isKey(Object key) {
+            return key instanceof Long;
+        }
+
+        @Override
+        void allocKeys(Node node) {
+            node.longKeys = new long[ORDER + 1];
+        }
+
+        @Override
+        Object keyAt(Node node, int i) {
+            return node.longKeys[i];
+        }
+
+        @Override
+        void setKey(Node node, int i, Object key) {
+            node.longKeys[i] = (Long) key;
+        }
+
+        @Override
+        int search(Node node, Object key) {
+            long k = (Long) key;
+            long[] keys = node.longKeys;
+            int low = 0;
+            int high = node.size - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midKey = keys[mid];
+                if (midKey < k) {
+                    low = mid + 1;
+                } else if (midKey > k) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        @Override
+        int compareAt(Node node, int i, Object key) {
+            return Long.compare(node.longKeys[i], (Long) key);
+        }
+    }
+
+    /**
+     * VARCHAR column keys. The first four chars of every key are packed into
+     * a long next to it, most comparisons are settled on those alone.
+     */
+    static class StringTree<V> extends BPlusTree<V> {
+
+        static long prefix(String s) {
+            long res = 0;
+            for (int i = 0; i < 4; i++) {
+                res = (res << 16) | (i < s.length() ? s.charAt(i) : 0);
+            }
+            return res;
+        }
+
+        @Override
+        boolean isKey(Object key) {
+            return key instanceof String;
+        }
+
+        @Override
+        void allocKeys(Node node) {
+            node.longKeys = new long[ORDER + 1];
+            node.stringKeys = new String[ORDER + 1];
+        }
+
+        @Override
+        Object keyAt(Node node, int i) {
+            return node.stringKeys[i];
+        }
+
+        @Override
+        void setKey(Node node, int i, Object key) {
+            node.longKeys[i] = prefix((String) key);
+            node.stringKeys[i] = (String) key;
+        }
+
+        @Override
+        int search(Node node, Object key) {
+            String k = (String) key;
+            long p = prefix(k);
+            int low = 0;
+            int high = node.size - 1;
+
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(node, mid, p, k);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        @Override
+        int compareAt(Node node, int i, Object key) {
+            return compare(node, i, prefix((String) key), (String) key);
+        }
+
+        private static int compare(Node node, int i, long prefix, String key) {
+            int cmp = Long.compareUnsigned(node.longKeys[i], prefix);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return node.stringKeys[i].compareTo(key);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package dbms.engine;
+
+import java.util.ArrayList;
+
+import static dbms.engine.Table.Row;
+
+/**
+ * Up to {@link #CAPACITY} rows on their way through a query pipeline.
+ *
+ * A batch is read off a table as the source rows themselves; a projection
+ * then lays the selected values out column by column, next to the rows
+ * they came from (aggregates still read the source columns). Operators
+ * reuse their batch for every call, a consumer has to copy what it keeps.
+ */
+public class Batch {
+
+    public static final int CAPACITY = 1024;
+
+    /* rows of the source table */
+    final Row[] rows;
+
+    /* projected values, columns[c][i] is column c of the i-th row; null before projection */
+    Object[][] columns;
+
+    int size;
+
+    Batch() {
+        rows = new Row[CAPACITY];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Row getRow(int i) {
+        return rows[i];
+    }
+
+    public Object getValue(int i, int column) {
+        return columns[column][i];
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /* the i-th row as a table row of the projected values */
+    public Row toRow(int i) {
+        ArrayList<Object> values = new ArrayList<>(columns.length);
+        for (Object[] column : columns) {
+            values.add(column[i]);
+        }
+        return new Row(values);
+    }
+}
@@ -0,0 +1,710 @@
+package dbms.engine;
+
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.CoSQLQueryExecutionError;
+import dbms.exceptions.CoSQLQueryParseError;
+import dbms.parser.GroupByData;
+import dbms.parser.HavingCondition;
+import dbms.parser.TuplePredicate;
+import dbms.util.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.RecursiveTask;
+
+import static dbms.engine.Table.Column;
+import static dbms.engine.Table.Row;
+import static dbms.parser.GroupByData.Method;
+import static dbms.util.LanguageUtils.throwExecError;
+
+/**
+ * One stage of a query pipeline. SELECT runs as a chain of these,
+ * scan, filter, project, aggregate, limit, each pulling {@link Batch}es
+ * from the one before it; only the aggregate has to see its whole input
+ * before producing anything, every other stage holds one batch at a time,
+ * and a consumer that stops pulling stops the scan as well.
+ */
+public abstract class BatchOperator {
+
+    /* the ways scan reads a table, see accessPath */
+    public static final int ACCESS_INDEX_SCAN = 0;
+    public static final int ACCESS_PARALLEL_SCAN = 1;
+    public static final int ACCESS_COLUMNAR_SCAN = 2;
+    public static final int ACCESS_TABLE_SCAN = 3;
+
+    /* columns of the batches this stage produces, their projected values once past a projection */
+    public abstract ArrayList<Column> getColumns();
+
+    /* next batch, null once the input is exhausted; only valid until the following call */
+    public abstract Batch next() throws CoSQLError;
+
+    /**
+     * A stage that reads rows off a table, failing on nothing but the
+     * condition it evaluates.
+     */
+    public static abstract class Source extends BatchOperator {
+
+        @Override
+        public abstract Batch next() throws CoSQLQueryParseError;
+
+        /* every row left, in order */
+        public ArrayList<Row> drain() throws CoSQLQueryParseError {
+            ArrayList<Row> res = new ArrayList<>();
+            Batch batch;
+            while ((batch = next()) != null) {
+                for (int i = 0; i < batch.size; i++) {
+                    res.add(batch.rows[i]);
+                }
+            }
+            return res;
+        }
+    }
+
+    /**
+     * Rows of the table the compiled condition holds for, in table order:
+     * off the ids indexes give if they can answer it, straight off the
+     * column segments for a columnar INT column against a constant,
+     * otherwise tested as a scan goes by. A big enough table is tested by
+     * the shared workers, a morsel each (see {@link MatchingIds}), when the
+     * first batch is pulled.
+     */
+    public static Source scan(Table table, TuplePredicate predicate) throws CoSQLQueryParseError {
+        return scan(table, predicate, true);
+    }
+
+    /* as above, always on the calling thread and as it is pulled if not parallel */
+    public static Source scan(Table table, TuplePredicate predicate, boolean parallel) throws CoSQLQueryParseError {
+        switch (accessPath(table, predicate, parallel, table.getRowCount())) {
+            case ACCESS_INDEX_SCAN:
+                return new IdScan(table, predicate, false);
+            case ACCESS_PARALLEL_SCAN:
+                return new IdScan(table, predicate, true);
+            case ACCESS_COLUMNAR_SCAN:
+                return new ColumnarScan(table, (TuplePredicate.Comparison) predicate, 0, table.getRowCount(), true);
+            default:
+                return new Filter(new TableScan(table), predicate);
+        }
+    }
+
+    /**
+     * How scan reads the table, one of the ACCESS_* constants, as if it
+     * had the given number of rows. Nothing is read to decide it.
+     */
+    public static int accessPath(Table table, TuplePredicate predicate, boolean parallel, int rows) {
+
+        if (predicate.usesIndex(table)) {
+            return ACCESS_INDEX_SCAN;
+        }
+        if (parallel && Workers.worthSplitting(rows) && canSplit(table, predicate)) {
+            return ACCESS_PARALLEL_SCAN;
+        }
+        if (columnar(table, predicate)) {
+            return ACCESS_COLUMNAR_SCAN;
+        }
+        return ACCESS_TABLE_SCAN;
+    }
+
+    /* whether the condition is a columnar INT column against a constant, which ColumnarScan answers */
+    private static boolean columnar(Table table, TuplePredicate predicate) {
+
+        if (!(predicate instanceof TuplePredicate.Comparison) || !(table.storage instanceof ColumnarStorage)) {
+            return false;
+        }
+
+        TuplePredicate.Comparison comparison = (TuplePredicate.Comparison) predicate;
+        return table.getColumnAt(comparison.columnIndex).type == Table.ColumnType.INT && comparison.constant instanceof Long;
+    }
+
+    /* whether scan can be run as separate scans of parts of the table, see below */
+    public static boolean canSplit(Table table, TuplePredicate predicate) {
+        // an index answers for the whole table at once; pages go through the buffer pool, which is not thread safe
+        return !predicate.usesIndex(table) && !(table.storage instanceof PagedStorage);
+    }
+
+    /**
+     * Like {@link #scan(Table, TuplePredicate)}, over the rows at positions
+     * from (inclusive) to to (exclusive) only. Scans of disjoint ranges can
+     * run on different threads if {@link #canSplit} allows.
+     */
+    public static Source scan(Table table, TuplePredicate predicate, int from, int to) {
+
+        if (columnar(table, predicate)) {
+            return new ColumnarScan(table, (TuplePredicate.Comparison) predicate, from, to, false);
+        }
+
+        return new Filter(new RangeScan(table, from, to), predicate);
+    }
+
+    /* every row of the table, in table order */
+    static class TableScan extends Source {
+
+        private final Table table;
+        private final Iterator<Row> rows;
+        private final Batch batch = new Batch();
+
+        private boolean started;
+
+        TableScan(Table table) {
+            this.table = table;
+            this.rows = table.getRows().iterator();
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return table.getColumns();
+        }
+
+        @Override
+        public Batch next() {
+
+            if (!started) {
+                Metrics.indexMisses.increment();
+                started = true;
+            }
+
+            batch.size = 0;
+            while (batch.size < Batch.CAPACITY && rows.hasNext()) {
+                batch.rows[batch.size++] = rows.next();
+            }
+            Metrics.rowsScanned.add(batch.size);
+            return batch.size == 0 ? null : batch;
+        }
+    }
+
+    /**
+     * Ids of the rows at positions from .. to-1 the condition holds for,
+     * a morsel's worth scanned per task; the ids of the left half are
+     * merged before those of the right, the table order.
+     */
+    static class MatchingIds extends RecursiveTask<RoaringBitmap> {
+
+        private final Table table;
+        private final TuplePredicate predicate;
+        private final int from;
+        private final int to;
+
+        MatchingIds(Table table, TuplePredicate predicate, int from, int to) {
+            this.table = table;
+            this.predicate = predicate;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected RoaringBitmap compute() {
+
+            if (to - from <= Workers.MORSEL_SIZE) {
+                RoaringBitmap ids = new RoaringBitmap();
+                Source morsel = scan(table, predicate, from, to);
+                try {
+                    Batch batch;
+                    while ((batch = morsel.next()) != null) {
+                        for (int i = 0; i < batch.size; i++) {
+                            ids.add(batch.rows[i].getId());
+                        }
+                    }
+                } catch (CoSQLQueryParseError coSQLQueryParseError) {
+                    throw new Workers.Failure(coSQLQueryParseError);
+                }
+                return ids;
+            }
+
+            int mid = (from + to) >>> 1;
+            MatchingIds left = new MatchingIds(table, predicate, from, mid);
+            left.fork();
+            RoaringBitmap right = new MatchingIds(table, predicate, mid, to).compute();
+
+            RoaringBitmap res = left.join();
+            res.orWith(right);
+            return res;
+        }
+    }
+
+    /* the rows at positions from .. to-1 */
+    static class RangeScan extends Source {
+
+        private final Table table;
+        private final int to;
+        private final Batch batch = new Batch();
+
+        private int position;
+
+        RangeScan(Table table, int from, int to) {
+            this.table = table;
+            this.position = from;
+            this.to = to;
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return table.getColumns();
+        }
+
+        @Override
+        public Batch next() {
+            batch.size = 0;
+            while (batch.size < Batch.CAPACITY && position < to) {
+                batch.rows[batch.size++] = table.storage.get(position++);
+            }
+            Metrics.rowsScanned.add(batch.size);
+            return batch.size == 0 ? null : batch;
+        }
+    }
+
+    /**
+     * The rows the condition holds for, in id (table) order, off the ids
+     * indexes give or the shared workers test up front; the ids are only
+     * worked out once the first batch is pulled.
+     */
+    static class IdScan extends Source {
+
+        private final Table table;
+        private final TuplePredicate predicate;
+        private final boolean parallel;
+        private final Batch batch = new Batch();
+
+        private RoaringBitmap.IntIterator ids;
+
+        IdScan(Table table, TuplePredicate predicate, boolean parallel) {
+            this.table = table;
+            this.predicate = predicate;
+            this.parallel = parallel;
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return table.getColumns();
+        }
+
+        private RoaringBitmap matchingIds() throws CoSQLQueryParseError {
+
+            if (!parallel) {
+                return predicate.matchingIds(table, null);
+            }
+
+            try {
+                return Workers.pool().invoke(new MatchingIds(table, predicate, 0, table.getRowCount()));
+            } catch (Workers.Failure failure) {
+                throw (CoSQLQueryParseError) failure.getCause();
+            }
+        }
+
+        @Override
+        public Batch next() throws CoSQLQueryParseError {
+
+            if (ids == null) {
+                if (parallel) {
+                    Metrics.indexMisses.increment();
+                } else {
+                    Metrics.indexHits.increment();
+                }
+                ids = matchingIds().intIterator();
+            }
+
+            batch.size = 0;
+            while (batch.size < Batch.CAPACITY && ids.hasNext()) {
+                Row row = table.storage.getById(ids.next());
+                if (row != null) {
+                    batch.rows[batch.size++] = row;
+                }
+            }
+            if (!parallel) {
+                // those of a parallel scan were counted as the workers read them
+                Metrics.rowsScanned.add(batch.size);
+            }
+            return batch.size == 0 ? null : batch;
+        }
+    }
+
+    /**
+     * A columnar INT column against a constant: primitives are compared
+     * straight off the long segments and only matching rows materialized.
+     */
+    static class ColumnarScan extends Source {
+
+        private final Table table;
+        private final ColumnarStorage storage;
+        private final int column;
+        private final long constant;
+        private final int type;
+        private final int to;
+        private final Batch batch = new Batch();
+
+        /* whether it reads the whole table rather than a morsel of it, counted as a scan of its own */
+        private final boolean wholeTable;
+
+        private int position;
+        private boolean started;
+
+        ColumnarScan(Table table, TuplePredicate.Comparison comparison, int from, int to, boolean wholeTable) {
+            this.table = table;
+            this.storage = (ColumnarStorage) table.storage;
+            this.column = comparison.columnIndex;
+            this.constant = (Long) comparison.constant;
+            this.type = comparison.type;
+            this.position = from;
+            this.to = to;
+            this.wholeTable = wholeTable;
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return table.getColumns();
+        }
+
+        @Override
+        public Batch next() {
+
+            if (wholeTable && !started) {
+                Metrics.indexMisses.increment();
+            }
+            started = true;
+
+            int from = position;
+            batch.size = 0;
+            while (batch.size < Batch.CAPACITY && position < to) {
+                if (!storage.isNull(position, column) && compareLong(storage.getLong(position, column), constant, type)) {
+                    batch.rows[batch.size++] = storage.get(position);
+                }
+                position++;
+            }
+            Metrics.rowsScanned.add(position - from);
+            return batch.size == 0 ? null : batch;
+        }
+    }
+
+    private static boolean compareLong(long rowValue, long value, int type) {
+        switch (type) {
+            case DatabaseCore.COMPARISON_TYPE_EQUAL:
+                return rowValue == value;
+            case DatabaseCore.COMPARISON_TYPE_GREATER:
+                return rowValue > value;
+            case DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL:
+                return rowValue >= value;
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN:
+                return rowValue < value;
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN_OR_EQUAL:
+                return rowValue <= value;
+            default:
+                return false;
+        }
+    }
+
+    /* the rows of the input the predicate holds for, compacted in place */
+    static class Filter extends Source {
+
+        private final Source input;
+        private final TuplePredicate predicate;
+
+        Filter(Source input, TuplePredicate predicate) {
+            this.input = input;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return input.getColumns();
+        }
+
+        @Override
+        public Batch next() throws CoSQLQueryParseError {
+            Batch batch;
+            while ((batch = input.next()) != null) {
+                int kept = 0;
+                for (int i = 0; i < batch.size; i++) {
+                    if (predicate.test(batch.rows[i])) {
+                        batch.rows[kept++] = batch.rows[i];
+                    }
+                }
+                if (kept > 0) {
+                    batch.size = kept;
+                    return batch;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Lays the selected columns of the source rows out column by column,
+     * -1 standing for an aggregate, which has no value of its own before
+     * grouping.
+     */
+    public static class Project extends BatchOperator {
+
+        private final BatchOperator input;
+        private final ArrayList<Column> columns;
+        private final int[] sourceColumns;
+        private final Object[][] values;
+
+        public Project(BatchOperator input, ArrayList<Column> columns, int[] sourceColumns) {
+            this.input = input;
+            this.columns = columns;
+            this.sourceColumns = sourceColumns;
+            this.values = new Object[sourceColumns.length][Batch.CAPACITY];
+        }
+
+        /* the same projection of another input */
+        public Project withInput(BatchOperator input) {
+            return new Project(input, columns, sourceColumns);
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return columns;
+        }
+
+        @Override
+        public Batch next() throws CoSQLError {
+
+            Batch batch = input.next();
+            if (batch == null) {
+                return null;
+            }
+
+            for (int c = 0; c < sourceColumns.length; c++) {
+                Object[] column = values[c];
+                int source = sourceColumns[c];
+                for (int i = 0; i < batch.size; i++) {
+                    column[i] = source != -1 ? batch.rows[i].getValueAt(source) : "NULL"; //TODO :s
+                }
+            }
+            batch.columns = values;
+
+            return batch;
+        }
+    }
+
+    /**
+     * GROUP BY, a {@link HashAggregation} over the projected batches. Has
+     * to see all of its input before it hands on the groups that pass the
+     * HAVING condition, in the order they were first seen.
+     */
+    public static class Aggregate extends BatchOperator {
+
+        private final BatchOperator input;
+        private HashAggregation aggregation;
+
+        /* per projected column, its aggregate or -1 for a plain column */
+        private final int[] outputAggregates;
+
+        /* the aggregate HAVING tests, -1 without one */
+        private final int havingAggregate;
+        private final HavingCondition having;
+
+        private final Batch batch = new Batch();
+        private int nextGroup = -1;
+
+        public Aggregate(BatchOperator input, GroupByData groupBy, Table sourceTable) throws CoSQLError {
+            this.input = input;
+
+            ArrayList<Column> columns = input.getColumns();
+
+            // resolve columns
+            int[] keyColumns = new int[groupBy.getColumns().size()];
+            for (int k = 0; k < keyColumns.length; k++) {
+                String colName = groupBy.getColumns().get(k);
+                keyColumns[k] = -1;
+                for (int c = 0; c < columns.size(); c++) {
+                    if (columns.get(c).getName().equals(colName))
+                        keyColumns[k] = c;
+                }
+                if (keyColumns[k] == -1)
+                    throwExecError("Cannot resolve column name: %s", colName);
+            }
+
+            ArrayList<Method> methods = new ArrayList<>();
+            ArrayList<Integer> targets = new ArrayList<>();
+
+            outputAggregates = new int[columns.size()];
+            for (int c = 0; c < columns.size(); c++) {
+
+                outputAggregates[c] = -1;
+                if (!columns.get(c).getName().contains("~"))
+                    continue;
+
+                String[] explode = columns.get(c).getName().split("~");
+                Method method = Method.fromText(explode[0]);
+                if (method == null)
+                    throwExecError("No such aggregation function: %s", explode[0]);
+
+                outputAggregates[c] = methods.size();
+                methods.add(method);
+                targets.add(aggregateTarget(sourceTable, explode[1], explode[0]));
+            }
+
+            if (groupBy.getRawHavingCondition() != null) {
+                having = HavingCondition.parse(groupBy.getRawHavingCondition());
+                havingAggregate = methods.size();
+                methods.add(having.getMethod());
+                targets.add(aggregateTarget(sourceTable, having.getColumnName(), having.getMethod().getText()));
+            } else {
+                having = null;
+                havingAggregate = -1;
+            }
+
+            int[] targetColumns = new int[targets.size()];
+            for (int a = 0; a < targetColumns.length; a++) {
+                targetColumns[a] = targets.get(a);
+            }
+
+            aggregation = new HashAggregation(keyColumns, methods.toArray(new Method[methods.size()]), targetColumns);
+            batch.columns = new Object[columns.size()][Batch.CAPACITY];
+        }
+
+        private static int aggregateTarget(Table sourceTable, String column, String method) throws CoSQLQueryExecutionError {
+            try {
+                return sourceTable.getColumnIndex(column);
+            } catch (CoSQLError coSQLError) {
+                throw new CoSQLQueryExecutionError("Unknown column " + column + " used in aggregation function: " + method);
+            }
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return input.getColumns();
+        }
+
+        /* the whole input aggregated, starting from the given empty aggregation */
+        HashAggregation aggregate(HashAggregation empty) throws CoSQLError {
+            Batch in;
+            while ((in = input.next()) != null) {
+                empty.add(in);
+            }
+            return empty;
+        }
+
+        @Override
+        public Batch next() throws CoSQLError {
+
+            if (nextGroup == -1) {
+                aggregation = aggregate(aggregation);
+                nextGroup = 0;
+            }
+
+            batch.size = 0;
+            while (batch.size < Batch.CAPACITY && nextGroup < aggregation.getGroupCount()) {
+
+                int group = nextGroup++;
+                if (having != null && !having.holds(aggregation.getAggregateAsDouble(group, havingAggregate)))
+                    continue;
+
+                for (int c = 0; c < outputAggregates.length; c++) {
+                    batch.columns[c][batch.size] = outputAggregates[c] == -1
+                            ? aggregation.getValue(group, c) : aggregation.getAggregate(group, outputAggregates[c]);
+                }
+                batch.size++;
+            }
+
+            return batch.size == 0 ? null : batch;
+        }
+    }
+
+    /**
+     * GROUP BY over a scan of a whole table, on the shared workers: the
+     * table is split into morsels, each scanned, filtered, projected and
+     * aggregated on its own by a fork/join task, and the partial
+     * aggregations merged back in table order, so groups come out as they
+     * would from a single thread.
+     */
+    public static class ParallelAggregate extends Aggregate {
+
+        private final Project projection;
+        private final Table table;
+        private final TuplePredicate predicate;
+
+        public ParallelAggregate(Project projection, GroupByData groupBy, Table table, TuplePredicate predicate) throws CoSQLError {
+            super(projection, groupBy, table);
+            this.projection = projection;
+            this.table = table;
+            this.predicate = predicate;
+        }
+
+        private class Morsels extends RecursiveTask<HashAggregation> {
+
+            private final HashAggregation empty;
+            private final int from;
+            private final int to;
+
+            Morsels(HashAggregation empty, int from, int to) {
+                this.empty = empty;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected HashAggregation compute() {
+
+                if (to - from <= Workers.MORSEL_SIZE) {
+                    HashAggregation partial = empty.emptyCopy();
+                    BatchOperator plan = projection.withInput(scan(table, predicate, from, to));
+                    try {
+                        Batch batch;
+                        while ((batch = plan.next()) != null) {
+                            partial.add(batch);
+                        }
+                    } catch (CoSQLError coSQLError) {
+                        throw new Workers.Failure(coSQLError);
+                    }
+                    return partial;
+                }
+
+                int mid = (from + to) >>> 1;
+                Morsels left = new Morsels(empty, from, mid);
+                left.fork();
+                HashAggregation right = new Morsels(empty, mid, to).compute();
+
+                HashAggregation res = left.join();
+                res.merge(right);
+                return res;
+            }
+        }
+
+        @Override
+        HashAggregation aggregate(HashAggregation empty) throws CoSQLError {
+            Metrics.indexMisses.increment();
+            try {
+                return Workers.pool().invoke(new Morsels(empty, 0, table.getRowCount()));
+            } catch (Workers.Failure failure) {
+                throw (CoSQLError) failure.getCause();
+            }
+        }
+    }
+
+    /* the first rows of the input; stops pulling from it once they are out */
+    public static class Limit extends BatchOperator {
+
+        private final BatchOperator input;
+        private long remaining;
+
+        public Limit(BatchOperator input, long limit) {
+            this.input = input;
+            this.remaining = limit;
+        }
+
+        @Override
+        public ArrayList<Column> getColumns() {
+            return input.getColumns();
+        }
+
+        @Override
+        public Batch next() throws CoSQLError {
+
+            if (remaining <= 0) {
+                return null;
+            }
+
+            Batch batch = input.next();
+            if (batch == null) {
+                return null;
+            }
+
+            if (batch.size > remaining) {
+                batch.size = (int) remaining;
+            }
+            remaining -= batch.size;
+
+            return batch;
+        }
+    }
+}
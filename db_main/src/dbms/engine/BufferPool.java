@@ -0,0 +1,287 @@
+package dbms.engine;
+
+import dbms.DatabaseBible;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Fixed number of page frames shared by every paged table.
+ *
+ * Eviction is a segmented LRU: a page read from disk starts in the
+ * probation segment and only moves to the protected one when it is asked
+ * for again after some other page was touched in between. A sequential
+ * scan reads each page once (however many rows it holds), so it cycles
+ * through probation and never pushes the pages in real reuse out of the
+ * protected segment.
+ */
+class BufferPool {
+
+    static final int PAGE_SIZE = 8192;
+
+    private static BufferPool shared;
+
+    static synchronized BufferPool shared() {
+        if (shared == null) {
+            shared = new BufferPool(DatabaseBible.BUFFER_POOL_FRAMES);
+        }
+        return shared;
+    }
+
+    private final int capacity;
+    private final int protectedCapacity;
+
+    /* frames by file id (high half) and page number (low half) */
+    private final HashMap<Long, Frame> frames = new HashMap<>();
+
+    /* circular lists with sentinels, most recently used after the head */
+    private final Frame probation = new Frame();
+    private final Frame protectedSegment = new Frame();
+    private int protectedCount;
+
+    /* advances whenever a different page than the last one is asked for */
+    private long clock;
+    private long lastKey = -1;
+
+    BufferPool(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("Buffer pool needs at least two frames");
+        }
+        this.capacity = capacity;
+        this.protectedCapacity = capacity * 3 / 4;
+    }
+
+    /**
+     * Returns the frame holding the given page, reading it in if needed.
+     * The frame stays in memory until {@link #unpin(Frame, boolean)}.
+     */
+    synchronized Frame pin(PageFile file, int pageNo) {
+
+        long key = key(file, pageNo);
+        if (key != lastKey) {
+            clock++;
+            lastKey = key;
+        }
+
+        Frame frame = frames.get(key);
+        if (frame != null) {
+            touch(frame);
+            frame.pins++;
+            return frame;
+        }
+
+        frame = allocate();
+        frame.file = file;
+        frame.pageNo = pageNo;
+        frame.stamp = clock;
+        frame.data.clear();
+
+        if (pageNo < file.pageCount) {
+            file.read(pageNo, frame.data);
+        } else {
+            // a fresh page past the end of the file
+            while (frame.data.hasRemaining()) {
+                frame.data.put((byte) 0);
+            }
+            file.pageCount = pageNo + 1;
+            frame.dirty = true;
+        }
+        frame.data.clear();
+
+        frames.put(key, frame);
+        linkAfter(probation, frame);
+        frame.pins = 1;
+        return frame;
+    }
+
+    synchronized void unpin(Frame frame, boolean dirty) {
+        frame.pins--;
+        frame.dirty |= dirty;
+    }
+
+    /* forgets every page of the file, without writing them back */
+    synchronized void drop(PageFile file) {
+        Iterator<Frame> it = frames.values().iterator();
+        while (it.hasNext()) {
+            Frame frame = it.next();
+            if (frame.file == file) {
+                it.remove();
+                unlink(frame);
+                frame.file = null;
+                frame.dirty = false;
+            }
+        }
+    }
+
+    private void touch(Frame frame) {
+
+        // touched again in the same run of accesses, not a reuse
+        if (!frame.isProtected && frame.stamp == clock) {
+            return;
+        }
+
+        unlink(frame);
+        linkAfter(protectedSegment, frame);
+
+        // keep probation alive, the coldest protected page goes back to it
+        if (protectedCount > protectedCapacity) {
+            Frame coldest = protectedSegment.prev;
+            unlink(coldest);
+            linkAfter(probation, coldest);
+        }
+    }
+
+    private Frame allocate() {
+
+        if (frames.size() < capacity) {
+            return new Frame(ByteBuffer.allocate(PAGE_SIZE));
+        }
+
+        Frame victim = victim(probation);
+        if (victim == null) {
+            victim = victim(protectedSegment);
+        }
+        if (victim == null) {
+            throw new IllegalStateException("All " + capacity + " buffer pool frames are pinned");
+        }
+
+        if (victim.dirty) {
+            victim.data.clear();
+            victim.file.write(victim.pageNo, victim.data);
+            victim.dirty = false;
+        }
+
+        frames.remove(key(victim.file, victim.pageNo));
+        unlink(victim);
+        return victim;
+    }
+
+    /* least recently used unpinned frame of the segment */
+    private Frame victim(Frame segment) {
+        for (Frame f = segment.prev; f != segment; f = f.prev) {
+            if (f.pins == 0) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private void unlink(Frame frame) {
+        if (frame.prev == null) {
+            return;
+        }
+        if (frame.isProtected) {
+            protectedCount--;
+            frame.isProtected = false;
+        }
+        frame.prev.next = frame.next;
+        frame.next.prev = frame.prev;
+        frame.prev = frame.next = null;
+    }
+
+    private void linkAfter(Frame head, Frame frame) {
+        frame.isProtected = head == protectedSegment;
+        if (frame.isProtected) {
+            protectedCount++;
+        }
+        frame.prev = head;
+        frame.next = head.next;
+        head.next.prev = frame;
+        head.next = frame;
+    }
+
+    private static long key(PageFile file, int pageNo) {
+        return ((long) file.id << 32) | (pageNo & 0xFFFFFFFFL);
+    }
+
+    static class Frame {
+
+        final ByteBuffer data;
+
+        PageFile file;
+        int pageNo;
+        int pins;
+        boolean dirty;
+
+        boolean isProtected;
+        long stamp;
+
+        Frame prev, next;
+
+        Frame(ByteBuffer data) {
+            this.data = data;
+        }
+
+        /* list sentinel */
+        Frame() {
+            this.data = null;
+            this.prev = this.next = this;
+        }
+    }
+
+    /**
+     * A file of {@link #PAGE_SIZE} pages, only read and written through
+     * the pool.
+     */
+    static class PageFile {
+
+        private static int nextId;
+
+        final int id;
+        final File path;
+        private final FileChannel channel;
+        int pageCount;
+
+        PageFile(File path) {
+            synchronized (PageFile.class) {
+                this.id = nextId++;
+            }
+            this.path = path;
+            try {
+                this.channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void read(int pageNo, ByteBuffer into) {
+            try {
+                long position = (long) pageNo * PAGE_SIZE;
+                while (into.hasRemaining()) {
+                    if (channel.read(into, position + into.position()) < 0) {
+                        throw new IOException("Page " + pageNo + " is past the end of " + path);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void write(int pageNo, ByteBuffer from) {
+            try {
+                long position = (long) pageNo * PAGE_SIZE;
+                while (from.hasRemaining()) {
+                    channel.write(from, position + from.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            path.delete();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package dbms.engine;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * What ANALYZE learned about one column: how many rows, NULLs and
+ * distinct values it had, and an equi-depth histogram of the values, its
+ * bucket bounds picked so that every bucket holds about as many rows.
+ */
+public class ColumnStatistics implements Serializable {
+
+    static final int BUCKETS = 64;
+
+    final int rowCount;
+    final int nullCount;
+    final int distinctCount;
+
+    /* BUCKETS + 1 non decreasing bounds, empty when every value is NULL */
+    final Object[] bounds;
+
+    /* as collected, or read back from a snapshot */
+    ColumnStatistics(int rowCount, int nullCount, int distinctCount, Object[] bounds) {
+        this.rowCount = rowCount;
+        this.nullCount = nullCount;
+        this.distinctCount = distinctCount;
+        this.bounds = bounds;
+    }
+
+    static ColumnStatistics collect(Table table, int column) {
+
+        boolean isInt = table.getColumnAt(column).type == Table.ColumnType.INT;
+
+        // non NULL values sorted, longs or strings by the column type
+        int rowCount = table.getRowCount();
+        long[] longs = isInt ? new long[rowCount] : null;
+        String[] strings = isInt ? null : new String[rowCount];
+        int count = 0;
+        for (Table.Row row : table.getRows()) {
+            Object value = row.getValueAt(column);
+            if (isInt ? value instanceof Long : value instanceof String && !value.equals("NULL")) {
+                if (isInt) {
+                    longs[count++] = (Long) value;
+                } else {
+                    strings[count++] = (String) value;
+                }
+            }
+        }
+
+        if (isInt) {
+            Arrays.sort(longs, 0, count);
+        } else {
+            Arrays.sort(strings, 0, count);
+        }
+
+        int distinctCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (isInt ? longs[i] != longs[i - 1] : !strings[i].equals(strings[i - 1]))) {
+                distinctCount++;
+            }
+        }
+
+        Object[] bounds = new Object[count == 0 ? 0 : BUCKETS + 1];
+        for (int k = 0; k < bounds.length; k++) {
+            int i = (int) ((long) k * (count - 1) / BUCKETS);
+            bounds[k] = isInt ? (Object) longs[i] : strings[i];
+        }
+
+        return new ColumnStatistics(rowCount, rowCount - count, distinctCount, bounds);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    /**
+     * Estimated fraction of the rows whose value compares to the constant
+     * as requested (one of the DatabaseCore.COMPARISON_TYPE_* constants).
+     */
+    public double selectivity(int type, Object constant) {
+
+        // NULLs and values of another type never compare
+        if (bounds.length == 0 || constant == null || constant.getClass() != bounds[0].getClass()) {
+            return 0;
+        }
+
+        double equal = equalFraction(constant);
+        double less = lessFraction(constant);
+
+        double res;
+        switch (type) {
+            case DatabaseCore.COMPARISON_TYPE_EQUAL:
+                res = equal;
+                break;
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN:
+                res = less;
+                break;
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN_OR_EQUAL:
+                res = less + equal;
+                break;
+            case DatabaseCore.COMPARISON_TYPE_GREATER:
+                res = 1 - less - equal;
+                break;
+            case DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL:
+                res = 1 - less;
+                break;
+            default:
+                res = 1;
+        }
+
+        double nonNull = (rowCount - nullCount) / (double) rowCount;
+        return Math.min(1, Math.max(0, res)) * nonNull;
+    }
+
+    /* of the non NULL values, the fraction equal to v */
+    private double equalFraction(Object v) {
+
+        if (compare(v, bounds[0]) < 0 || compare(v, bounds[BUCKETS]) > 0) {
+            return 0;
+        }
+
+        // a value repeated across bounds fills the buckets in between
+        int repeated = 0;
+        for (Object bound : bounds) {
+            if (v.equals(bound)) {
+                repeated++;
+            }
+        }
+
+        return Math.max(1.0 / distinctCount, (repeated - 1) / (double) BUCKETS);
+    }
+
+    /* of the non NULL values, the fraction strictly below v */
+    private double lessFraction(Object v) {
+
+        if (compare(v, bounds[0]) <= 0) {
+            return 0;
+        }
+        if (compare(v, bounds[BUCKETS]) > 0) {
+            return 1;
+        }
+
+        // first bound not below v, v falls in the bucket ending there
+        int lo = 1, hi = BUCKETS;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(bounds[mid], v) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        // where in the bucket, linearly for numbers, half way for strings
+        double within = 0.5;
+        if (v instanceof Long) {
+            long from = (Long) bounds[lo - 1];
+            long to = (Long) bounds[lo];
+            within = to > from ? ((Long) v - from) / (double) (to - from) : 1;
+        }
+
+        return (lo - 1 + within) / BUCKETS;
+    }
+
+    /* two values of the column, both Longs or both Strings */
+    private static int compare(Object a, Object b) {
+        if (a instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        }
+        return ((String) a).compareTo((String) b);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows, %d NULL, %d distinct", rowCount, nullCount, distinctCount);
+    }
+}
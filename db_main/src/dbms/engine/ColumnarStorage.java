@@ -0,0 +1,414 @@
+package dbms.engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static dbms.engine.Table.Column;
+import static dbms.engine.Table.Row;
+
+/**
+ * Column-wise layout: INT columns live in primitive {@code long[]} segments
+ * (plus a null bitmap), VARCHAR columns in {@code String[]} segments. Rows
+ * are addressed by slot; {@link RowView} objects are handed out on demand and
+ * read/write straight through to the vectors.
+ */
+class ColumnarStorage extends TableStorage {
+
+    static final int SEGMENT_SHIFT = 12;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /* what a NULL INT cell reads as, same as the row layout stores it */
+    static final String NULL = "NULL";
+
+    /* schema is shared with the owning table, vectors are built on first insert */
+    private ArrayList<Column> columns;
+    private ColumnVector[] vectors;
+
+    /* slot of each row by position, removed ones included until the next compact; slots are never reused so this stays sorted */
+    private int[] order = new int[16];
+    private int length;
+    private int slotCount;
+
+    /* slots of live rows, and how many rows in order were removed since it was last compacted */
+    private final BitSet live = new BitSet();
+    private volatile int removed;
+
+    ColumnarStorage(ArrayList<Column> columns) {
+        this.columns = columns;
+    }
+
+    @Override
+    int size() {
+        return length - removed;
+    }
+
+    @Override
+    Row get(int position) {
+        checkPosition(position);
+        return new RowView(this, order[position]);
+    }
+
+    @Override
+    Row getById(int id) {
+        if (id < 0 || !live.get(id)) {
+            return null;
+        }
+        return new RowView(this, id);
+    }
+
+    @Override
+    Object getValue(int position, int column) {
+        checkPosition(position);
+        return vectors[column].get(order[position]);
+    }
+
+    /* the two below are read per row by ColumnarScan, positions are checked by it */
+    boolean isNull(int position, int column) {
+        if (removed != 0) {
+            compact();
+        }
+        return ((LongVector) vectors[column]).nulls.get(order[position]);
+    }
+
+    long getLong(int position, int column) {
+        if (removed != 0) {
+            compact();
+        }
+        return ((LongVector) vectors[column]).getLong(order[position]);
+    }
+
+    @Override
+    Row add(ArrayList<Object> values) {
+        ensureVectors();
+
+        int slot = slotCount++;
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i].set(slot, i < values.size() ? values.get(i) : null);
+        }
+
+        if (length == order.length) {
+            order = Arrays.copyOf(order, length * 2);
+        }
+        order[length++] = slot;
+        live.set(slot);
+
+        return new RowView(this, slot);
+    }
+
+    /*
+     * A removed row is only marked, it leaves order (and its segments are
+     * released) the next time rows are reached by position, so a DELETE of
+     * many rows compacts once rather than once per row.
+     */
+    @Override
+    void remove(Row row) {
+
+        int slot;
+        if (row instanceof RowView && ((RowView) row).storage == this) {
+            slot = row.id;
+        } else {
+            int position = indexOf(row);
+            if (position == -1) {
+                return;
+            }
+            slot = order[position];
+        }
+
+        if (slot < 0 || !live.get(slot)) {
+            return;
+        }
+        live.clear(slot);
+        removed++;
+
+        for (ColumnVector vector : vectors) {
+            vector.clear(slot);
+        }
+    }
+
+    @Override
+    int indexOf(Row row) {
+        if (row instanceof RowView && ((RowView) row).storage == this) {
+            if (!live.get(row.id)) {
+                return -1;
+            }
+            if (removed != 0) {
+                compact();
+            }
+            return Arrays.binarySearch(order, 0, length, row.id);
+        }
+
+        // foreign row, compare by value like the row layout does
+        for (int i = 0; i < size(); i++) {
+            if (get(i).equals(row)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    ArrayList<Row> asList() {
+        if (removed != 0) {
+            compact();
+        }
+        ArrayList<Row> res = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            res.add(new RowView(this, order[i]));
+        }
+        return res;
+    }
+
+    @Override
+    Iterable<Row> rows() {
+        return new Iterable<Row>() {
+            @Override
+            public Iterator<Row> iterator() {
+                return new Iterator<Row>() {
+
+                    // compact copies order, so rows removed while iterating are skipped and none shift
+                    final int[] slots = order;
+                    final int end = length;
+                    int next = skipRemoved(0);
+
+                    private int skipRemoved(int i) {
+                        while (i < end && !live.get(slots[i])) {
+                            i++;
+                        }
+                        return i;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < end;
+                    }
+
+                    @Override
+                    public Row next() {
+                        if (next >= end) {
+                            throw new NoSuchElementException();
+                        }
+                        Row res = new RowView(ColumnarStorage.this, slots[next]);
+                        next = skipRemoved(next + 1);
+                        return res;
+                    }
+                };
+            }
+        };
+    }
+
+    /*
+     * Drops removed rows from order into a new array, and releases the
+     * segments no live row is in any more. Morsels of a parallel scan may
+     * get here together, the first compacts and removed, written last,
+     * tells the others it is done.
+     */
+    private synchronized void compact() {
+
+        if (removed == 0) {
+            return;
+        }
+
+        int[] res = new int[Math.max(16, Integer.highestOneBit(Math.max(1, size())) * 2)];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            if (live.get(order[i])) {
+                res[n++] = order[i];
+            }
+        }
+
+        // the last segment is still being filled
+        int segments = slotCount >>> SEGMENT_SHIFT;
+        for (int s = 0; s < segments; s++) {
+            int next = live.nextSetBit(s << SEGMENT_SHIFT);
+            if (next == -1 || next >>> SEGMENT_SHIFT != s) {
+                for (ColumnVector vector : vectors) {
+                    vector.release(s);
+                }
+            }
+        }
+
+        order = res;
+        length = n;
+        removed = 0;
+    }
+
+    @Override
+    void columnAdded() {
+        if (vectors != null) {
+            ensureVectors();
+        }
+    }
+
+    private void checkPosition(int position) {
+        if (removed != 0) {
+            compact();
+        }
+        if (position < 0 || position >= length) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + length);
+        }
+    }
+
+    private void ensureVectors() {
+
+        if (vectors != null && vectors.length == columns.size()) {
+            return;
+        }
+
+        ColumnVector[] res = new ColumnVector[columns.size()];
+        for (int i = 0; i < res.length; i++) {
+            if (vectors != null && i < vectors.length) {
+                res[i] = vectors[i];
+            } else {
+                res[i] = columns.get(i).type == Table.ColumnType.INT ? new LongVector() : new StringVector();
+                // a column added after rows were: NULL in each of them
+                for (int slot = live.nextSetBit(0); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                    res[i].set(slot, NULL);
+                }
+            }
+        }
+        vectors = res;
+    }
+
+    static abstract class ColumnVector implements Serializable {
+
+        abstract Object get(int slot);
+
+        abstract void set(int slot, Object value);
+
+        abstract void clear(int slot);
+
+        /* drops a segment none of whose slots is live, reading it after gives NULL */
+        abstract void release(int segment);
+    }
+
+    static class LongVector extends ColumnVector {
+
+        ArrayList<long[]> segments = new ArrayList<>();
+        BitSet nulls = new BitSet();
+
+        long getLong(int slot) {
+            return segments.get(slot >>> SEGMENT_SHIFT)[slot & SEGMENT_MASK];
+        }
+
+        @Override
+        Object get(int slot) {
+            if (nulls.get(slot) || segments.get(slot >>> SEGMENT_SHIFT) == null) {
+                return NULL;
+            }
+            return getLong(slot);
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            while (segments.size() <= slot >>> SEGMENT_SHIFT) {
+                segments.add(new long[SEGMENT_SIZE]);
+            }
+            if (segments.get(slot >>> SEGMENT_SHIFT) == null) {
+                segments.set(slot >>> SEGMENT_SHIFT, new long[SEGMENT_SIZE]);
+            }
+
+            if (value instanceof Long) {
+                segments.get(slot >>> SEGMENT_SHIFT)[slot & SEGMENT_MASK] = (Long) value;
+                nulls.clear(slot);
+            } else {
+                nulls.set(slot);
+            }
+        }
+
+        @Override
+        void clear(int slot) {
+            nulls.clear(slot);
+        }
+
+        @Override
+        void release(int segment) {
+            segments.set(segment, null);
+        }
+    }
+
+    static class StringVector extends ColumnVector {
+
+        ArrayList<String[]> segments = new ArrayList<>();
+
+        @Override
+        Object get(int slot) {
+            String[] segment = segments.get(slot >>> SEGMENT_SHIFT);
+            return segment == null ? null : segment[slot & SEGMENT_MASK];
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            while (segments.size() <= slot >>> SEGMENT_SHIFT) {
+                segments.add(new String[SEGMENT_SIZE]);
+            }
+            if (segments.get(slot >>> SEGMENT_SHIFT) == null) {
+                segments.set(slot >>> SEGMENT_SHIFT, new String[SEGMENT_SIZE]);
+            }
+            segments.get(slot >>> SEGMENT_SHIFT)[slot & SEGMENT_MASK] = value == null ? null : value.toString();
+        }
+
+        @Override
+        void clear(int slot) {
+            String[] segment = segments.get(slot >>> SEGMENT_SHIFT);
+            if (segment != null) {
+                segment[slot & SEGMENT_MASK] = null;
+            }
+        }
+
+        @Override
+        void release(int segment) {
+            segments.set(segment, null);
+        }
+    }
+
+    /**
+     * A row handed out by the columnar layout. Holds no values of its own,
+     * reads and updates go straight to the column vectors. Its id is the slot.
+     */
+    static class RowView extends Row {
+
+        private final ColumnarStorage storage;
+
+        RowView(ColumnarStorage storage, int slot) {
+            super(null);
+            this.storage = storage;
+            this.id = slot;
+        }
+
+        @Override
+        public ArrayList<Object> getValues() {
+            ArrayList<Object> res = new ArrayList<>(storage.vectors.length);
+            for (ColumnVector vector : storage.vectors) {
+                res.add(vector.get(id));
+            }
+            return res;
+        }
+
+        @Override
+        public Object getValueAt(int index) {
+            return storage.vectors[index].get(id);
+        }
+
+        @Override
+        public void updateValueAt(int i, Object obj) {
+            storage.vectors[i].set(id, obj);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof RowView && ((RowView) o).storage == storage && ((RowView) o).id == id)
+                return true;
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package dbms.engine;
+
+/**
+ * Weighs the ways of answering a comparison on an indexed column: a full
+ * scan, an index scan, or intersecting its postings with the rows an
+ * earlier condition left.
+ *
+ * Costs are in units of testing one row during a scan; only their ratios
+ * matter. Selectivities come from the column's ANALYZE statistics; an
+ * equality on a column ANALYZE never saw is assumed to hit one key of its
+ * index, and a range on such a column is not estimated at all (-1), in
+ * which case the index is used as before statistics existed.
+ */
+public class CostModel {
+
+    /* rows fetched by id are random reads, a scan reads them in order */
+    static final double FETCH_ROW_COST = 4;
+    static final double SCAN_ROW_COST = 1;
+
+    /* checking one posting entry against the candidate ids */
+    static final double PROBE_COST = 0.25;
+
+    /* without statistics, fewer candidates than this are tested rather than intersected with a range */
+    static final int RULE_TEST_LIMIT = 64;
+
+    /* assumed where nothing better is known, to rank and combine conditions */
+    public static final double DEFAULT_EQUAL_SELECTIVITY = 0.1;
+    public static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * Estimated fraction of the table's rows whose value in the column
+     * compares to the constant as requested, -1 if there is no basis for
+     * an estimate.
+     */
+    public static double selectivity(Table table, int column, int type, Object constant) {
+
+        Table.Column col = table.getColumnAt(column);
+
+        ColumnStatistics statistics = table.getStatistics(col);
+        if (statistics != null) {
+            return statistics.selectivity(type, constant);
+        }
+
+        Table.Index idx = table.getIndex(col);
+        if (type == DatabaseCore.COMPARISON_TYPE_EQUAL && idx != null && !idx.index.isEmpty()) {
+            return 1.0 / idx.index.size();
+        }
+
+        return -1;
+    }
+
+    /* whether fetching the matching rows off an index beats scanning the table */
+    public static boolean indexBeatsScan(double selectivity) {
+        return selectivity < 0 || selectivity * FETCH_ROW_COST < SCAN_ROW_COST;
+    }
+
+    /**
+     * Whether walking the postings of the matching keys beats fetching
+     * and testing each of the candidates.
+     */
+    public static boolean intersectBeatsTest(Table table, double selectivity, int type, int candidates) {
+        if (selectivity < 0) {
+            return type == DatabaseCore.COMPARISON_TYPE_EQUAL || candidates > RULE_TEST_LIMIT;
+        }
+        return selectivity * table.getRowCount() * PROBE_COST < candidates * FETCH_ROW_COST;
+    }
+
+    /* estimated number of distinct values in the column, -1 if there is no basis for an estimate */
+    public static double distinctValues(Table table, int column) {
+
+        Table.Column col = table.getColumnAt(column);
+
+        ColumnStatistics statistics = table.getStatistics(col);
+        if (statistics != null) {
+            return statistics.getDistinctCount();
+        }
+
+        Table.Index idx = table.getIndex(col);
+        if (idx != null) {
+            return idx.index.size();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Estimated rows of an equality join: every value of the side with
+     * fewer distinct ones is assumed to be among those of the other. A
+     * column nothing is known of is taken to be unique.
+     */
+    public static double joinRows(Table left, int leftColumn, Table right, int rightColumn) {
+
+        double leftDistinct = distinctValues(left, leftColumn);
+        if (leftDistinct < 0) {
+            leftDistinct = left.getRowCount();
+        }
+        double rightDistinct = distinctValues(right, rightColumn);
+        if (rightDistinct < 0) {
+            rightDistinct = right.getRowCount();
+        }
+
+        return (double) left.getRowCount() * right.getRowCount() / Math.max(1, Math.max(leftDistinct, rightDistinct));
+    }
+}
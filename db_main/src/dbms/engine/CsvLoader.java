@@ -0,0 +1,340 @@
+package dbms.engine;
+
+import dbms.util.RoaringBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Streams a CSV file into a table for LOAD DATA.
+ *
+ * The file is read through a FileChannel in large chunks and every field
+ * is parsed straight from the bytes into the cell value of its column:
+ * INT fields to longs without going through a String, VARCHAR fields
+ * decoded as UTF-8. Fields may be quoted with '"' (a doubled quote inside
+ * is one quote), an unquoted empty or NULL INT field is NULL. Quoted
+ * fields can not span lines.
+ *
+ * C1 and C2 are checked on the fly, against the table and the keys loaded
+ * so far, but no index is touched until the end of the file; the loaded
+ * rows are then indexed in one pass.
+ */
+class CsvLoader {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final Table target;
+    private final int columnCount;
+    private final boolean[] isInt;
+
+    private final int pkIndex;
+    private final int[] fkIndexes;
+
+    /* PK values loaded so far, C1 can not see them through the index yet */
+    private final KeySet loadedKeys = new KeySet();
+    private final RoaringBitmap loadedIds = new RoaringBitmap();
+
+    int loaded;
+    int malformed;
+    int firstMalformedLine = -1;
+    final int[] failed = new int[2];
+
+    /* scratch for unquoting */
+    private byte[] field = new byte[256];
+
+    CsvLoader(Table target) {
+        this.target = target;
+        this.columnCount = target.getColumnCount();
+
+        this.isInt = new boolean[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            isInt[i] = target.getColumnAt(i).type == Table.ColumnType.INT;
+        }
+
+        this.pkIndex = target.getColumnIndex(target.getPKcolumn());
+        this.fkIndexes = new int[target.FKcolumns.size()];
+        for (int j = 0; j < fkIndexes.length; j++) {
+            fkIndexes[j] = target.getColumnIndex(target.FKcolumns.get(j));
+        }
+    }
+
+    void load(File file, int ignoreLines) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            int lineNo = 0;
+            boolean eof = false;
+
+            while (!eof) {
+
+                if (channel.read(buffer) == -1) {
+                    eof = true;
+                }
+
+                byte[] bytes = buffer.array();
+                int limit = buffer.position();
+                int start = 0;
+
+                // every complete line in the chunk, and the rest of the file at its end
+                for (int i = 0; i < limit; i++) {
+                    if (bytes[i] == '\n') {
+                        if (++lineNo > ignoreLines) {
+                            line(bytes, start, i, lineNo);
+                        }
+                        start = i + 1;
+                    }
+                }
+                if (eof && start < limit && ++lineNo > ignoreLines) {
+                    line(bytes, start, limit, lineNo);
+                    start = limit;
+                }
+
+                // keep the unfinished line for the next chunk
+                buffer.position(start);
+                buffer.limit(limit);
+                buffer.compact();
+
+                if (!buffer.hasRemaining()) {
+                    // a line longer than the buffer
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+            }
+        } finally {
+            // whatever made it in gets indexed, even if reading failed half way
+            target.indexRows(loadedIds);
+        }
+    }
+
+    private void line(byte[] bytes, int from, int to, int lineNo) {
+
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        if (to == from) {
+            return; // blank line
+        }
+
+        ArrayList<Object> row = parse(bytes, from, to);
+        if (row == null) {
+            malformed++;
+            if (firstMalformedLine == -1) {
+                firstMalformedLine = lineNo;
+            }
+            return;
+        }
+
+        // C1
+        if (pkIndex != -1) {
+            Object key = row.get(pkIndex);
+            if (loadedKeys.contains(key) || target.containsPK(key)) {
+                failed[0]++;
+                return;
+            }
+        }
+
+        // C2, a self reference may point at a row loaded before
+        for (int j = 0; j < fkIndexes.length; j++) {
+            Table reference = target.tableReference.get(j);
+            Object value = row.get(fkIndexes[j]);
+            if (!reference.containsPK(value) && !(reference == target && loadedKeys.contains(value))) {
+                failed[1]++;
+                return;
+            }
+        }
+
+        if (pkIndex != -1) {
+            loadedKeys.add(row.get(pkIndex));
+        }
+        loadedIds.add(target.storage.add(row).getId());
+        loaded++;
+    }
+
+    /* cell values of one line, null if it does not fit the table */
+    private ArrayList<Object> parse(byte[] bytes, int from, int to) {
+
+        ArrayList<Object> row = new ArrayList<>(columnCount);
+        int p = from;
+
+        for (int c = 0; c < columnCount; c++) {
+
+            if (c > 0) {
+                if (p >= to || bytes[p] != ',') {
+                    return null; // too few fields
+                }
+                p++;
+            }
+
+            if (p < to && bytes[p] == '"') {
+                // quoted, unescape into the scratch buffer
+                int length = 0;
+                p++;
+                while (true) {
+                    if (p >= to) {
+                        return null; // unterminated quote
+                    }
+                    byte b = bytes[p++];
+                    if (b == '"') {
+                        if (p < to && bytes[p] == '"') {
+                            p++;
+                        } else {
+                            break;
+                        }
+                    }
+                    if (length == field.length) {
+                        field = Arrays.copyOf(field, length * 2);
+                    }
+                    field[length++] = b;
+                }
+
+                Object value = isInt[c] ? parseLong(field, 0, length) : new String(field, 0, length, StandardCharsets.UTF_8);
+                if (value == null) {
+                    return null;
+                }
+                row.add(value);
+
+            } else {
+                int end = p;
+                while (end < to && bytes[end] != ',') {
+                    end++;
+                }
+
+                Object value;
+                if (isNull(bytes, p, end)) {
+                    value = "NULL";
+                } else if (isInt[c]) {
+                    value = parseLong(bytes, p, end);
+                    if (value == null) {
+                        return null;
+                    }
+                } else {
+                    value = new String(bytes, p, end - p, StandardCharsets.UTF_8);
+                }
+                row.add(value);
+                p = end;
+            }
+        }
+
+        return p == to ? row : null; // too many fields otherwise
+    }
+
+    private static boolean isNull(byte[] bytes, int from, int to) {
+        return to - from == 4
+                && (bytes[from] | 0x20) == 'n' && (bytes[from + 1] | 0x20) == 'u'
+                && (bytes[from + 2] | 0x20) == 'l' && (bytes[from + 3] | 0x20) == 'l';
+    }
+
+    /* the value of a numeral, "NULL" for an empty field, null if it is not a numeral or out of range */
+    private static Object parseLong(byte[] bytes, int from, int to) {
+
+        if (from == to) {
+            return "NULL";
+        }
+
+        boolean negative = bytes[from] == '-';
+        if (negative || bytes[from] == '+') {
+            from++;
+        }
+        if (from == to) {
+            return null;
+        }
+
+        // accumulate negatively, Long.MIN_VALUE has no positive counterpart
+        long res = 0;
+        for (int i = from; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || res < (Long.MIN_VALUE + digit) / 10) {
+                return null;
+            }
+            res = res * 10 - digit;
+        }
+
+        if (!negative) {
+            if (res == Long.MIN_VALUE) {
+                return null;
+            }
+            res = -res;
+        }
+        return res;
+    }
+
+    /**
+     * Keys seen so far. INT keys go to an open addressing table of
+     * primitive longs, anything else (NULL, strings) to a HashSet.
+     */
+    private static class KeySet {
+
+        private long[] longs = new long[1024];
+        private boolean[] used = new boolean[1024];
+        private int longCount;
+
+        private final HashSet<Object> others = new HashSet<>();
+
+        boolean contains(Object key) {
+            if (!(key instanceof Long)) {
+                return others.contains(key);
+            }
+
+            long value = (Long) key;
+            for (int i = slot(value, longs.length); used[i]; i = (i + 1) & (longs.length - 1)) {
+                if (longs[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(Object key) {
+            if (!(key instanceof Long)) {
+                others.add(key);
+                return;
+            }
+
+            if (longCount * 2 >= longs.length) {
+                grow();
+            }
+            if (insert(longs, used, (Long) key)) {
+                longCount++;
+            }
+        }
+
+        private void grow() {
+            long[] newLongs = new long[longs.length * 2];
+            boolean[] newUsed = new boolean[used.length * 2];
+            for (int i = 0; i < longs.length; i++) {
+                if (used[i]) {
+                    insert(newLongs, newUsed, longs[i]);
+                }
+            }
+            longs = newLongs;
+            used = newUsed;
+        }
+
+        private static boolean insert(long[] longs, boolean[] used, long value) {
+            int i = slot(value, longs.length);
+            for (; used[i]; i = (i + 1) & (longs.length - 1)) {
+                if (longs[i] == value) {
+                    return false;
+                }
+            }
+            longs[i] = value;
+            used[i] = true;
+            return true;
+        }
+
+        private static int slot(long value, int capacity) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (capacity - 1);
+        }
+    }
+}
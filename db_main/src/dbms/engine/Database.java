@@ -22,6 +22,10 @@ public class Database implements Serializable {
         this.tables = new HashMap<>();
     }
 
+    public String getName() {
+        return name;
+    }
+
     public void addTable(Table table) {
         tables.put(table.tableName, table);
     }
@@ -30,7 +34,10 @@ public class Database implements Serializable {
         return tables.get(name);
     }
 
+    /* removes the table, if it is still the one by its name */
     public void removeTable(Table table) {
-        tables.remove(table.tableName);
+        if (tables.get(table.tableName) == table) {
+            tables.remove(table.tableName);
+        }
     }
 }
\ No newline at end of file
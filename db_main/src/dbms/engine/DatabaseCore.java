@@ -1,19 +1,22 @@
 
 package dbms.engine;
 
+import dbms.DatabaseBible;
 import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryExecutionError;
 import dbms.exceptions.CoSQLQueryParseError;
 import dbms.parser.*;
-import dbms.util.GroupHashMap;
+import dbms.util.RoaringBitmap;
+import dbms.util.StringUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import static dbms.util.LanguageUtils.throwExecError;
 
 import static dbms.engine.Table.Row;
 import static dbms.engine.Table.Column;
-import static dbms.parser.GroupByData.Method;
 
 public class DatabaseCore {
 
@@ -28,6 +31,9 @@ public class DatabaseCore {
     public static Database defaultDatabase;
     public static Database currentDatabase;
 
+    /* modifying queries run since the last snapshot */
+    private static int modificationsSinceSave;
+
     public static Database getCurrentDatabase() {
         return currentDatabase;
     }
@@ -64,7 +70,7 @@ public class DatabaseCore {
     }
 
     public static void createView(String name, ArrayList<String> tableNames, ArrayList<SelectValue> selectValues,
-                                  String rawTupleCondition, int type, GroupByData groupBy) throws CoSQLError {
+                                  String rawTupleCondition, int type, GroupByData groupBy, long limit) throws CoSQLError {
 
         // check if name is not unique
         for (Table table : currentDatabase.tables.values()) {
@@ -79,7 +85,7 @@ public class DatabaseCore {
 
         //making the view and adding to database
 
-        Table tlb = select(tableNames, selectValues, rawTupleCondition, type, groupBy);
+        Table tlb = select(tableNames, selectValues, rawTupleCondition, type, groupBy, limit);
         View view = new View(tlb.getName(), tlb.getColumns(), tlb.getContents());
         view.setTableName(name);
         currentDatabase.addTable(view);
@@ -159,16 +165,153 @@ public class DatabaseCore {
         return false;
     }
 
-    // TODO @Urgent null support
-    public static boolean insertItems(String tableName, List<LexicalToken> values, boolean isReferenceTable) throws CoSQLQueryExecutionError {
+    /**
+     * INSERT with several value tuples. The whole batch is validated before
+     * anything is written; then every row passing C1 and C2 is appended and
+     * the indexes are loaded in one go. Prints a single summary line.
+     */
+    public static void insertBatch(String tableName, List<? extends List<LexicalToken>> tuples) throws CoSQLQueryExecutionError {
+
+        Table target = currentDatabase.getTable(tableName);
+
+        if (target == null) {
+            throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
+        }
+
+        if (target instanceof View) {
+            // views go through their base tables, a row at a time
+            for (List<LexicalToken> tuple : tuples) {
+                insertItemsForView((View) target, tuple, false);
+            }
+            return;
+        }
+
+        ArrayList<ArrayList<Object>> rows = new ArrayList<>(tuples.size());
+        for (List<LexicalToken> tuple : tuples) {
+            rows.add(parseRow(target, tuple));
+        }
+
+        int[] failed = new int[2];
+        int inserted = insertRows(target, rows, failed);
+        Metrics.rejected(failed);
+
+        System.out.println(insertSummary(inserted, failed));
+    }
+
+    static String insertSummary(int inserted, int[] failed) {
+        StringBuilder message = new StringBuilder();
+        message.append(inserted).append(inserted == 1 ? " RECORD INSERTED" : " RECORDS INSERTED");
+        if (failed[0] > 0)
+            message.append(", ").append(failed[0]).append(" C1 CONSTRAINT FAILED");
+        if (failed[1] > 0)
+            message.append(", ").append(failed[1]).append(" C2 CONSTRAINT FAILED");
+        return message.toString();
+    }
+
+    /**
+     * Appends the rows passing C1 and C2, in order, and returns how many
+     * did. Rejections are counted into failed[0] (C1) and failed[1] (C2).
+     * Keys are checked against the table and the batch so far, each
+     * distinct referenced key is looked up only once.
+     */
+    static int insertRows(Table target, List<ArrayList<Object>> rows, int[] failed) {
+
+        int pkIndex = target.getColumnIndex(target.getPKcolumn());
+        HashSet<Object> batchKeys = new HashSet<>();
+
+        int fkCount = target.FKcolumns.size();
+        int[] fkIndexes = new int[fkCount];
+        ArrayList<HashMap<Object, Boolean>> referenced = new ArrayList<>(fkCount);
+        for (int j = 0; j < fkCount; j++) {
+            fkIndexes[j] = target.getColumnIndex(target.FKcolumns.get(j));
+            referenced.add(new HashMap<Object, Boolean>());
+        }
+
+        ArrayList<ArrayList<Object>> accepted = new ArrayList<>(rows.size());
+
+        for (ArrayList<Object> row : rows) {
+
+            // C1, against the table and the rows accepted before this one
+            if (pkIndex != -1) {
+                Object key = row.get(pkIndex);
+                if (batchKeys.contains(key) || target.containsPK(key)) {
+                    failed[0]++;
+                    continue;
+                }
+            }
+
+            // C2
+            boolean interrupt = false;
+            for (int j = 0; j < fkCount; j++) {
+                Table reference = target.tableReference.get(j);
+                Object value = row.get(fkIndexes[j]);
+
+                Boolean exists = referenced.get(j).get(value);
+                if (exists == null) {
+                    exists = reference.containsPK(value);
+                    referenced.get(j).put(value, exists);
+                }
+
+                // a self reference may point at a row earlier in the batch
+                if (!exists && !(reference == target && batchKeys.contains(value))) {
+                    interrupt = true;
+                    break;
+                }
+            }
+            if (interrupt) {
+                failed[1]++;
+                continue;
+            }
+
+            if (pkIndex != -1) {
+                batchKeys.add(row.get(pkIndex));
+            }
+            accepted.add(row);
+        }
+
+        target.insertRows(accepted);
+        return accepted.size();
+    }
+
+    /**
+     * LOAD DATA, streams a CSV file into the table. Rows go through C1 and
+     * C2 like inserted ones; indexes are only built once the whole file is
+     * in. Prints one summary line with the load rate.
+     */
+    public static void loadData(String fileName, String tableName, int ignoreLines) throws CoSQLQueryExecutionError {
 
         Table target = currentDatabase.getTable(tableName);
 
-        // check table exists
         if (target == null) {
             throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
         }
 
+        if (target instanceof View) {
+            throwExecError("Can not load data into view \'%s\'.", tableName);
+        }
+
+        CsvLoader loader = new CsvLoader(target);
+
+        long start = System.nanoTime();
+        try {
+            loader.load(new File(fileName), ignoreLines);
+        } catch (IOException e) {
+            throwExecError("Could not read \'%s\': %s", fileName, e.getMessage());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Metrics.rejected(loader.failed);
+
+        StringBuilder message = new StringBuilder(insertSummary(loader.loaded, loader.failed));
+        if (loader.malformed > 0) {
+            message.append(String.format(", %d MALFORMED LINES (FIRST AT LINE %d)", loader.malformed, loader.firstMalformedLine));
+        }
+        message.append(String.format(" IN %.2f SECONDS (%.0f ROWS/S)", seconds, loader.loaded / seconds));
+
+        System.out.println(message);
+    }
+
+    /* checks the tokens of one row against the table's columns and converts them to cell values */
+    private static ArrayList<Object> parseRow(Table target, List<LexicalToken> values) throws CoSQLQueryExecutionError {
 
         // check argument count
         if (values.size() != target.getColumnCount()) {
@@ -181,8 +324,8 @@ public class DatabaseCore {
             if (target.getColumnAt(i).type == Table.ColumnType.INT) {
 
                 // expecting numeral value
-                if (!values.get(i).getValue().matches(QueryParser.REGEX_NUMERAL)
-                        && !values.get(i).getValue().equalsIgnoreCase("null")) {
+                LexicalToken tk = values.get(i);
+                if (!tk.isNumeral() && !tk.is("null") && !(tk.isLiteral() && StringUtils.isNumeral(tk.getValue()))) {
                     throwExecError("Insert argument at index %d should be numeral (%s given)",
                             i, values.get(i).getValue()
                     );
@@ -191,7 +334,7 @@ public class DatabaseCore {
             } else if (target.getColumnAt(i).type == Table.ColumnType.VARCHAR) {
 
                 // expecting literal value or null
-                if (!values.get(i).isLiteral() && !values.get(i).getValue().equalsIgnoreCase("null")) {
+                if (!values.get(i).isLiteral() && !values.get(i).is("null")) {
                     throwExecError("Insert argument at index %d should be string literal (%s given)",
                             i, values.get(i).getValue()
                     );
@@ -205,15 +348,20 @@ public class DatabaseCore {
 
         // construct value set and parse data (convert to appropriate type)
 
-        ArrayList<Object> dataValueSet = new ArrayList<>();
+        ArrayList<Object> dataValueSet = new ArrayList<>(target.getColumnCount());
 
         for (int i = 0; i < target.getColumnCount(); i++) {
 
             if (target.getColumnAt(i).type == Table.ColumnType.INT) { // if int
                 // parse as number
-                String v = values.get(i).getValue();
-                if (!v.equalsIgnoreCase("null")) {
-                    long parsed = Long.parseLong(v);
+                LexicalToken tk = values.get(i);
+                if (!tk.is("null")) {
+                    long parsed = 0;
+                    try {
+                        parsed = tk.longValue();
+                    } catch (NumberFormatException e) {
+                        throwExecError("Insert argument at index %d is out of range (%s given)", i, tk.getValue());
+                    }
                     dataValueSet.add(parsed);
                 } else {
                     dataValueSet.add("NULL"); // TODO :s
@@ -223,7 +371,7 @@ public class DatabaseCore {
 
                 LexicalToken tk = values.get(i);
 
-                if (tk.getValue().equalsIgnoreCase("null") && !tk.isLiteral()) {
+                if (tk.is("null") && !tk.isLiteral()) {
                     // add directly
 
                     dataValueSet.add("NULL");
@@ -235,22 +383,33 @@ public class DatabaseCore {
 
         }
 
+        return dataValueSet;
+    }
+
+    // TODO @Urgent null support
+    public static boolean insertItems(String tableName, List<LexicalToken> values, boolean isReferenceTable) throws CoSQLQueryExecutionError {
+
+        Table target = currentDatabase.getTable(tableName);
+
+        // check table exists
+        if (target == null) {
+            throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
+        }
+
+
+        // construct value set and parse data (convert to appropriate type)
+        ArrayList<Object> dataValueSet = parseRow(target, values);
+
         //check for C1 when inserting  pk column
         boolean isPKError = false;
-        // if(!target.getPKcolumn().equals(null)) {
         int pkIndex = target.getColumnIndex(target.getPKcolumn());
-        if (pkIndex != -1) {
-            for (Table.Row prev : target.getContents()) {
-                if (prev.getValueAt(pkIndex).equals(dataValueSet.get(pkIndex)) || dataValueSet.get(pkIndex).equals(null)) {
-                    if (!isReferenceTable) {
-                        System.out.println("C1 CONSTRAINT FAILED");
-                    }
-                    isPKError = true;
-                    break;
-                }
+        if (pkIndex != -1 && target.containsPK(dataValueSet.get(pkIndex))) {
+            Metrics.c1Rejections.increment();
+            if (!isReferenceTable) {
+                System.out.println("C1 CONSTRAINT FAILED");
             }
+            isPKError = true;
         }
-        // }
 
         //C2 check for inserting data in fk columns
         Table reference;
@@ -262,10 +421,11 @@ public class DatabaseCore {
             // for (int i = 0; i < dataValueSet.size(); i++) {
             //   if (dataValueSet.get(i).equals(target.getColumnIndex(fkIndex))) {
             reference = target.tableReference.get(j);
-            int pkIndexRef = reference.getColumnIndex(reference.getPKcolumn());
             Object value = dataValueSet.get(fkIndex);
-            if (!reference.exists(value, pkIndexRef)) {
+            // probes the referenced table's PK index
+            if (!reference.containsPK(value)) {
                 interrupt = true;
+                Metrics.c2Rejections.increment();
                 if (!isReferenceTable) {
                     System.out.println("C2 CONSTRAINT FAILED");
                 }
@@ -299,7 +459,7 @@ public class DatabaseCore {
         }
 
         // instantiate
-        Table newTable = new Table(name);
+        Table newTable = new Table(name, DatabaseBible.DEFAULT_STORAGE_MODE);
         Table target; //reference table
 
         // create columns
@@ -344,7 +504,8 @@ public class DatabaseCore {
     private static void initialCreateIndex(String indexName, Table table, Table.Column column) {
 
 //         instantiate new index and add to table
-        table.initIndex();
+        if (table.indexes == null)
+            table.initIndex();
         Table.Index index = new Table.Index(indexName, column);
         table.addIndex(index);
     }
@@ -460,15 +621,11 @@ public class DatabaseCore {
             //LexicalToken computeValue = ComputeValue.compute(rawComputeValue, table, index);
 
             Object computeValue = tuple.computeForRow(row);
-            if (colIndex == view.getColumnIndex(view.getPKcolumn())) {
-                for (Table.Row r : view.getContents()) {
-                    if (computeValue.equals(r.getValueAt(colIndex))) {
-                        if (isReferenceTable)
-                            System.out.println("C1 CONSTRAINT FAILED");
-                        error = true;
-                        break;
-                    }
-                }
+            if (colIndex == view.getColumnIndex(view.getPKcolumn()) && view.containsPK(computeValue)) {
+                Metrics.c1Rejections.increment();
+                if (isReferenceTable)
+                    System.out.println("C1 CONSTRAINT FAILED");
+                error = true;
             }
             if (!error)
                 row.updateValueAt(colIndex, computeValue);
@@ -481,6 +638,13 @@ public class DatabaseCore {
 
     public static boolean updateItems(String tableName, String colName, String rawComputeValue, ArrayList<Table.Row> contents
             , boolean isReferenceTable) throws CoSQLError {
+        Table table = getTable(tableName);
+        return updateItems(tableName, colName, ValueComputer.computeFieldBased(rawComputeValue, table), contents, isReferenceTable);
+    }
+
+    /* as above, the new value already compiled against the table */
+    public static boolean updateItems(String tableName, String colName, ValueComputer.ParsedTuple tuple, ArrayList<Table.Row> contents
+            , boolean isReferenceTable) throws CoSQLError {
 
         Table table = currentDatabase.getTable(tableName);
 
@@ -491,20 +655,17 @@ public class DatabaseCore {
         //checking if the wanted column is Fk and get its table reference
         boolean isFK = false;
         Table refTable = null;
-        int pkColIndex = -1;
         int i = -1;
         for (Table.Column c : table.FKcolumns) {
             i++;
             if (c.getName().equals(colName)) {
                 isFK = true;
                 refTable = table.tableReference.get(i);
-                pkColIndex = refTable.getColumnIndex(refTable.getPKcolumn());
             }
         }
 
         int colIndex = table.getColumnIndex(colName);
 
-        ValueComputer.ParsedTuple tuple = ValueComputer.computeFieldBased(rawComputeValue, table);
         int col;
         boolean error = false;
 
@@ -513,15 +674,11 @@ public class DatabaseCore {
 
             Object computeValue = tuple.computeForRow(row);
             if (colIndex == table.getColumnIndex(table.getPKcolumn())) {
-                for (Table.Row r : table.getContents()) {
-                    if (computeValue.equals(r.getValueAt(colIndex))) {
-                        if (!isReferenceTable)
-                            System.out.println("C1 CONSTRAINT FAILED");
-                        error = true;
-                        break;
-
-                    }
-
+                if (table.containsPK(computeValue)) {
+                    Metrics.c1Rejections.increment();
+                    if (!isReferenceTable)
+                        System.out.println("C1 CONSTRAINT FAILED");
+                    error = true;
                 }
                 if (error) {
                     continue;
@@ -536,6 +693,7 @@ public class DatabaseCore {
 
                             if (l.onUpdate.get(z).equalsIgnoreCase("restrict") && l.exists(obj, cool)) {
                                 error = true;
+                                Metrics.restrictRejections.increment();
                                 if (!isReferenceTable)
                                     System.out.println("FOREIGN KEY CONSTRAINT RESTRICTS");
                                 break;
@@ -546,10 +704,9 @@ public class DatabaseCore {
                         continue;
                     }
 
-                    int rowIndex = table.getRowIndex(row);
                     Object val = row.getValueAt(colIndex);
                     row.updateValueAt(colIndex, computeValue); //pk updates
-                    table.updateIndexAt(colIndex, rowIndex, val);
+                    table.updateIndex(row, colIndex, val);
                     // fk updates
                     for (Table target : table.listener) {
                         for (int j = 0; j < target.FKcolumns.size(); j++) {
@@ -559,7 +716,7 @@ public class DatabaseCore {
                                     if (r2.getValueAt(col).equals(obj)) {
                                         val = r2.getValueAt(col);
                                         r2.updateValueAt(col, computeValue);
-                                        target.updateIndexAt(col, target.getRowIndex(r2), val);
+                                        target.updateIndex(r2, col, val);
                                     }
                                 }
                             }
@@ -568,21 +725,20 @@ public class DatabaseCore {
                 }
             } else if (isFK) {
 
-                if (!refTable.exists(computeValue, pkColIndex)) {
+                if (!refTable.containsPK(computeValue)) {
+                    Metrics.c2Rejections.increment();
                     if (!isReferenceTable)
                         System.out.println("C2 CONSTRAINT FAILED");
 //                    error = true; TODO ino bayad error begirim ya na ?
                 } else {
-                    int rowIndex = table.getRowIndex(row);
                     Object val = row.getValueAt(colIndex);
                     row.updateValueAt(colIndex, computeValue);
-                    table.updateIndexAt(colIndex, rowIndex, val);
+                    table.updateIndex(row, colIndex, val);
                 }
             } else {
-                int rowIndex = table.getRowIndex(row);
                 Object val = row.getValueAt(colIndex);
                 row.updateValueAt(colIndex, computeValue);
-                table.updateIndexAt(colIndex, rowIndex, val);
+                table.updateIndex(row, colIndex, val);
             }
         }
 
@@ -658,7 +814,7 @@ public class DatabaseCore {
     }
 
 
-    public static void delete(String tableName, String condition) throws CoSQLQueryExecutionError {
+    public static void delete(String tableName, String condition) throws CoSQLQueryExecutionError, CoSQLQueryParseError {
         Table table = currentDatabase.getTable(tableName);
 
         if (table == null) {
@@ -674,7 +830,7 @@ public class DatabaseCore {
     }
 
 
-    public static boolean deleteItemsForView(View view, String condition, boolean isReferenceTable) throws CoSQLQueryExecutionError {
+    public static boolean deleteItemsForView(View view, String condition, boolean isReferenceTable) throws CoSQLQueryExecutionError, CoSQLQueryParseError {
         if (!view.isPazira) {
             System.out.println(String.format("VIEW %s IS NOT UPDATABLE", view.getName()));
             return false;
@@ -717,6 +873,7 @@ public class DatabaseCore {
                 }
                 deletedNodes.clear();
             } else {
+                Metrics.restrictRejections.increment();
                 if (!isReferenceTable)
                     System.out.println("FOREIGN KEY CONSTRAINT RESTRICTS");
                 return false; // TODO
@@ -727,473 +884,267 @@ public class DatabaseCore {
     }
 
 
-    private static class GeneralSelectResult {
-
-        Table finalResult;
-        List<Row> sigmaList;
-        Map<Row, Row> sigmaMap;
-
-        public GeneralSelectResult(Table finalResult, List<Row> sigmaList, Map<Row, Row> sigmaMap) {
-            this.finalResult = finalResult;
-            this.sigmaList = sigmaList;
-            this.sigmaMap = sigmaMap;
-        }
+    public static Table select(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                               int type, GroupByData groupBy, long limit) throws CoSQLError {
+        ResultSink.Collector collector = new ResultSink.Collector("printable");
+        select(tableNames, selectValues, rawTupleCondition, type, groupBy, limit, collector);
+        return collector.getTable();
+    }
 
+    /* runs the SELECT, handing rows to the sink as they are produced */
+    public static void select(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                              int type, GroupByData groupBy, long limit, ResultSink sink) throws CoSQLError {
+        ResultSink.run(query(tableNames, selectValues, rawTupleCondition, type, groupBy, limit), sink);
     }
 
-    public static GeneralSelectResult select(Table view, ArrayList<SelectValue> selectValues, String rawTupleCondition) throws CoSQLError {
+    /**
+     * Plans a SELECT as a pipeline of batch operators, nothing is read
+     * until the caller pulls from it. A negative limit means none.
+     */
+    public static BatchOperator query(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                                      int type, GroupByData groupBy, long limit) throws CoSQLError {
+        return query(tableNames, selectValues, rawTupleCondition, type, groupBy, limit, null);
+    }
 
-        // get contents of tuple condition
-        Map<Row, Row> sigmaMap = new HashMap<>();
-        TupleCondition tupleCondition = new TupleCondition(rawTupleCondition, view.tableName);
-        List<Table.Row> contents = tupleCondition.getContents();
+    /* as above, each stage recorded into the explain if there is one; a join is only run if it analyzes */
+    static BatchOperator query(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                               int type, GroupByData groupBy, long limit, Explain explain) throws CoSQLError {
 
-        ArrayList<Integer> colIndexes = new ArrayList<>();
-        ArrayList<Table.Column> columns = new ArrayList<>();
+        Table source = getTable(tableNames.get(0));
 
-        // create header for new table (the table to be returned)
-        for (SelectValue sv : selectValues) {
+        // if query has joins or Cartesian multiplication, select from their result
+        if (tableNames.size() > 1) {
 
-            if (sv.getType() == SelectValue.Type.COLUMN_NAME) {
+            Table left = source;
+            Table right = getTable(tableNames.get(1));
+            HashJoin.Predicate joinOn = null;
 
-                String colName = sv.getTargetColumn();
-                colIndexes.add(view.getColumnIndex(colName));
-                columns.add(view.getColumn(colName));
+            if (type == QueryParser.JOIN) {
+                // the table with the foreign key goes first
+                if (!left.tableReference.contains(right)) {
+                    if (!right.tableReference.contains(left))
+                        throw new CoSQLQueryExecutionError("Not such tables can be joint");
+                    left = right;
+                    right = source;
+                }
 
             } else {
-
-                // check column name and type OK
-                Column target = view.getColumn(sv.getTargetColumn());
-                if (target.getType() != Table.ColumnType.INT)
-                    throw new CoSQLError("Aggregation function " + sv.getAggregateMethod().getText() + " only allowed for INT columns.");
-
-                String colName = sv.getAggregateMethod().getText() + "~" + sv.getTargetColumn();
-                colIndexes.add(-1);
-                columns.add(new Column(colName, Table.ColumnType.INT));
+                // an equality between the two tables in WHERE turns the product into a hash join
+                joinOn = HashJoin.findPredicate(rawTupleCondition, left, right);
+                if (joinOn != null)
+                    rawTupleCondition = joinOn.residual;
             }
-        }
 
-        ArrayList<Table.Row> finalContents = new ArrayList<>();
-        for (Table.Row row : contents) {
-            ArrayList<Object> values = new ArrayList<>();
-            for (Integer i : colIndexes) {
-                if (i != -1)
-                    values.add(row.getValueAt(i));
-                else
-                    values.add("NULL"); //TODO :s
+            if (explain == null) {
+                source = join(type, left, right, joinOn);
+            } else {
+                explain.join(type, left, right, joinOn);
+                source = explain.joined(explain.analyze ? join(type, left, right, joinOn) : Explain.joinShape(left, right));
             }
-            Row sigmaFiltered = new Table.Row(values);
-            finalContents.add(sigmaFiltered);
-            sigmaMap.put(sigmaFiltered, row);
-        }
-
-        Table res = new Table("printable", columns, finalContents);
 
-        return new GeneralSelectResult(res, contents, sigmaMap);
-
-    }
-
-    public static Table select(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition, int type, GroupByData groupBy) throws CoSQLError {
-
-        Table table1 = currentDatabase.getTable(tableNames.get(0));
-
-        // if query doesn't have joins or Cartesian multiplication
-        if (tableNames.size() == 1) {
-
-            // select both rows and columns
-            GeneralSelectResult selected = select(table1, selectValues, rawTupleCondition);
-
-
-            if (groupBy == null)
-                return selected.finalResult;
-
-
-            return  groupTable(selected.finalResult, groupBy, table1, selected.sigmaMap);
-        }
-
-        Table table2 = currentDatabase.getTable(tableNames.get(1));
-        Table resultTable;
-        if (type == QueryParser.JOIN) {
-            if (table1.tableReference.contains(table2))
-                resultTable = table1.join(table2);
-            else if (table2.tableReference.contains(table1))
-                resultTable = table2.join(table1);
-            else
-                throw new CoSQLQueryExecutionError("Not such tables can be joint");
-
-        } else
-            resultTable = table1.cartesianProduct(table2);
-
-        currentDatabase.addTable(resultTable);
-
-        // check selected columns are in group by, if it's a group query
-        if (groupBy != null)
-            for (SelectValue sv : selectValues) {
-                if (sv.getType() == SelectValue.Type.COLUMN_NAME) {
-                    if (!groupBy.getColumns().contains(sv.getTargetColumn())) {
-                        throw new CoSQLError("Only aggregate functions and group columns allowed.");
+            // check selected columns are in group by, if it's a group query
+            if (groupBy != null)
+                for (SelectValue sv : selectValues) {
+                    if (sv.getType() == SelectValue.Type.COLUMN_NAME) {
+                        if (!groupBy.getColumns().contains(sv.getTargetColumn())) {
+                            throw new CoSQLError("Only aggregate functions and group columns allowed.");
+                        }
                     }
                 }
-            }
-
-        GeneralSelectResult selectResult = select(resultTable, selectValues, rawTupleCondition); // TODO TOFF :: bara zarb carthesian kaar nemikone :| think of something
-
-        if (groupBy == null)
-            return selectResult.finalResult;
-
-        return groupTable(selectResult.finalResult, groupBy, resultTable, selectResult.sigmaMap);
+        }
 
+        return query(source, selectValues, rawTupleCondition, TuplePredicate.compile(rawTupleCondition, source), groupBy, limit, explain);
     }
 
-    public static Table groupTable(Table selectTable, GroupByData groupBy, Table sourceTable, Map<Row, Row> sigmaMap) throws CoSQLQueryExecutionError {
-
-        // resolve columns
-        List<Integer> groupColumnsPositions = new ArrayList<>();
-        for (String colName : groupBy.getColumns()) {
-            try {
-                Column col = selectTable.getColumn(colName);
-                groupColumnsPositions.add(selectTable.getColumnIndex(col));
-            } catch (CoSQLError coSQLError) {
-                coSQLError.printStackTrace();
-                throw new CoSQLQueryExecutionError("Cannot resolve column name: " + colName);
-            }
-        }
+    private static Table join(int type, Table left, Table right, HashJoin.Predicate joinOn) {
+        if (type == QueryParser.JOIN)
+            return left.join(right);
+        if (joinOn != null)
+            return HashJoin.join(left, joinOn.leftColumn, right, joinOn.rightColumn);
+        return left.cartesianProduct(right);
+    }
 
+    /* as above, over one table (or the product of two) with the condition already compiled against it */
+    public static BatchOperator query(Table source, ArrayList<SelectValue> selectValues, TuplePredicate predicate,
+                                      GroupByData groupBy, long limit) throws CoSQLError {
+        return query(source, selectValues, null, predicate, groupBy, limit, null);
+    }
 
-        GroupHashMap<List<Object>, Row> map = new GroupHashMap<>();
+    private static BatchOperator query(Table source, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                                       TuplePredicate predicate, GroupByData groupBy, long limit, Explain explain) throws CoSQLError {
 
-        ArrayList<Row> contents = new ArrayList<>();
+        // what a join that is only explained would have
+        int rows = explain == null ? source.getRowCount() : explain.rows(source);
 
-        // iterate table rows
-        for (Row row : selectTable.getRows()) {
+        // a LIMIT may be met long before the end of the table, that scan stays lazy; GROUP BY splits its own input
+        boolean parallelScan = limit < 0 && groupBy == null;
+        BatchOperator scan = BatchOperator.scan(source, predicate, parallelScan);
+        if (explain != null)
+            scan = explain.scan(source, rawTupleCondition, predicate, parallelScan, scan);
 
-            // make a tuple of group columns' values
-            List<Object> valuesTuple = new ArrayList<>();
-            for (Integer idx : groupColumnsPositions) {
-                // iterates through the group columns and adds
-                // their values in rows to the tuple
-                valuesTuple.add(row.getValueAt(idx));
-            }
+        BatchOperator.Project projection = project(scan, source, selectValues);
 
-            map.add(valuesTuple, row);
+        BatchOperator plan = explain == null ? projection : explain.project(selectValues, projection);
+        if (groupBy != null) {
+            // a big enough table is aggregated a morsel at a time on the workers
+            boolean parallel = Workers.worthSplitting(rows) && BatchOperator.canSplit(source, predicate);
+            if (parallel)
+                plan = new BatchOperator.ParallelAggregate(projection, groupBy, source, predicate);
+            else
+                plan = new BatchOperator.Aggregate(plan, groupBy, source);
 
+            if (explain != null)
+                plan = explain.aggregate(source, groupBy, parallel, plan);
         }
 
-        for (List<Object> groupUniqueVal : map.keySet()) {
-
-            Row firstRow = map.get(groupUniqueVal).get(0);
-            int colsCount = selectTable.getColumns().size();
-
-            ArrayList<Object> valuesTuple = new ArrayList<>(selectTable.getColumns().size());
-
-            for (int i = 0; i < colsCount; i++) {
-
-                Column column = selectTable.getColumnAt(i);
-
-                if (column.getName().contains("~")) {
-
-                    String[] explode = column.getName().split("~");
-                    Method method = Method.fromText(explode[0]);
-
-                    if (method == null) {
-                        throw new CoSQLQueryExecutionError("No such aggregation function: " + column);
-                    }
-
-                    int targetIndex;
-
-                    try {
-                        targetIndex = sourceTable.getColumnIndex(explode[1]);
-                    } catch (CoSQLError coSQLError) {
-                        throw new CoSQLQueryExecutionError("Unknown column " + explode[1] + " used in aggregation function: " + explode[0]);
-                    }
-
-                    Object columnValue = null;
-
-                    switch (method) {
-
-                        case AVG: {
-
-                            long sum = 0;
-                            int count = 0;
-
-                            for (Row row : map.get(groupUniqueVal)) {
-                                Row corresponding = sigmaMap.get(row);
-                                long value = (long) corresponding.getValueAt(targetIndex);
-                                sum += value;
-                                count += 1;
-                            }
-
-                            columnValue = sum / (double) count;
-                            break;
-                        }
-
-                        case SUM: {
-
-                            long sum = 0;
-
-                            for (Row row : map.get(groupUniqueVal)) {
-                                Row corresponding = sigmaMap.get(row);
-                                long value = (long) corresponding.getValueAt(targetIndex);
-                                sum += value;
-                            }
-
-                            columnValue = sum;
-                            break;
-                        }
-
-                        case MAX: {
-
-                            long max = Long.MIN_VALUE;
+        if (limit >= 0) {
+            plan = new BatchOperator.Limit(plan, limit);
+            if (explain != null)
+                plan = explain.limit(limit, plan);
+        }
 
-                            for (Row row : map.get(groupUniqueVal)) {
-                                Row corresponding = sigmaMap.get(row);
-                                long value = (long) corresponding.getValueAt(targetIndex);
-                                max = Math.max(value, max);
-                            }
+        return plan;
+    }
 
-                            columnValue = max;
-                            break;
-                        }
+    /**
+     * EXPLAIN, prints the stages the SELECT would run with their estimated
+     * rows; EXPLAIN ANALYZE runs them as well, without printing the result,
+     * and adds what each of them actually did.
+     */
+    public static void explain(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
+                               int type, GroupByData groupBy, long limit, boolean analyze) throws CoSQLError {
 
-                        case MIN: {
+        Explain explain = new Explain(analyze);
+        BatchOperator plan = query(tableNames, selectValues, rawTupleCondition, type, groupBy, limit, explain);
+        if (analyze)
+            explain.run(plan);
 
-                            long min = Long.MAX_VALUE;
+        System.out.print(explain);
+    }
 
-                            for (Row row : map.get(groupUniqueVal)) {
-                                Row corresponding = sigmaMap.get(row);
-                                long value = (long) corresponding.getValueAt(targetIndex);
-                                min = Math.min(value, min);
-                            }
+    private static BatchOperator.Project project(BatchOperator input, Table source, ArrayList<SelectValue> selectValues) throws CoSQLError {
 
-                            columnValue = min;
-                            break;
-                        }
+        int[] sourceColumns = new int[selectValues.size()];
+        ArrayList<Table.Column> columns = new ArrayList<>();
 
-                    } // end switch
+        // create header for new table (the table to be returned)
+        for (int i = 0; i < selectValues.size(); i++) {
 
-                    valuesTuple.add(columnValue);
+            SelectValue sv = selectValues.get(i);
+            if (sv.getType() == SelectValue.Type.COLUMN_NAME) {
 
-                } else {
+                String colName = sv.getTargetColumn();
+                sourceColumns[i] = source.getColumnIndex(colName);
+                columns.add(source.getColumn(colName));
 
-                    valuesTuple.add(firstRow.getValueAt(i));
+            } else {
 
-                }
+                // check column name and type OK
+                Column target = source.getColumn(sv.getTargetColumn());
+                if (target.getType() != Table.ColumnType.INT)
+                    throw new CoSQLError("Aggregation function " + sv.getAggregateMethod().getText() + " only allowed for INT columns.");
 
+                String colName = sv.getAggregateMethod().getText() + "~" + sv.getTargetColumn();
+                sourceColumns[i] = -1;
+                columns.add(new Column(colName, Table.ColumnType.INT));
             }
-
-            Row row = new Row(valuesTuple);
-            contents.add(row);
         }
 
-        Table groupedTable = new Table("GROUP_RESULT", selectTable.columns, contents);
-
-        if (groupBy.getRawHavingCondition() == null)
-            return groupedTable;
-
-        Table finalTable = new Table("final", selectTable.columns,
-                new HavingCondition(groupBy.getRawHavingCondition(), selectTable, sourceTable, sigmaMap
-                , map).getContents());
-
-//        return new Table("GROUP_RESULT", selectTable.columns, contents);
-        return finalTable;
+        return new BatchOperator.Project(input, columns, sourceColumns);
     }
 
+    /**
+     * Rows of the table the compiled condition holds for, in table order.
+     * If indexes can answer part of it the condition is evaluated to a set
+     * of row ids first, otherwise the table is scanned once.
+     */
+    public static ArrayList<Table.Row> filter(Table table, TuplePredicate predicate) throws CoSQLQueryParseError {
+        return BatchOperator.scan(table, predicate).drain();
+    }
 
+    public static void analyze(String tableName) throws CoSQLQueryExecutionError {
+        Table table = getTable(tableName);
+        table.analyze();
 
-    private static boolean objectEquals(Object o1, Object o2) {
+        String message = "TABLE ANALYZED";
+        System.out.println(message);
+    }
 
-        if (o1 == o2) {
-            return true;
-        }
+    public static void printTable(String tableName) throws CoSQLQueryExecutionError {
+        Table table = defaultDatabase.getTable(tableName);
 
-        if (o1 == null) {
-            return false;
+        // if table doesn't exist
+        if (table == null) {
+            throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
         }
 
-        return o1.equals(o2);
+        System.out.println(table);
     }
 
-    public static ArrayList<Table.Row> getContents(String tableName, String colName, String computeValueQuery, int type) throws CoSQLQueryExecutionError, CoSQLQueryParseError {
-
+    public static Table getTable(String tableName) throws CoSQLQueryExecutionError {
         Table table = currentDatabase.getTable(tableName);
-
-        // check table exists
+        // if table doesn't exist
         if (table == null) {
             throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
         }
+        return table;
+    }
 
-        // get column index
-        ArrayList<Table.Row> resultRows = new ArrayList<>();
-        int colIndex = -1;
-        for (int i = 0; i < table.getColumnCount(); i++) {
-            if (table.getColumnAt(i).name.equalsIgnoreCase(colName)) {
-                colIndex = i;
-                break;
-            }
-        }
-
-        // throw if not found
-        if (colIndex == -1)
-            throwExecError("The given column name doesn't match < any case: %s", colName);
-
-        // fetch column and type
-        Table.ColumnType colType = table.getColumnAt(colIndex).type;
-        Table.Column column = table.getColumnAt(colIndex);
-
-        Table.Index idx = null;
-        // fetch index if any
-        if (table.indexes != null) {
-            idx = table.indexes.get(column);
-        }
-        // parse query for its type
-        ValueComputer.ValueType valueType = ValueComputer.getType(computeValueQuery);
-
-        // compute right hand side of operator if it's constant,
-        // otherwise defer an object which computes value for row
-        Object constantValue = null;
-        ValueComputer.ParsedTuple computer = null;
-        if (valueType == ValueComputer.ValueType.CONSTANT) {
-            constantValue = ValueComputer.computeConstant(computeValueQuery);
-        } else {
-            computer = ValueComputer.computeFieldBased(computeValueQuery, table);
-        }
-
-        // if no index on selected column, or query is field based
-        if (idx == null || valueType == ValueComputer.ValueType.FIELD_BASED) {
-
-            // iterate through table rows
-            for (int i = 0; i < table.getRowCount(); i++) {
-
-                // fetch row
-                Table.Row row = table.getRowAt(i);
-
-                // decide compute value for row or use the precomputed constant value
-                Object computedValue =
-                        valueType == ValueComputer.ValueType.FIELD_BASED ?
-                                computer.computeForRow(row) : constantValue;
-
-                Object rowValue = row.getValueAt(colIndex);
-
-                if (type == COMPARISON_TYPE_EQUAL) { /* check equality */
-
-                    // check equality and add if positive
-                    if (objectEquals(rowValue, computedValue)) {
-                        resultRows.add(row);
-                    }
-
-                } else if (rowValue instanceof Comparable) { /* check comparison */
-
-                    // compare values
-                    int cmp = ((Comparable) rowValue).compareTo(computedValue);
-
-                    if ((type == COMPARISON_TYPE_GREATER && cmp > 0) ||
-                            (type == COMPARISON_TYPE_GREATER_OR_EQUAL && cmp >= 0) ||
-                            (type == COMPARISON_TYPE_LESS_THAN && cmp < 0) ||
-                            (type == COMPARISON_TYPE_LESS_THAN_OR_EQUAL && cmp <= 0)) {
-
-                        resultRows.add(row);
-                    }
-
-                }
-
-                // TODO throw error for non-comparables somewhere before
-
-            } // end for loop
-
-        } else { /* using index */
-
-            switch (type) {
-
-                case COMPARISON_TYPE_EQUAL: {
-
-                    // check index values for given constant and
-                    // return data if any
-                    HashSet<Table.Row> indexedResult = idx.index.get(constantValue);
-                    if (indexedResult != null) {
-                        resultRows.addAll(indexedResult);
-                    }
-
-                    break;
-                }
-
-                case COMPARISON_TYPE_GREATER: {
-
-                    Collection<HashSet<Table.Row>> sets = idx.index.subMap(constantValue, false, idx.index.lastKey(), true).values();
-
-                    for (HashSet<Table.Row> s : sets) {
-                        resultRows.addAll(s);
-                    }
-
-                    break;
-                }
-
-                case COMPARISON_TYPE_GREATER_OR_EQUAL: {
-
-                    Collection<HashSet<Table.Row>> sets = idx.index.subMap(constantValue, true, idx.index.lastKey(), true).values();
-
-                    for (HashSet<Table.Row> s : sets) {
-                        resultRows.addAll(s);
-                    }
-
-                    break;
-                }
-
-                case COMPARISON_TYPE_LESS_THAN: {
-
-                    Collection<HashSet<Table.Row>> sets = idx.index.subMap(idx.index.firstKey(), true, computeValueQuery, false).values();
-
-                    for (HashSet<Table.Row> s : sets) {
-                        for (Table.Row r : s) {
-                            if (r.getValueAt(colIndex) != null)
-                                resultRows.add(r);
-                        }
-                    }
-
-                    break;
-                }
-
-                case COMPARISON_TYPE_LESS_THAN_OR_EQUAL: {
+    public static void save() throws CoSQLQueryExecutionError {
+        saveDatabases(new File(DatabaseBible.SNAPSHOT_DIRECTORY));
+        modificationsSinceSave = 0;
 
-                    Collection<HashSet<Table.Row>> sets = idx.index.subMap(idx.index.firstKey(), true, computeValueQuery, true).values();
+        System.out.println("DATABASE SAVED");
+    }
 
-                    for (HashSet<Table.Row> s : sets) {
-                        for (Table.Row r : s) {
-                            if (r.getValueAt(colIndex) != null)
-                                resultRows.add(r);
-                        }
-                    }
+    /* counts a modifying query, checkpoints silently every CHECKPOINT_INTERVAL of them */
+    public static void modified() throws CoSQLQueryExecutionError {
 
-                    break;
-                }
+        if (DatabaseBible.CHECKPOINT_INTERVAL <= 0)
+            return;
 
-                default:
-                    System.err.println("mage msihe ?! :|");
-                    break;
+        if (++modificationsSinceSave >= DatabaseBible.CHECKPOINT_INTERVAL) {
+            saveDatabases(new File(DatabaseBible.SNAPSHOT_DIRECTORY));
+            modificationsSinceSave = 0;
+        }
+    }
 
+    public static void saveDatabases(File directory) throws CoSQLQueryExecutionError {
+        for (Database database : databases.values()) {
+            try {
+                Snapshot.save(database, directory);
+            } catch (IOException e) {
+                throwExecError("Could not save database \'%s\': %s", database.name, e.getMessage());
             }
+        }
+    }
 
-        } // end index use
+    /* loads every snapshot found in the directory, replacing databases of the same name */
+    public static void restoreDatabases(File directory) throws CoSQLQueryExecutionError {
 
-        return resultRows;
-    }
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
 
-    public static void printTable(String tableName) throws CoSQLQueryExecutionError {
-        Table table = defaultDatabase.getTable(tableName);
+        for (File file : files) {
+            if (!file.getName().endsWith(Snapshot.FILE_SUFFIX))
+                continue;
 
-        // if table doesn't exist
-        if (table == null) {
-            throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
-        }
+            Database database;
+            try {
+                database = Snapshot.load(file);
+            } catch (IOException e) {
+                throwExecError("Could not load snapshot \'%s\': %s", file, e.getMessage());
+                return;
+            }
 
-        System.out.println(table);
-    }
+            boolean current = databases.get(database.name) == currentDatabase;
+            databases.put(database.name, database);
 
-    public static Table getTable(String tableName) throws CoSQLQueryExecutionError {
-        Table table = currentDatabase.getTable(tableName);
-        // if table doesn't exist
-        if (table == null) {
-            throwExecError("No table with name \'%s\' in database \'%s\'.", tableName, currentDatabase);
+            if (database.name.equals(defaultDatabase.name))
+                defaultDatabase = database;
+            if (current)
+                currentDatabase = database;
         }
-        return table;
     }
 }
\ No newline at end of file
@@ -0,0 +1,342 @@
+package dbms.engine;
+
+import dbms.exceptions.CoSQLError;
+import dbms.parser.GroupByData;
+import dbms.parser.QueryParser;
+import dbms.parser.SelectValue;
+import dbms.parser.TuplePredicate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+
+/**
+ * EXPLAIN of a SELECT, the stages {@link DatabaseCore#query} plans for it
+ * as it plans them: the join, how the scan reads its table, projection,
+ * aggregation and limit, each with the rows it is estimated to produce.
+ * Nothing is read to explain a query, a join is only given the shape of
+ * its result.
+ *
+ * EXPLAIN ANALYZE runs the query as well, results discarded, and has
+ * each stage measured: the rows it produced, the time spent in it and
+ * the bytes allocated in it, those of the stages it pulls from left out.
+ * Allocation is counted on the calling thread, work handed to the shared
+ * workers shows in the time of the stage waiting for it but not in its
+ * bytes. Streaming stages reuse one batch and, over the row layout, hand
+ * on the stored rows themselves, so 0 bytes is what they do allocate;
+ * stages that build something (rows of the columnar or paged layout, an
+ * aggregate's groups, a join) show what they built.
+ */
+public class Explain {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    final boolean analyze;
+
+    /* in pipeline order, the join (if any) first */
+    private final ArrayList<Stage> stages = new ArrayList<>();
+
+    /* rows the last stage so far is estimated to produce */
+    private double estimatedRows;
+
+    /* what the join produced, only of its shape unless analyzing, and the rows estimated for it */
+    private Table joined;
+    private double joinedRows;
+
+    private final long start = System.nanoTime();
+    private long totalNanos = -1;
+
+    public Explain(boolean analyze) {
+        this.analyze = analyze;
+    }
+
+    private static class Stage {
+
+        final String operation;
+        final double estimatedRows;
+
+        /* whether it is pulled from by the stage after it, rather than run before the pipeline */
+        boolean pipelined = true;
+
+        /* run by a parallel aggregate in each of its morsels, not pulled */
+        boolean inMorsels;
+
+        /* measured, the time and bytes including those of the stage before; rows -1 until pulled */
+        long rows = -1;
+        long nanos;
+        long bytes;
+
+        Stage(String operation, double estimatedRows) {
+            this.operation = operation;
+            this.estimatedRows = estimatedRows;
+        }
+    }
+
+    /* a stage, measured as it is pulled */
+    private static class Measured extends BatchOperator {
+
+        private final BatchOperator input;
+        private final Stage stage;
+
+        Measured(BatchOperator input, Stage stage) {
+            this.input = input;
+            this.stage = stage;
+        }
+
+        @Override
+        public ArrayList<Table.Column> getColumns() {
+            return input.getColumns();
+        }
+
+        @Override
+        public Batch next() throws CoSQLError {
+
+            long nanos = System.nanoTime();
+            long bytes = allocatedBytes();
+
+            Batch batch = input.next();
+
+            stage.nanos += System.nanoTime() - nanos;
+            stage.bytes += allocatedBytes() - bytes;
+            if (stage.rows == -1) {
+                stage.rows = 0;
+            }
+            if (batch != null) {
+                stage.rows += batch.size;
+            }
+
+            return batch;
+        }
+    }
+
+    /* bytes allocated by the calling thread so far, -1 if the JVM does not count them */
+    static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private BatchOperator stage(String operation, double estimatedRows, BatchOperator operator) {
+
+        Stage stage = new Stage(operation, estimatedRows);
+        stages.add(stage);
+        this.estimatedRows = estimatedRows;
+
+        return analyze ? new Measured(operator, stage) : operator;
+    }
+
+    /* starts the join of the two tables (see DatabaseCore.query), its clock runs until joined */
+    void join(int type, Table left, Table right, HashJoin.Predicate on) {
+
+        String operation;
+        double rows;
+
+        if (type == QueryParser.JOIN) {
+            Table.Column fk = left.FKcolumns.get(left.tableReference.indexOf(right));
+            operation = String.format("FOREIGN KEY JOIN %s.%s = %s.%s", left.getName(), fk.getName(),
+                    right.getName(), right.getPKcolumn().getName());
+            rows = left.getRowCount();
+        } else if (on != null) {
+            Table build = left.getRowCount() <= right.getRowCount() ? left : right;
+            operation = String.format("HASH JOIN %s.%s = %s.%s, BUILT ON %s", left.getName(), left.getColumnAt(on.leftColumn).getName(),
+                    right.getName(), right.getColumnAt(on.rightColumn).getName(), build.getName());
+            rows = CostModel.joinRows(left, on.leftColumn, right, on.rightColumn);
+        } else {
+            operation = String.format("CARTESIAN PRODUCT %s, %s", left.getName(), right.getName());
+            rows = (double) left.getRowCount() * right.getRowCount();
+        }
+
+        Stage stage = new Stage(operation, rows);
+        stage.pipelined = false;
+        stages.add(stage);
+        estimatedRows = rows;
+        joinedRows = rows;
+
+        if (analyze) {
+            stage.nanos = System.nanoTime();
+            stage.bytes = allocatedBytes();
+        }
+    }
+
+    /* ends the join with the table it made */
+    Table joined(Table result) {
+
+        joined = result;
+
+        if (analyze) {
+            Stage stage = stages.get(stages.size() - 1);
+            stage.nanos = System.nanoTime() - stage.nanos;
+            stage.bytes = allocatedBytes() - stage.bytes;
+            stage.rows = result.getRowCount();
+        }
+
+        return result;
+    }
+
+    /* an empty table of the shape the join of the two would have */
+    static Table joinShape(Table left, Table right) {
+        Table result = new Table("joinTable");
+        result.addAllColumns(left.joinedColumns(right));
+        return result;
+    }
+
+    /* rows the plan is made for, those estimated for a join that was not run */
+    int rows(Table source) {
+        if (source == joined && !analyze) {
+            return (int) Math.min(joinedRows, Integer.MAX_VALUE);
+        }
+        return source.getRowCount();
+    }
+
+    BatchOperator scan(Table source, String condition, TuplePredicate predicate, boolean parallel, BatchOperator scan) {
+
+        int rows = rows(source);
+        String name = source == joined ? "JOINED ROWS" : source.getName();
+        StringBuilder operation = new StringBuilder();
+
+        switch (BatchOperator.accessPath(source, predicate, parallel, rows)) {
+            case BatchOperator.ACCESS_INDEX_SCAN:
+                ArrayList<String> indexes = new ArrayList<>();
+                predicate.indexesUsed(source, indexes);
+                operation.append("INDEX SCAN ON ").append(name);
+                if (!indexes.isEmpty()) {
+                    operation.append(" USING ").append(String.join(", ", indexes));
+                }
+                break;
+            case BatchOperator.ACCESS_PARALLEL_SCAN:
+                operation.append(String.format("PARALLEL SCAN ON %s, %d MORSELS", name, Workers.morselCount(rows)));
+                break;
+            case BatchOperator.ACCESS_COLUMNAR_SCAN:
+                operation.append("COLUMNAR SCAN ON ").append(name);
+                break;
+            default:
+                operation.append("SCAN ON ").append(name);
+        }
+
+        if (condition != null && !condition.trim().equalsIgnoreCase("TRUE")) {
+            operation.append(" WHERE ").append(condition);
+        }
+
+        double input = source == joined ? joinedRows : source.getRowCount();
+        return stage(operation.toString(), input * predicate.selectivity(source), scan);
+    }
+
+    BatchOperator project(ArrayList<SelectValue> selectValues, BatchOperator projection) {
+
+        StringBuilder operation = new StringBuilder("PROJECT ");
+        for (int i = 0; i < selectValues.size(); i++) {
+            SelectValue sv = selectValues.get(i);
+            if (i != 0) {
+                operation.append(", ");
+            }
+            if (sv.getType() == SelectValue.Type.COLUMN_NAME) {
+                operation.append(sv.getTargetColumn());
+            } else {
+                operation.append(sv.getAggregateMethod().getText()).append("(").append(sv.getTargetColumn()).append(")");
+            }
+        }
+
+        return stage(operation.toString(), estimatedRows, projection);
+    }
+
+    BatchOperator aggregate(Table source, GroupByData groupBy, boolean parallel, BatchOperator aggregate) {
+
+        StringBuilder operation = new StringBuilder(parallel ? "PARALLEL HASH AGGREGATE" : "HASH AGGREGATE");
+        operation.append(" GROUP BY ").append(String.join(", ", groupBy.getColumns()));
+        if (groupBy.getRawHavingCondition() != null) {
+            operation.append(" HAVING ").append(groupBy.getRawHavingCondition());
+        }
+        if (parallel) {
+            // the stages before run on their own for each morsel
+            operation.append(String.format(", %d MORSELS", Workers.morselCount(rows(source))));
+            for (Stage stage : stages) {
+                stage.inMorsels = stage.pipelined;
+            }
+        }
+
+        // as many groups as distinct keys, as many as rows if any key column is unknown
+        double groups = 1;
+        for (String column : groupBy.getColumns()) {
+            double distinct = -1;
+            try {
+                distinct = CostModel.distinctValues(source, source.getColumnIndex(column));
+            } catch (CoSQLError coSQLError) {
+                // resolved by the aggregate itself, not estimated
+            }
+            groups = distinct < 0 ? estimatedRows : groups * distinct;
+        }
+        groups = Math.min(groups, estimatedRows);
+        if (groupBy.getRawHavingCondition() != null) {
+            groups *= CostModel.DEFAULT_RANGE_SELECTIVITY;
+        }
+
+        return stage(operation.toString(), groups, aggregate);
+    }
+
+    BatchOperator limit(long limit, BatchOperator plan) {
+        return stage("LIMIT " + limit, Math.min(limit, estimatedRows), plan);
+    }
+
+    /* pulls the plan dry, for ANALYZE */
+    void run(BatchOperator plan) throws CoSQLError {
+        while (plan.next() != null) {
+            // results are not what is asked for
+        }
+        totalNanos = System.nanoTime() - start;
+    }
+
+    /* the stages, last first, each indented under the one pulling from it */
+    @Override
+    public String toString() {
+
+        StringBuilder res = new StringBuilder();
+
+        for (int i = stages.size() - 1; i >= 0; i--) {
+
+            Stage stage = stages.get(i);
+            int depth = stages.size() - 1 - i;
+            for (int d = 0; d < depth; d++) {
+                res.append("  ");
+            }
+            if (depth > 0) {
+                res.append("-> ");
+            }
+
+            res.append(stage.operation).append(String.format(" (ESTIMATED ROWS %.0f", stage.estimatedRows));
+
+            if (analyze) {
+                if (stage.inMorsels) {
+                    res.append(", RUN IN MORSELS");
+                } else if (stage.rows == -1) {
+                    res.append(", NEVER EXECUTED");
+                } else {
+                    // what the stage pulled from took is its own
+                    long nanos = stage.nanos;
+                    long bytes = stage.bytes;
+                    Stage before = i > 0 ? stages.get(i - 1) : null;
+                    if (stage.pipelined && before != null && before.pipelined && !before.inMorsels && before.rows != -1) {
+                        nanos -= before.nanos;
+                        bytes -= before.bytes;
+                    }
+
+                    res.append(String.format(", ACTUAL ROWS %d, TIME %.3f MS", stage.rows, nanos / 1e6));
+                    if (allocatedBytes() != -1) {
+                        res.append(String.format(", ALLOCATED %d BYTES", bytes));
+                    }
+                }
+            }
+
+            res.append(")\n");
+        }
+
+        if (totalNanos != -1) {
+            res.append(String.format("TOTAL TIME %.3f MS\n", totalNanos / 1e6));
+        }
+
+        return res.toString();
+    }
+}
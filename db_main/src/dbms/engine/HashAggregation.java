@@ -0,0 +1,256 @@
+package dbms.engine;
+
+import java.util.Arrays;
+
+import static dbms.parser.GroupByData.Method;
+
+/**
+ * GROUP BY state, built in one pass over the projected batches.
+ *
+ * Groups are numbered in the order they are first seen. An open
+ * addressing table maps the hash of a row's group columns to its group
+ * number; the values of a group's first row are kept once per group (the
+ * only allocation a row can cause), and each aggregate keeps two primitive
+ * accumulators per group, its running SUM, MIN or MAX and the count of
+ * the values it took in. Rows are hashed and compared straight off the
+ * batch columns and aggregate targets are read off the source rows, no
+ * row is copied or kept.
+ *
+ * INT values only are aggregated, NULLs are skipped; a group that saw
+ * none comes out NULL.
+ *
+ * Parts of the input can be aggregated separately, into {@link #emptyCopy}s,
+ * and {@link #merge}d afterwards: sums and counts add up (an AVG is kept
+ * as both), minimums and maximums combine.
+ */
+public class HashAggregation {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /* positions of the group columns among the projected ones */
+    private final int[] keyColumns;
+
+    /* per aggregate, its function and the source column it reads */
+    private final Method[] methods;
+    private final int[] targets;
+
+    /* group number + 1 per slot, 0 for an empty slot; always a power of two long */
+    private int[] slots;
+
+    /* per group */
+    private int[] hashes;
+    private Object[][] firstRows;
+    private long[][] accumulators;
+    private long[][] counts;
+
+    private int groups;
+
+    public HashAggregation(int[] keyColumns, Method[] methods, int[] targets) {
+        this.keyColumns = keyColumns;
+        this.methods = methods;
+        this.targets = targets;
+
+        slots = new int[INITIAL_CAPACITY * 2];
+        hashes = new int[INITIAL_CAPACITY];
+        firstRows = new Object[INITIAL_CAPACITY][];
+        accumulators = new long[methods.length][INITIAL_CAPACITY];
+        counts = new long[methods.length][INITIAL_CAPACITY];
+    }
+
+    /* a new, empty aggregation of the same groups and aggregates */
+    public HashAggregation emptyCopy() {
+        return new HashAggregation(keyColumns, methods, targets);
+    }
+
+    public void add(Batch batch) {
+
+        for (int i = 0; i < batch.size; i++) {
+
+            int group = groupOf(batch, i);
+
+            Table.Row row = batch.rows[i];
+            for (int a = 0; a < methods.length; a++) {
+                Object value = row.getValueAt(targets[a]);
+                if (value instanceof Long) {
+                    accumulate(a, group, (Long) value, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the groups of an aggregation of a later part of the input;
+     * groups new to this one come after its own, in their order there.
+     */
+    public void merge(HashAggregation other) {
+
+        for (int from = 0; from < other.groups; from++) {
+
+            int group = groupOf(other.hashes[from], other.firstRows[from]);
+
+            for (int a = 0; a < methods.length; a++) {
+
+                long count = other.counts[a][from];
+                if (count != 0) {
+                    accumulate(a, group, other.accumulators[a][from], count);
+                }
+            }
+        }
+    }
+
+    public int getGroupCount() {
+        return groups;
+    }
+
+    /* projected column of the group's first row, the group columns among them */
+    public Object getValue(int group, int column) {
+        return firstRows[group][column];
+    }
+
+    /* the aggregate of the group: a Long, a Double for AVG, "NULL" if it saw no value */
+    public Object getAggregate(int group, int aggregate) {
+
+        long count = counts[aggregate][group];
+        if (count == 0) {
+            return "NULL";
+        }
+
+        long acc = accumulators[aggregate][group];
+        return methods[aggregate] == Method.AVG ? (Object) (acc / (double) count) : (Object) acc;
+    }
+
+    /* the aggregate as a number, NaN if it saw no value */
+    public double getAggregateAsDouble(int group, int aggregate) {
+        long count = counts[aggregate][group];
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long acc = accumulators[aggregate][group];
+        return methods[aggregate] == Method.AVG ? acc / (double) count : acc;
+    }
+
+    /* takes in a value, or the accumulator of that many values */
+    private void accumulate(int aggregate, int group, long value, long count) {
+
+        long[] acc = accumulators[aggregate];
+        boolean first = counts[aggregate][group] == 0;
+        counts[aggregate][group] += count;
+
+        switch (methods[aggregate]) {
+            case MIN:
+                acc[group] = first ? value : Math.min(acc[group], value);
+                break;
+            case MAX:
+                acc[group] = first ? value : Math.max(acc[group], value);
+                break;
+            default:
+                acc[group] += value;
+        }
+    }
+
+    /* number of the row's group, a new one if it is the first of it */
+    private int groupOf(Batch batch, int i) {
+
+        int hash = hash(batch, i);
+        int mask = slots.length - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+
+            int group = slots[slot] - 1;
+            if (group == -1) {
+                Object[] first = new Object[batch.columns.length];
+                for (int c = 0; c < first.length; c++) {
+                    first[c] = batch.columns[c][i];
+                }
+                return newGroup(slot, hash, first);
+            }
+
+            if (hashes[group] == hash && sameKey(firstRows[group], batch, i)) {
+                return group;
+            }
+        }
+    }
+
+    /* number of the group of another aggregation's group, given its hash and first row */
+    private int groupOf(int hash, Object[] first) {
+
+        int mask = slots.length - 1;
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+
+            int group = slots[slot] - 1;
+            if (group == -1) {
+                return newGroup(slot, hash, first);
+            }
+
+            if (hashes[group] == hash && sameKey(firstRows[group], first)) {
+                return group;
+            }
+        }
+    }
+
+    private int hash(Batch batch, int i) {
+        int h = 1;
+        for (int column : keyColumns) {
+            h = 31 * h + batch.columns[column][i].hashCode();
+        }
+        // spread, so sequential keys do not fill sequential slots
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean sameKey(Object[] first, Batch batch, int i) {
+        for (int column : keyColumns) {
+            if (!first[column].equals(batch.columns[column][i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean sameKey(Object[] first, Object[] other) {
+        for (int column : keyColumns) {
+            if (!first[column].equals(other[column])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* adds a group in the given empty slot */
+    private int newGroup(int slot, int hash, Object[] first) {
+
+        if (groups == hashes.length) {
+            int capacity = groups * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            firstRows = Arrays.copyOf(firstRows, capacity);
+            for (int a = 0; a < methods.length; a++) {
+                accumulators[a] = Arrays.copyOf(accumulators[a], capacity);
+                counts[a] = Arrays.copyOf(counts[a], capacity);
+            }
+        }
+
+        int group = groups++;
+        hashes[group] = hash;
+        firstRows[group] = first;
+
+        slots[slot] = group + 1;
+        if (groups * 2 > slots.length) {
+            rehash();
+        }
+
+        return group;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int group = 0; group < groups; group++) {
+            int slot = hashes[group] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = group + 1;
+        }
+    }
+}
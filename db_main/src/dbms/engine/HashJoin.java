@@ -0,0 +1,149 @@
+package dbms.engine;
+
+import dbms.exceptions.CoSQLError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static dbms.engine.Table.Row;
+
+/**
+ * Equality join of two tables. Hashes the smaller table on its join column
+ * and probes with the larger one; the result has the shape of
+ * {@link Table#cartesianProduct(Table)} restricted to the matching pairs.
+ */
+class HashJoin {
+
+    private static final Pattern AND = Pattern.compile("\\((.*)\\)AND\\((.*)\\)");
+    private static final Pattern COLUMNS_EQUAL = Pattern.compile(
+            "([a-zA-Z_\\$][a-zA-Z0-9_\\$]*)\\.([a-zA-Z_\\$][a-zA-Z0-9_\\$]*)" +
+            "=([a-zA-Z_\\$][a-zA-Z0-9_\\$]*)\\.([a-zA-Z_\\$][a-zA-Z0-9_\\$]*)");
+
+    /**
+     * A {@code a.x = b.y} conjunct of a WHERE clause, with what is left of
+     * the clause once it is taken out.
+     */
+    static class Predicate {
+
+        int leftColumn;
+        int rightColumn;
+        String residual;
+
+        Predicate(int leftColumn, int rightColumn, String residual) {
+            this.leftColumn = leftColumn;
+            this.rightColumn = rightColumn;
+            this.residual = residual;
+        }
+    }
+
+    /**
+     * Looks for an equality between a column of {@code left} and one of
+     * {@code right}, either as the whole condition or as one side of a
+     * top level AND. Returns null if there is none.
+     */
+    static Predicate findPredicate(String condition, Table left, Table right) {
+
+        Predicate res = columnsEqual(condition, left, right, "TRUE");
+        if (res != null) {
+            return res;
+        }
+
+        Matcher and = AND.matcher(condition);
+        if (and.matches()) {
+            res = columnsEqual(and.group(1), left, right, and.group(2));
+            if (res == null) {
+                res = columnsEqual(and.group(2), left, right, and.group(1));
+            }
+        }
+
+        return res;
+    }
+
+    private static Predicate columnsEqual(String condition, Table left, Table right, String residual) {
+
+        Matcher m = COLUMNS_EQUAL.matcher(condition);
+        if (!m.matches()) {
+            return null;
+        }
+
+        try {
+            if (m.group(1).equals(left.getName()) && m.group(3).equals(right.getName())) {
+                return new Predicate(left.getColumnIndex(m.group(2)), right.getColumnIndex(m.group(4)), residual);
+            }
+            if (m.group(1).equals(right.getName()) && m.group(3).equals(left.getName())) {
+                return new Predicate(left.getColumnIndex(m.group(4)), right.getColumnIndex(m.group(2)), residual);
+            }
+        } catch (CoSQLError coSQLError) {
+            // unknown column, leave it to the generic path to report
+        }
+
+        return null;
+    }
+
+    static Table join(Table left, int leftColumn, Table right, int rightColumn) {
+
+        Table result = new Table("cartesTable");
+        result.addAllColumns(left.joinedColumns(right));
+
+        boolean buildLeft = left.getRowCount() <= right.getRowCount();
+        Table build = buildLeft ? left : right;
+        Table probe = buildLeft ? right : left;
+        int buildColumn = buildLeft ? leftColumn : rightColumn;
+        int probeColumn = buildLeft ? rightColumn : leftColumn;
+
+        // build phase, rows of the smaller table by join key
+        HashMap<Object, ArrayList<Row>> hash = new HashMap<>();
+        for (int i = 0; i < build.getRowCount(); i++) {
+
+            Object key = build.getValueAt(i, buildColumn);
+            if (isNull(build, buildColumn, key)) {
+                continue;
+            }
+
+            ArrayList<Row> bucket = hash.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(1);
+                hash.put(key, bucket);
+            }
+            bucket.add(build.getRowAt(i));
+        }
+
+        // probe phase, emit left columns first whichever side was built
+        for (int i = 0; i < probe.getRowCount(); i++) {
+
+            Object key = probe.getValueAt(i, probeColumn);
+            if (isNull(probe, probeColumn, key)) {
+                continue;
+            }
+
+            ArrayList<Row> bucket = hash.get(key);
+            if (bucket == null) {
+                continue;
+            }
+
+            Row probeRow = probe.getRowAt(i);
+            for (Row buildRow : bucket) {
+                ArrayList<Object> vals = new ArrayList<>(left.getColumnCount() + right.getColumnCount());
+                vals.addAll(buildLeft ? buildRow.getValues() : probeRow.getValues());
+                vals.addAll(buildLeft ? probeRow.getValues() : buildRow.getValues());
+                result.storage.add(vals);
+            }
+        }
+
+        return result;
+    }
+
+    /*
+     * A NULL key joins no row, not even another NULL, as in SQL. Cells of
+     * either type store NULL as the "NULL" marker, an INT cell that is not
+     * a number is taken for NULL as well.
+     */
+    private static boolean isNull(Table table, int column, Object value) {
+        if (value == null || ColumnarStorage.NULL.equals(value)) {
+            return true;
+        }
+        return table.getColumnAt(column).type == Table.ColumnType.INT && !(value instanceof Long);
+    }
+}
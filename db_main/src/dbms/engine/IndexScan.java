@@ -0,0 +1,100 @@
+package dbms.engine;
+
+import dbms.util.RoaringBitmap;
+
+import java.util.Collections;
+
+/**
+ * Comparisons of an indexed column against a constant, answered from the
+ * index alone.
+ *
+ * The postings of the matching keys are walked lazily, in key order,
+ * straight off the leaf chain of the tree; nothing is copied until a
+ * caller folds them, and {@link #intersect} stops reading as soon as every
+ * candidate has been accounted for.
+ */
+public class IndexScan {
+
+    /* postings this small are probed id by id rather than intersected as bitmaps */
+    private static final int PROBE_LIMIT = 8;
+
+    /**
+     * Postings of the keys that compare to the constant as requested, in
+     * key order.
+     */
+    public static Iterable<RoaringBitmap> postings(Table.Index idx, Object constantValue, int type) {
+
+        switch (type) {
+
+            case DatabaseCore.COMPARISON_TYPE_EQUAL: {
+                RoaringBitmap posting = idx.index.get(constantValue);
+                return posting == null ? Collections.<RoaringBitmap>emptyList() : Collections.singletonList(posting);
+            }
+
+            case DatabaseCore.COMPARISON_TYPE_GREATER:
+                return idx.index.range(constantValue, false, null, true);
+
+            case DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL:
+                return idx.index.range(constantValue, true, null, true);
+
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN:
+                return idx.index.range(null, true, constantValue, false);
+
+            case DatabaseCore.COMPARISON_TYPE_LESS_THAN_OR_EQUAL:
+                return idx.index.range(null, true, constantValue, true);
+
+            default:
+                System.err.println("mage msihe ?! :|");
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Ids of the rows whose indexed value compares to the given constant as
+     * requested, the union of the postings of every matching key.
+     */
+    public static RoaringBitmap union(Table.Index idx, Object constantValue, int type) {
+
+        RoaringBitmap ids = new RoaringBitmap();
+        for (RoaringBitmap posting : postings(idx, constantValue, type)) {
+            ids.orWith(posting);
+        }
+        return ids;
+    }
+
+    /**
+     * The candidates whose indexed value compares to the given constant as
+     * requested, without reading the rows. Two indexed conditions on
+     * different columns are combined this way.
+     */
+    public static RoaringBitmap intersect(Table.Index idx, Object constantValue, int type, RoaringBitmap candidates) {
+
+        RoaringBitmap res = new RoaringBitmap();
+        int remaining = candidates.cardinality();
+
+        for (RoaringBitmap posting : postings(idx, constantValue, type)) {
+
+            if (remaining == 0) {
+                break; // every candidate is in already, the rest of the range can't add any
+            }
+
+            // a row sits under one key only, postings never overlap
+            if (posting.cardinality() <= PROBE_LIMIT) {
+                RoaringBitmap.IntIterator it = posting.intIterator();
+                while (it.hasNext()) {
+                    int id = it.next();
+                    if (candidates.contains(id)) {
+                        res.add(id);
+                        remaining--;
+                    }
+                }
+            } else {
+                RoaringBitmap found = RoaringBitmap.and(posting, candidates);
+                remaining -= found.cardinality();
+                res.orWith(found);
+            }
+        }
+
+        return res;
+    }
+}
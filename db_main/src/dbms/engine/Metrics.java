@@ -0,0 +1,237 @@
+package dbms.engine;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What the engine has done since it started: per kind of statement how
+ * many ran, how many failed and a {@link LatencyHistogram} of how long
+ * they took, and engine wide how many scans an index answered, how many
+ * rows scans read and how many rows constraints turned away.
+ *
+ * Every counter is lock free. All of it is registered with the platform
+ * MBean server, which only serves local JMX clients (jconsole, say)
+ * unless the JVM is started with a remote connector, under
+ * {@code dbms:type=Engine} and {@code dbms:type=Statement,name=...};
+ * SHOW METRICS prints the same.
+ */
+public class Metrics {
+
+    /* scans answered off an index, and those that had to read the table */
+    static final LongAdder indexHits = new LongAdder();
+    static final LongAdder indexMisses = new LongAdder();
+
+    /* rows read off a table by scans and the conditions they test, whether they matched or not */
+    static final LongAdder rowsScanned = new LongAdder();
+
+    /* rows turned away by C1 (primary key), C2 (foreign key) and restricting foreign keys */
+    static final LongAdder c1Rejections = new LongAdder();
+    static final LongAdder c2Rejections = new LongAdder();
+    static final LongAdder restrictRejections = new LongAdder();
+
+    /* by command class, looked up on every statement run so no name is made for it */
+    private static final ConcurrentHashMap<Class<?>, Statement> statements = new ConcurrentHashMap<>();
+
+    public interface EngineMBean {
+
+        long getIndexHits();
+
+        long getIndexMisses();
+
+        long getRowsScanned();
+
+        long getC1Rejections();
+
+        long getC2Rejections();
+
+        long getRestrictRejections();
+    }
+
+    public interface StatementMBean {
+
+        long getCount();
+
+        long getErrors();
+
+        double getMeanMicros();
+
+        long getP50Micros();
+
+        long getP90Micros();
+
+        long getP99Micros();
+
+        long getMaxMicros();
+    }
+
+    private static class Engine implements EngineMBean {
+
+        @Override
+        public long getIndexHits() {
+            return indexHits.sum();
+        }
+
+        @Override
+        public long getIndexMisses() {
+            return indexMisses.sum();
+        }
+
+        @Override
+        public long getRowsScanned() {
+            return rowsScanned.sum();
+        }
+
+        @Override
+        public long getC1Rejections() {
+            return c1Rejections.sum();
+        }
+
+        @Override
+        public long getC2Rejections() {
+            return c2Rejections.sum();
+        }
+
+        @Override
+        public long getRestrictRejections() {
+            return restrictRejections.sum();
+        }
+    }
+
+    /* one kind of statement, a CoSQLCommand subclass */
+    public static class Statement implements StatementMBean {
+
+        private final String name;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        Statement(String name) {
+            this.name = name;
+        }
+
+        /* a statement that ran to the end, in so many nanoseconds */
+        public void executed(long nanos) {
+            latencies.record(nanos);
+        }
+
+        /* a statement that ended in an error */
+        public void failed() {
+            errors.increment();
+        }
+
+        @Override
+        public long getCount() {
+            return latencies.getCount();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public double getMeanMicros() {
+            return latencies.getMean() / 1000;
+        }
+
+        @Override
+        public long getP50Micros() {
+            return latencies.getPercentile(50) / 1000;
+        }
+
+        @Override
+        public long getP90Micros() {
+            return latencies.getPercentile(90) / 1000;
+        }
+
+        @Override
+        public long getP99Micros() {
+            return latencies.getPercentile(99) / 1000;
+        }
+
+        @Override
+        public long getMaxMicros() {
+            return latencies.getMax() / 1000;
+        }
+    }
+
+    static {
+        register("dbms:type=Engine", new Engine(), EngineMBean.class);
+    }
+
+    private static <T> void register(String name, T implementation, Class<T> type) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(implementation, type, false), new ObjectName(name));
+        } catch (JMException e) {
+            // already there from another class loader, or no JMX; counting goes on regardless
+        }
+    }
+
+    /* metrics of the kind of statement, "Insert" for a CoSQLInsert */
+    public static Statement statement(Class<?> command) {
+
+        Statement res = statements.get(command);
+        if (res == null) {
+            String name = command.getSimpleName();
+            if (name.startsWith("CoSQL")) {
+                name = name.substring("CoSQL".length());
+            }
+
+            Statement created = new Statement(name);
+            res = statements.putIfAbsent(command, created);
+            if (res == null) {
+                res = created;
+                register("dbms:type=Statement,name=" + name, created, StatementMBean.class);
+            }
+        }
+        return res;
+    }
+
+    /* counts rows a scan read */
+    public static void scanned(long rows) {
+        rowsScanned.add(rows);
+    }
+
+    /* counts the C1 and C2 failures of a batch insert or load, as DatabaseCore.insertRows counts them */
+    static void rejected(int[] failed) {
+        c1Rejections.add(failed[0]);
+        c2Rejections.add(failed[1]);
+    }
+
+    /* what SHOW METRICS prints, one line per kind of statement that ran and the engine counters */
+    public static String report() {
+
+        StringBuilder res = new StringBuilder();
+        res.append(String.format("%-16s %10s %8s %12s %10s %10s %10s %10s\n",
+                "STATEMENT", "COUNT", "ERRORS", "MEAN(US)", "P50(US)", "P90(US)", "P99(US)", "MAX(US)"));
+
+        ArrayList<Statement> sorted = new ArrayList<>(statements.values());
+        Collections.sort(sorted, new Comparator<Statement>() {
+            @Override
+            public int compare(Statement a, Statement b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        for (Statement s : sorted) {
+            if (s.getCount() == 0 && s.getErrors() == 0) {
+                continue; // this SHOW METRICS, say
+            }
+            // "CreateTable" as CREATE TABLE
+            res.append(String.format("%-16s %10d %8d %12.1f %10d %10d %10d %10d\n", s.name.replaceAll("([a-z])([A-Z])", "$1 $2").toUpperCase(),
+                    s.getCount(), s.getErrors(), s.getMeanMicros(), s.getP50Micros(), s.getP90Micros(), s.getP99Micros(), s.getMaxMicros()));
+        }
+
+        res.append(String.format("INDEX HITS %d, INDEX MISSES %d, ROWS SCANNED %d\n",
+                indexHits.sum(), indexMisses.sum(), rowsScanned.sum()));
+        res.append(String.format("C1 REJECTIONS %d, C2 REJECTIONS %d, RESTRICT REJECTIONS %d\n",
+                c1Rejections.sum(), c2Rejections.sum(), restrictRejections.sum()));
+
+        return res.toString();
+    }
+}
@@ -0,0 +1,732 @@
+package dbms.engine;
+
+import dbms.DatabaseBible;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static dbms.engine.BufferPool.Frame;
+import static dbms.engine.BufferPool.PAGE_SIZE;
+import static dbms.engine.BufferPool.PageFile;
+import static dbms.engine.Table.Column;
+import static dbms.engine.Table.Row;
+
+/**
+ * Disk backed layout: rows are records in slotted pages of a per table
+ * file, read and written through the shared {@link BufferPool}, so only a
+ * bounded number of pages is on the heap at any time.
+ *
+ * Page layout: slot count (char), start of the record area (char), page
+ * kind (byte), then the slot array growing up and the records growing down
+ * from the end of the page. A slot is the record's offset and length
+ * (chars). Records hold the cells in column order, INT as a null tag plus
+ * 8 bytes, VARCHAR as an int length (-1 for a Java null) plus UTF-8.
+ *
+ * A row id is its page number shifted left by {@link #SLOT_BITS} plus its
+ * slot. Rows are only appended to the last data page, so ids grow in
+ * insertion order. A row that no longer fits its page after an update
+ * moves to an overflow page and leaves a forwarding address behind, so
+ * its id never changes. Space of removed rows is reused by later updates
+ * of the same page only.
+ */
+class PagedStorage extends TableStorage {
+
+    static final int SLOT_BITS = 10;
+    static final int MAX_SLOTS = 1 << SLOT_BITS;
+    static final int SLOT_MASK = MAX_SLOTS - 1;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int SLOT_SIZE = 4;
+
+    /* largest record a page can take */
+    static final int MAX_RECORD = PAGE_SIZE - HEADER_SIZE - SLOT_SIZE;
+
+    private static final byte DATA_PAGE = 0;
+    private static final byte OVERFLOW_PAGE = 1;
+
+    /* slot lengths with a special meaning */
+    private static final int FREE = 0xFFFF;
+    private static final int FORWARDED = 0xFFFE;
+
+    /* what a NULL INT cell reads as, same as the row layout stores it */
+    private static final String NULL = "NULL";
+
+    /* schema is shared with the owning table */
+    private final ArrayList<Column> columns;
+
+    private final transient BufferPool pool;
+    private final transient PageFile file;
+
+    /* live rows of every page (overflow pages have none) and a Fenwick tree over it */
+    private int[] live = new int[16];
+    private int[] tree = new int[17];
+
+    private int pageCount;
+    private int lastDataPage = -1;
+    private int overflowPage = -1;
+    private int size;
+
+    /* last position resolved to an id, scans by position walk on from it */
+    private int cursorPosition = -1;
+    private int cursorId;
+
+    PagedStorage(ArrayList<Column> columns, String tableName) {
+        this.columns = columns;
+        this.pool = BufferPool.shared();
+
+        try {
+            String directory = DatabaseBible.PAGE_DIRECTORY;
+            File path = File.createTempFile("cosql-" + tableName + "-", ".pages",
+                    directory == null ? null : new File(directory));
+            path.deleteOnExit();
+            this.file = new PageFile(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    int size() {
+        return size;
+    }
+
+    @Override
+    Row get(int position) {
+        return new PagedRow(this, idAt(position));
+    }
+
+    @Override
+    Row getById(int id) {
+        return isLive(id) ? new PagedRow(this, id) : null;
+    }
+
+    @Override
+    Object getValue(int position, int column) {
+        return readValue(idAt(position), column);
+    }
+
+    @Override
+    Row add(ArrayList<Object> values) {
+
+        byte[] record = encode(values);
+
+        Frame frame = lastDataPage == -1 ? null : pool.pin(file, lastDataPage);
+        if (frame == null || !fits(frame.data, record.length)) {
+            if (frame != null) {
+                pool.unpin(frame, false);
+            }
+            frame = newPage(DATA_PAGE);
+            lastDataPage = frame.pageNo;
+        }
+
+        int slot = append(frame.data, record);
+        int id = frame.pageNo << SLOT_BITS | slot;
+        pool.unpin(frame, true);
+
+        changeLive(frame.pageNo, 1);
+        size++;
+
+        return new PagedRow(this, id);
+    }
+
+    @Override
+    void remove(Row row) {
+
+        int id;
+        if (row instanceof PagedRow && ((PagedRow) row).storage == this) {
+            id = row.id;
+        } else {
+            int position = indexOf(row);
+            if (position == -1) {
+                return;
+            }
+            id = idAt(position);
+        }
+
+        if (!isLive(id)) {
+            return;
+        }
+
+        Frame frame = pool.pin(file, id >>> SLOT_BITS);
+        ByteBuffer page = frame.data;
+        int slot = id & SLOT_MASK;
+
+        if (slotLength(page, slot) == FORWARDED) {
+            freeOverflow(page.getInt(slotOffset(page, slot)));
+        }
+        setSlot(page, slot, 0, FREE);
+        pool.unpin(frame, true);
+
+        changeLive(id >>> SLOT_BITS, -1);
+        size--;
+        cursorPosition = -1;
+    }
+
+    @Override
+    int indexOf(Row row) {
+
+        if (row instanceof PagedRow && ((PagedRow) row).storage == this) {
+            return isLive(row.id) ? rank(row.id) : -1;
+        }
+
+        // foreign row, compare by value like the row layout does
+        int position = 0;
+        for (Row mine : rows()) {
+            if (mine.equals(row)) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    @Override
+    ArrayList<Row> asList() {
+        ArrayList<Row> res = new ArrayList<>(size);
+        for (Row row : rows()) {
+            res.add(row);
+        }
+        return res;
+    }
+
+    @Override
+    Iterable<Row> rows() {
+        return new Iterable<Row>() {
+            @Override
+            public Iterator<Row> iterator() {
+                return new Iterator<Row>() {
+
+                    // ids of the current page, read with one pin per page
+                    int[] ids = new int[MAX_SLOTS];
+                    int count;
+                    int next;
+                    int page = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == count) {
+                            if (++page >= pageCount) {
+                                return false;
+                            }
+                            count = live[page] == 0 ? 0 : liveIds(page, ids);
+                            next = 0;
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public Row next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return new PagedRow(PagedStorage.this, ids[next++]);
+                    }
+                };
+            }
+        };
+    }
+
+    /* id of the row at the given position */
+    private int idAt(int position) {
+
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", Size: " + size);
+        }
+
+        if (position == cursorPosition) {
+            return cursorId;
+        }
+
+        int id;
+        if (cursorPosition != -1 && position == cursorPosition + 1) {
+            id = nextLiveId(cursorId);
+        } else {
+            int page = findPage(position);
+            id = kthLiveId(page, position - prefix(page));
+        }
+
+        cursorPosition = position;
+        cursorId = id;
+        return id;
+    }
+
+    private int nextLiveId(int id) {
+
+        int page = id >>> SLOT_BITS;
+        int from = (id & SLOT_MASK) + 1;
+
+        for (; page < pageCount; page++, from = 0) {
+            if (live[page] == 0) {
+                continue;
+            }
+
+            Frame frame = pool.pin(file, page);
+            try {
+                ByteBuffer data = frame.data;
+                for (int slot = from; slot < slotCount(data); slot++) {
+                    if (slotLength(data, slot) != FREE) {
+                        return page << SLOT_BITS | slot;
+                    }
+                }
+            } finally {
+                pool.unpin(frame, false);
+            }
+        }
+
+        throw new IllegalStateException("Row positions out of sync with pages");
+    }
+
+    private int kthLiveId(int page, int k) {
+
+        Frame frame = pool.pin(file, page);
+        try {
+            ByteBuffer data = frame.data;
+            for (int slot = 0; slot < slotCount(data); slot++) {
+                if (slotLength(data, slot) != FREE && k-- == 0) {
+                    return page << SLOT_BITS | slot;
+                }
+            }
+        } finally {
+            pool.unpin(frame, false);
+        }
+
+        throw new IllegalStateException("Row positions out of sync with pages");
+    }
+
+    private int liveIds(int page, int[] into) {
+
+        Frame frame = pool.pin(file, page);
+        try {
+            ByteBuffer data = frame.data;
+            int count = 0;
+            for (int slot = 0; slot < slotCount(data); slot++) {
+                if (slotLength(data, slot) != FREE) {
+                    into[count++] = page << SLOT_BITS | slot;
+                }
+            }
+            return count;
+        } finally {
+            pool.unpin(frame, false);
+        }
+    }
+
+    /* position of a live row */
+    private int rank(int id) {
+
+        int page = id >>> SLOT_BITS;
+        int res = prefix(page);
+
+        Frame frame = pool.pin(file, page);
+        try {
+            ByteBuffer data = frame.data;
+            for (int slot = 0; slot < (id & SLOT_MASK); slot++) {
+                if (slotLength(data, slot) != FREE) {
+                    res++;
+                }
+            }
+        } finally {
+            pool.unpin(frame, false);
+        }
+        return res;
+    }
+
+    private boolean isLive(int id) {
+
+        int page = id >>> SLOT_BITS;
+        if (id < 0 || page >= pageCount || live[page] == 0) {
+            return false;
+        }
+
+        Frame frame = pool.pin(file, page);
+        try {
+            int slot = id & SLOT_MASK;
+            return slot < slotCount(frame.data) && slotLength(frame.data, slot) != FREE;
+        } finally {
+            pool.unpin(frame, false);
+        }
+    }
+
+    /* values of a row, decoded from its record */
+    ArrayList<Object> readValues(int id) {
+        ArrayList<Object> res = new ArrayList<>(columns.size());
+
+        Frame frame = pinRecord(id);
+        try {
+            ByteBuffer data = frame.data;
+            int offset = recordOffset;
+            int end = offset + recordLength;
+            for (int c = 0; c < columns.size(); c++) {
+                res.add(offset < end ? decode(data, offset, c) : null);
+                offset = skip(data, offset, c);
+            }
+        } finally {
+            pool.unpin(frame, false);
+        }
+        return res;
+    }
+
+    Object readValue(int id, int column) {
+
+        Frame frame = pinRecord(id);
+        try {
+            ByteBuffer data = frame.data;
+            int offset = recordOffset;
+            int end = offset + recordLength;
+            for (int c = 0; c < column && offset < end; c++) {
+                offset = skip(data, offset, c);
+            }
+            return offset < end ? decode(data, offset, column) : null;
+        } finally {
+            pool.unpin(frame, false);
+        }
+    }
+
+    /* replaces a row's record, keeping its id */
+    void rewrite(int id, ArrayList<Object> values) {
+
+        byte[] record = encode(values);
+
+        Frame frame = pool.pin(file, id >>> SLOT_BITS);
+        try {
+            ByteBuffer data = frame.data;
+            int slot = id & SLOT_MASK;
+            int offset = slotOffset(data, slot);
+            int length = slotLength(data, slot);
+
+            if (length == FORWARDED) {
+                // already moved out, move the new version out as well
+                freeOverflow(data.getInt(offset));
+                data.putInt(offset, writeOverflow(record));
+                return;
+            }
+
+            if (record.length <= length) {
+                put(data, offset, record);
+                setSlot(data, slot, offset, record.length);
+                return;
+            }
+
+            // drop the old version and see if the page has room once compacted
+            setSlot(data, slot, 0, FREE);
+            if (compactedFreeSpace(data) >= record.length) {
+                if (freeSpace(data) < record.length) {
+                    compact(data);
+                }
+                int start = recordStart(data) - record.length;
+                put(data, start, record);
+                setRecordStart(data, start);
+                setSlot(data, slot, start, record.length);
+                return;
+            }
+
+            // leave a forwarding address where the record was
+            data.putInt(offset, writeOverflow(record));
+            setSlot(data, slot, offset, FORWARDED);
+
+        } finally {
+            pool.unpin(frame, true);
+        }
+    }
+
+    /* current record of a row, following a forwarding address; the caller unpins */
+    private int recordOffset;
+    private int recordLength;
+
+    private Frame pinRecord(int id) {
+
+        Frame frame = pool.pin(file, id >>> SLOT_BITS);
+        int slot = id & SLOT_MASK;
+        int offset = slotOffset(frame.data, slot);
+        int length = slotLength(frame.data, slot);
+
+        if (length == FORWARDED) {
+            int address = frame.data.getInt(offset);
+            pool.unpin(frame, false);
+
+            frame = pool.pin(file, address >>> SLOT_BITS);
+            slot = address & SLOT_MASK;
+            offset = slotOffset(frame.data, slot);
+            length = slotLength(frame.data, slot);
+        }
+
+        recordOffset = offset;
+        recordLength = length;
+        return frame;
+    }
+
+    private int writeOverflow(byte[] record) {
+
+        Frame frame = overflowPage == -1 ? null : pool.pin(file, overflowPage);
+        if (frame == null || !fits(frame.data, record.length)) {
+            if (frame != null) {
+                pool.unpin(frame, false);
+            }
+            frame = newPage(OVERFLOW_PAGE);
+            overflowPage = frame.pageNo;
+        }
+
+        int slot = append(frame.data, record);
+        pool.unpin(frame, true);
+        return frame.pageNo << SLOT_BITS | slot;
+    }
+
+    private void freeOverflow(int address) {
+        Frame frame = pool.pin(file, address >>> SLOT_BITS);
+        setSlot(frame.data, address & SLOT_MASK, 0, FREE);
+        pool.unpin(frame, true);
+    }
+
+    private Frame newPage(byte kind) {
+
+        if (pageCount >= 1 << (31 - SLOT_BITS)) {
+            throw new IllegalStateException("Paged table is full");
+        }
+
+        int pageNo = pageCount++;
+        if (pageCount > live.length) {
+            live = Arrays.copyOf(live, live.length * 2);
+            rebuildTree();
+        }
+
+        Frame frame = pool.pin(file, pageNo);
+        ByteBuffer data = frame.data;
+        data.putChar(0, (char) 0);
+        setRecordStart(data, PAGE_SIZE);
+        data.put(4, kind);
+        return frame;
+    }
+
+    // page layout
+
+    private static int slotCount(ByteBuffer page) {
+        return page.getChar(0);
+    }
+
+    private static int recordStart(ByteBuffer page) {
+        return page.getChar(2);
+    }
+
+    private static void setRecordStart(ByteBuffer page, int start) {
+        page.putChar(2, (char) start);
+    }
+
+    private static int slotOffset(ByteBuffer page, int slot) {
+        return page.getChar(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private static int slotLength(ByteBuffer page, int slot) {
+        return page.getChar(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private static void setSlot(ByteBuffer page, int slot, int offset, int length) {
+        page.putChar(HEADER_SIZE + slot * SLOT_SIZE, (char) offset);
+        page.putChar(HEADER_SIZE + slot * SLOT_SIZE + 2, (char) length);
+    }
+
+    private static int freeSpace(ByteBuffer page) {
+        return recordStart(page) - HEADER_SIZE - slotCount(page) * SLOT_SIZE;
+    }
+
+    private static boolean fits(ByteBuffer page, int length) {
+        return slotCount(page) < MAX_SLOTS && freeSpace(page) >= length + SLOT_SIZE;
+    }
+
+    private static int append(ByteBuffer page, byte[] record) {
+        int slot = slotCount(page);
+        int start = recordStart(page) - record.length;
+
+        put(page, start, record);
+        setRecordStart(page, start);
+        setSlot(page, slot, start, record.length);
+        page.putChar(0, (char) (slot + 1));
+        return slot;
+    }
+
+    private static int storedLength(ByteBuffer page, int slot) {
+        int length = slotLength(page, slot);
+        if (length == FREE) {
+            return 0;
+        }
+        return length == FORWARDED ? 4 : length;
+    }
+
+    private static int compactedFreeSpace(ByteBuffer page) {
+        int used = 0;
+        for (int slot = 0; slot < slotCount(page); slot++) {
+            used += storedLength(page, slot);
+        }
+        return PAGE_SIZE - HEADER_SIZE - slotCount(page) * SLOT_SIZE - used;
+    }
+
+    /* moves the records together at the end of the page, slots keep their numbers */
+    private static void compact(ByteBuffer page) {
+
+        byte[] copy = Arrays.copyOf(page.array(), PAGE_SIZE);
+
+        int start = PAGE_SIZE;
+        for (int slot = 0; slot < slotCount(page); slot++) {
+            int length = storedLength(page, slot);
+            if (length == 0) {
+                continue;
+            }
+            start -= length;
+            System.arraycopy(copy, slotOffset(page, slot), page.array(), start, length);
+            setSlot(page, slot, start, slotLength(page, slot));
+        }
+        setRecordStart(page, start);
+    }
+
+    private static void put(ByteBuffer page, int offset, byte[] record) {
+        System.arraycopy(record, 0, page.array(), offset, record.length);
+    }
+
+    // records
+
+    private byte[] encode(ArrayList<Object> values) {
+
+        byte[][] strings = new byte[columns.size()][];
+        int length = 0;
+
+        for (int c = 0; c < columns.size(); c++) {
+            Object value = c < values.size() ? values.get(c) : null;
+            if (columns.get(c).type == Table.ColumnType.INT) {
+                length += 9;
+            } else {
+                if (value != null) {
+                    strings[c] = value.toString().getBytes(StandardCharsets.UTF_8);
+                    length += strings[c].length;
+                }
+                length += 4;
+            }
+        }
+
+        if (length > MAX_RECORD) {
+            throw new IllegalArgumentException("Row of " + length + " bytes does not fit in a " + PAGE_SIZE + " byte page");
+        }
+
+        ByteBuffer res = ByteBuffer.allocate(length);
+        for (int c = 0; c < columns.size(); c++) {
+            Object value = c < values.size() ? values.get(c) : null;
+            if (columns.get(c).type == Table.ColumnType.INT) {
+                res.put((byte) (value instanceof Long ? 1 : 0));
+                res.putLong(value instanceof Long ? (Long) value : 0);
+            } else if (strings[c] == null) {
+                res.putInt(-1);
+            } else {
+                res.putInt(strings[c].length);
+                res.put(strings[c]);
+            }
+        }
+        return res.array();
+    }
+
+    private Object decode(ByteBuffer page, int offset, int column) {
+
+        if (columns.get(column).type == Table.ColumnType.INT) {
+            return page.get(offset) == 0 ? NULL : (Object) page.getLong(offset + 1);
+        }
+
+        int length = page.getInt(offset);
+        return length == -1 ? null : new String(page.array(), offset + 4, length, StandardCharsets.UTF_8);
+    }
+
+    private int skip(ByteBuffer page, int offset, int column) {
+        if (columns.get(column).type == Table.ColumnType.INT) {
+            return offset + 9;
+        }
+        int length = page.getInt(offset);
+        return offset + 4 + (length == -1 ? 0 : length);
+    }
+
+    // live row counts by page
+
+    private void changeLive(int page, int delta) {
+        live[page] += delta;
+        for (int i = page + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private void rebuildTree() {
+        tree = new int[live.length + 1];
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += live[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /* live rows on the pages before the given one */
+    private int prefix(int page) {
+        int res = 0;
+        for (int i = page; i > 0; i -= i & -i) {
+            res += tree[i];
+        }
+        return res;
+    }
+
+    /* page holding the row at the given position */
+    private int findPage(int position) {
+        int page = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            if (page + step < tree.length && tree[page + step] <= position) {
+                page += step;
+                position -= tree[page];
+            }
+        }
+        return page;
+    }
+
+    /**
+     * A row of a paged table. Holds no values of its own, reads and
+     * updates go through the buffer pool to the row's record.
+     */
+    static class PagedRow extends Row {
+
+        private final PagedStorage storage;
+
+        PagedRow(PagedStorage storage, int id) {
+            super(null);
+            this.storage = storage;
+            this.id = id;
+        }
+
+        @Override
+        public ArrayList<Object> getValues() {
+            return storage.readValues(id);
+        }
+
+        @Override
+        public Object getValueAt(int index) {
+            return storage.readValue(id, index);
+        }
+
+        @Override
+        public void updateValueAt(int i, Object obj) {
+            ArrayList<Object> values = getValues();
+            values.set(i, obj);
+            storage.rewrite(id, values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof PagedRow && ((PagedRow) o).storage == storage && ((PagedRow) o).id == id)
+                return true;
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dbms.engine;
+
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.CoSQLQueryExecutionError;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+import static dbms.engine.Table.Column;
+import static dbms.engine.Table.Row;
+import static dbms.util.LanguageUtils.throwExecError;
+
+/**
+ * Where the rows of a query go as the pipeline produces them: written out
+ * as they come by a {@link Printer}, or kept in a table by a
+ * {@link Collector}.
+ */
+public abstract class ResultSink {
+
+    public abstract void begin(ArrayList<Column> columns) throws CoSQLError;
+
+    /* the projected rows of the batch, which is only valid during the call */
+    public abstract void accept(Batch batch) throws CoSQLError;
+
+    public abstract void end() throws CoSQLError;
+
+    /* pulls the pipeline dry into the sink */
+    public static void run(BatchOperator plan, ResultSink sink) throws CoSQLError {
+        sink.begin(plan.getColumns());
+        Batch batch;
+        while ((batch = plan.next()) != null) {
+            sink.accept(batch);
+        }
+        sink.end();
+    }
+
+    /**
+     * Writes rows in the shape of {@link Table#toString()}: a header of the
+     * column names without their table, one comma separated line per row,
+     * NO RESULTS if there are none. The first batch is flushed as soon as
+     * it is written, the rest whenever the buffer fills.
+     */
+    public static class Printer extends ResultSink {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final Writer out;
+        private String header;
+        private boolean flushed;
+
+        public Printer(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset()), BUFFER_SIZE);
+        }
+
+        @Override
+        public void begin(ArrayList<Column> columns) {
+            StringBuilder res = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                String name = columns.get(i).getName();
+                res.append(name.substring(name.indexOf(".") + 1));
+                if (i != columns.size() - 1) {
+                    res.append(",");
+                }
+            }
+            header = res.toString();
+        }
+
+        @Override
+        public void accept(Batch batch) throws CoSQLQueryExecutionError {
+
+            if (batch.size == 0) {
+                return;
+            }
+
+            try {
+                // the header waits for the first row, an empty result has none
+                if (!flushed) {
+                    out.write(header);
+                }
+
+                int columns = batch.getColumnCount();
+                for (int i = 0; i < batch.size; i++) {
+                    out.write('\n');
+                    for (int c = 0; c < columns; c++) {
+                        if (c != 0) {
+                            out.write(',');
+                        }
+                        out.write(String.valueOf(batch.columns[c][i]));
+                    }
+                }
+
+                if (!flushed) {
+                    out.flush();
+                    flushed = true;
+                }
+            } catch (IOException e) {
+                throwExecError("Cannot write result: %s", e.getMessage());
+            }
+        }
+
+        @Override
+        public void end() throws CoSQLQueryExecutionError {
+            try {
+                out.write(flushed ? "\n" : "NO RESULTS\n");
+                out.flush();
+            } catch (IOException e) {
+                throwExecError("Cannot write result: %s", e.getMessage());
+            }
+        }
+    }
+
+    /* keeps the rows, as a table */
+    public static class Collector extends ResultSink {
+
+        private final String name;
+        private ArrayList<Column> columns;
+        private final ArrayList<Row> contents = new ArrayList<>();
+
+        public Collector(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void begin(ArrayList<Column> columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public void accept(Batch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                contents.add(batch.toRow(i));
+            }
+        }
+
+        @Override
+        public void end() {
+        }
+
+        public Table getTable() {
+            return new Table(name, columns, contents);
+        }
+    }
+}
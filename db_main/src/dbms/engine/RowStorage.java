@@ -0,0 +1,93 @@
+package dbms.engine;
+
+import java.util.ArrayList;
+
+import static dbms.engine.Table.Row;
+
+/**
+ * The classic layout: one {@link Row} object per tuple, kept in an
+ * {@link ArrayList} in insertion order.
+ */
+class RowStorage extends TableStorage {
+
+    ArrayList<Row> rows;
+
+    /* rows by id, removed ones leave a null behind so ids stay stable */
+    ArrayList<Row> byId;
+
+    RowStorage(ArrayList<Row> rows) {
+        this.rows = rows;
+        this.byId = new ArrayList<>(rows.size());
+
+        // a row belongs to one table, adopting the list renumbers it
+        for (Row row : rows) {
+            row.id = byId.size();
+            byId.add(row);
+        }
+    }
+
+    @Override
+    int size() {
+        return rows.size();
+    }
+
+    @Override
+    Row get(int position) {
+        return rows.get(position);
+    }
+
+    @Override
+    Row getById(int id) {
+        return id >= 0 && id < byId.size() ? byId.get(id) : null;
+    }
+
+    @Override
+    Object getValue(int position, int column) {
+        return rows.get(position).getValueAt(column);
+    }
+
+    @Override
+    Row add(ArrayList<Object> values) {
+        Row row = new Row(values);
+        row.id = byId.size();
+        byId.add(row);
+        rows.add(row);
+        return row;
+    }
+
+    @Override
+    void remove(Row row) {
+
+        int i;
+        if (getById(row.id) == row) {
+            // remove this very row, not the first one with equal values
+            for (i = 0; i < rows.size() && rows.get(i) != row; i++)
+                ;
+        } else {
+            i = rows.indexOf(row);
+        }
+
+        if (i == -1 || i == rows.size()) {
+            return;
+        }
+
+        Row removed = rows.remove(i);
+        byId.set(removed.id, null);
+    }
+
+    @Override
+    int indexOf(Row row) {
+        return rows.indexOf(row);
+    }
+
+    @Override
+    ArrayList<Row> asList() {
+        // the live list, some callers (views) share it with the table
+        return rows;
+    }
+
+    @Override
+    Iterable<Row> rows() {
+        return rows;
+    }
+}
@@ -0,0 +1,518 @@
+package dbms.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+
+import static dbms.engine.Table.Column;
+import static dbms.engine.Table.Index;
+
+/**
+ * Binary snapshot of a {@link Database}, one file per database.
+ *
+ * The file is a small header followed by one section per table, each
+ * prefixed by its length so the loader can map tables one at a time.
+ * Inside a section the schema comes first, then the cells column by
+ * column: INT columns as a null bitmap plus raw longs, VARCHAR columns as
+ * length prefixed UTF-8 (-1 for a Java null). Indexes are stored by name
+ * and column only and rebuilt on load.
+ *
+ * Views follow the base tables, each after the tables it was made from,
+ * in the same layout (a view keeps the rows it was created with) plus the
+ * names of those tables. A view made from a table that is no longer in
+ * the database is left out.
+ *
+ * Every section ends with the table's ANALYZE statistics, if it has any,
+ * so plans do not change across a restart. Version 1 and 2 snapshots,
+ * from before views and statistics were kept, still load.
+ */
+public class Snapshot {
+
+    static final String FILE_SUFFIX = ".cosql";
+
+    private static final int MAGIC = 0x436F5351; // "CoSQ"
+    private static final int VERSION = 3;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /* what a section holds, from version 2 on */
+    private static final int KIND_TABLE = 0;
+    private static final int KIND_VIEW = 1;
+
+    public static File fileFor(File directory, String databaseName) {
+        return new File(directory, databaseName + FILE_SUFFIX);
+    }
+
+    /**
+     * Writes the database to its file under the given directory. The
+     * snapshot goes to a temporary file first, so a crash half way keeps
+     * the previous one intact.
+     */
+    public static void save(Database database, File directory) throws IOException {
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create snapshot directory " + directory);
+        }
+
+        File target = fileFor(directory, database.name);
+        File temp = new File(directory, database.name + FILE_SUFFIX + ".tmp");
+
+        ArrayList<Table> tables = tablesInOrder(database);
+
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            Writer out = new Writer(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putString(database.name);
+            out.putInt(tables.size());
+
+            for (Table table : tables) {
+                long start = out.position();
+                out.putLong(0); // section length, patched below
+                writeTable(out, table);
+                out.flush();
+
+                ByteBuffer length = ByteBuffer.allocate(8);
+                length.putLong(out.position() - start - 8).flip();
+                channel.write(length, start);
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a database back from a snapshot file, rebuilding its tables,
+     * key references and indexes.
+     */
+    public static Database load(File file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            long fileSize = channel.size();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, 1 << 16));
+
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = header.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+
+            Database database = new Database(getString(header));
+            int tableCount = header.getInt();
+
+            long position = header.position();
+            for (int t = 0; t < tableCount; t++) {
+
+                ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+                channel.read(lengthBuffer, position);
+                lengthBuffer.flip();
+                long length = lengthBuffer.getLong();
+
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Table section too large to map in " + file);
+                }
+
+                MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, position + 8, length);
+                database.addTable(readTable(section, database, version));
+
+                position += 8 + length;
+            }
+
+            return database;
+        }
+    }
+
+    /* base tables, every table after the ones its foreign keys refer to, then views after the tables they were made from */
+    private static ArrayList<Table> tablesInOrder(Database database) {
+        LinkedHashSet<Table> ordered = new LinkedHashSet<>();
+        for (Table table : database.tables.values()) {
+            addInOrder(table, database, ordered);
+        }
+        for (Table table : database.tables.values()) {
+            if (table instanceof View) {
+                addViewInOrder((View) table, database, ordered, new HashSet<View>());
+            }
+        }
+        return new ArrayList<>(ordered);
+    }
+
+    private static void addInOrder(Table table, Database database, LinkedHashSet<Table> ordered) {
+        if (ordered.contains(table) || table instanceof View || database.getTable(table.tableName) != table) {
+            return;
+        }
+        for (Table reference : table.tableReference) {
+            addInOrder(reference, database, ordered);
+        }
+        ordered.add(table);
+    }
+
+    /* whether the view went in, it does not if a table it was made from is not in the snapshot */
+    private static boolean addViewInOrder(View view, Database database, LinkedHashSet<Table> ordered, HashSet<View> visiting) {
+        if (ordered.contains(view)) {
+            return true;
+        }
+        if (database.getTable(view.tableName) != view || !visiting.add(view)) {
+            return false;
+        }
+        for (Table original : view.originalTables) {
+            boolean in = original instanceof View ?
+                    addViewInOrder((View) original, database, ordered, visiting) : ordered.contains(original);
+            if (!in) {
+                return false;
+            }
+        }
+        ordered.add(view);
+        return true;
+    }
+
+    private static void writeTable(Writer out, Table table) throws IOException {
+
+        out.putByte(table instanceof View ? KIND_VIEW : KIND_TABLE);
+        out.putString(table.tableName);
+        out.putByte(table.storageMode.ordinal());
+
+        // schema
+        out.putInt(table.columns.size());
+        for (Column column : table.columns) {
+            out.putString(column.name);
+            out.putByte(column.type.ordinal());
+        }
+
+        out.putInt(table.pk == null ? -1 : table.getColumnIndex(table.pk));
+
+        out.putInt(table.FKcolumns.size());
+        for (int i = 0; i < table.FKcolumns.size(); i++) {
+            out.putInt(table.getColumnIndex(table.FKcolumns.get(i)));
+            out.putString(table.tableReference.get(i).tableName);
+            out.putString(table.onDelete.get(i));
+            out.putString(table.onUpdate.get(i));
+        }
+
+        if (table.indexes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(table.indexes.size());
+            for (Index index : table.indexes.values()) {
+                out.putString(index.name);
+                out.putInt(table.getColumnIndex(index.column));
+            }
+        }
+
+        // contents, column by column
+        int rowCount = table.getRowCount();
+        out.putInt(rowCount);
+
+        for (int c = 0; c < table.columns.size(); c++) {
+
+            if (table.columns.get(c).type == Table.ColumnType.INT) {
+
+                BitSet nulls = new BitSet(rowCount);
+                for (int r = 0; r < rowCount; r++) {
+                    if (!(table.getValueAt(r, c) instanceof Long))
+                        nulls.set(r);
+                }
+
+                long[] words = nulls.toLongArray();
+                out.putInt(words.length);
+                for (long word : words) {
+                    out.putLong(word);
+                }
+
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = table.getValueAt(r, c);
+                    out.putLong(value instanceof Long ? (Long) value : 0);
+                }
+
+            } else {
+
+                for (int r = 0; r < rowCount; r++) {
+                    Object value = table.getValueAt(r, c);
+                    out.putString(value == null ? null : value.toString());
+                }
+            }
+        }
+
+        if (table instanceof View) {
+            View view = (View) table;
+            out.putByte(view.isPazira ? 1 : 0);
+            out.putInt(view.originalTables.size());
+            for (Table original : view.originalTables) {
+                out.putString(original.tableName);
+            }
+        }
+
+        writeStatistics(out, table);
+    }
+
+    private static void writeStatistics(Writer out, Table table) throws IOException {
+
+        if (table.statistics == null) {
+            out.putInt(-1);
+            return;
+        }
+
+        out.putInt(table.statistics.size());
+        for (int c = 0; c < table.columns.size(); c++) {
+
+            ColumnStatistics statistics = table.statistics.get(table.columns.get(c));
+            if (statistics == null) {
+                continue;
+            }
+
+            out.putInt(c);
+            out.putInt(statistics.rowCount);
+            out.putInt(statistics.nullCount);
+            out.putInt(statistics.distinctCount);
+            out.putInt(statistics.bounds.length);
+            for (Object bound : statistics.bounds) {
+                if (bound instanceof Long) {
+                    out.putLong((Long) bound);
+                } else {
+                    out.putString((String) bound);
+                }
+            }
+        }
+    }
+
+    private static Table readTable(ByteBuffer in, Database database, int version) throws IOException {
+
+        boolean view = version >= 2 && in.get() == KIND_VIEW;
+        String name = getString(in);
+        Table.StorageMode storageMode = Table.StorageMode.values()[in.get()];
+        Table table = view ? new View(name) : new Table(name, storageMode);
+
+        int columnCount = in.getInt();
+        for (int c = 0; c < columnCount; c++) {
+            String columnName = getString(in);
+            table.addColumn(columnName, Table.ColumnType.values()[in.get()]);
+        }
+
+        int pk = in.getInt();
+        if (pk != -1) {
+            table.pk = table.getColumnAt(pk);
+            table.PKcolumns.add(table.pk);
+        }
+
+        int fkCount = in.getInt();
+        for (int i = 0; i < fkCount; i++) {
+            Column fk = table.getColumnAt(in.getInt());
+            Table target = database.getTable(getString(in));
+            if (target == null) {
+                throw new IOException("Table " + name + " refers to a table missing from the snapshot");
+            }
+
+            table.fk = fk;
+            table.FKcolumns.add(fk);
+            table.tableReference.add(target);
+            target.listener.add(table);
+            table.onDelete.add(getString(in));
+            table.onUpdate.add(getString(in));
+        }
+
+        int indexCount = in.getInt();
+        ArrayList<Index> indexes = new ArrayList<>();
+        for (int i = 0; i < indexCount; i++) {
+            String indexName = getString(in);
+            indexes.add(new Index(indexName, table.getColumnAt(in.getInt())));
+        }
+
+        // contents come column major, gather them before building rows
+        int rowCount = in.getInt();
+        Object[][] cells = new Object[columnCount][];
+
+        for (int c = 0; c < columnCount; c++) {
+
+            Object[] values = new Object[rowCount];
+
+            if (table.getColumnAt(c).type == Table.ColumnType.INT) {
+
+                long[] words = new long[in.getInt()];
+                for (int w = 0; w < words.length; w++) {
+                    words[w] = in.getLong();
+                }
+                BitSet nulls = BitSet.valueOf(words);
+
+                for (int r = 0; r < rowCount; r++) {
+                    long value = in.getLong();
+                    values[r] = nulls.get(r) ? ColumnarStorage.NULL : (Object) value;
+                }
+
+            } else {
+
+                for (int r = 0; r < rowCount; r++) {
+                    values[r] = getString(in);
+                }
+            }
+
+            cells[c] = values;
+        }
+
+        for (int r = 0; r < rowCount; r++) {
+            ArrayList<Object> row = new ArrayList<>(columnCount);
+            for (int c = 0; c < columnCount; c++) {
+                row.add(cells[c][r]);
+                cells[c][r] = null;
+            }
+            table.storage.add(row);
+        }
+
+        // indexes last, once the rows and their ids are in place
+        if (indexCount != -1) {
+            table.initIndex();
+            for (Index index : indexes) {
+                table.addIndex(index);
+                for (Table.Row row : table.getRows()) {
+                    table.indexRow(row, index);
+                }
+            }
+        }
+
+        if (view) {
+            ((View) table).isPazira = in.get() == 1;
+            int originalCount = in.getInt();
+            for (int i = 0; i < originalCount; i++) {
+                Table original = database.getTable(getString(in));
+                if (original == null) {
+                    throw new IOException("View " + name + " is made from a table missing from the snapshot");
+                }
+                ((View) table).originalTables.add(original);
+            }
+        }
+
+        if (version >= 3) {
+            readStatistics(in, table);
+        }
+
+        return table;
+    }
+
+    private static void readStatistics(ByteBuffer in, Table table) {
+
+        int count = in.getInt();
+        if (count == -1) {
+            return;
+        }
+
+        table.statistics = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+
+            Column column = table.getColumnAt(in.getInt());
+            int rowCount = in.getInt();
+            int nullCount = in.getInt();
+            int distinctCount = in.getInt();
+
+            Object[] bounds = new Object[in.getInt()];
+            for (int k = 0; k < bounds.length; k++) {
+                bounds[k] = column.type == Table.ColumnType.INT ? (Object) in.getLong() : getString(in);
+            }
+
+            table.statistics.put(column, new ColumnStatistics(rowCount, nullCount, distinctCount, bounds));
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == -1) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffered writes to a channel, keeping track of the absolute file
+     * position.
+     */
+    private static class Writer {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private long written;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return written + buffer.position();
+        }
+
+        void putByte(int value) throws IOException {
+            ensure(1);
+            buffer.put((byte) value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+
+            if (bytes.length > buffer.capacity()) {
+                // too big to buffer, goes straight to the channel
+                flush();
+                ByteBuffer big = ByteBuffer.wrap(bytes);
+                while (big.hasRemaining()) {
+                    written += channel.write(big);
+                }
+                return;
+            }
+
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    // no instances
+    private Snapshot() {
+    }
+}
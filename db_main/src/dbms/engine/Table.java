@@ -3,6 +3,7 @@ package dbms.engine;
 import com.sun.rowset.internal.Row;
 import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryParseError;
+import dbms.util.RoaringBitmap;
 import dbms.util.StringUtils;
 
 import java.io.Serializable;
@@ -15,6 +16,10 @@ public class Table implements Serializable {
         INT, VARCHAR
     }
 
+    public enum StorageMode {
+        ROW, COLUMNAR, PAGED
+    }
+
     public static class Column {
 
         String name;
@@ -78,41 +83,24 @@ public class Table implements Serializable {
         String name;
         Column column;
 
-        TreeMap<Object, HashSet<Row>> index;
+        /* posting of every key is the set of row ids holding it */
+        BPlusTree<RoaringBitmap> index;
 
         public Index(String name, Column column) {
 
             this.name = name;
             this.column = column;
 
-            if (column.type == ColumnType.INT) {
-
-                this.index = new TreeMap<Object, HashSet<Row>>(new Comparator<Object>() {
-                    @Override
-                    public int compare(Object o1, Object o2) {
-                        return Long.compare((Long)o1, (Long)o2);
-                    }
-                });
-
-            } else if (column.type == ColumnType.VARCHAR) {
-
-                this.index = new TreeMap<Object, HashSet<Row>>(new Comparator<Object>() {
-                    @Override
-                    public int compare(Object o1, Object o2) {
-                        if (o1 == o2) {
-                            return 0;
-                        }
-                        if (o1 == null) {
-                            return -1;
-                        }
-                        return ((String)o1).compareTo((String) o2);
-                    }
-                });
-
+            if (column.type == ColumnType.INT || column.type == ColumnType.VARCHAR) {
+                this.index = BPlusTree.forType(column.type);
             } else {
                 System.err.println("Bad column type in Index constructor");
             }
         }
+
+        public String getName() {
+            return name;
+        }
     }
 
     /* primary and foreign key index*/
@@ -143,26 +131,43 @@ public class Table implements Serializable {
     ArrayList<String> onDelete = new ArrayList<>();
 
     /* table contents */
-    ArrayList<Row> contents;
+    StorageMode storageMode;
+    TableStorage storage;
 
     /* indexes */
     HashMap<Column, Index> indexes;
 
+    /* column statistics as of the last ANALYZE, null before the first */
+    HashMap<Column, ColumnStatistics> statistics;
+
     /* VIEW STUFF */
   //  boolean isPazira = true;
     boolean isView = false;
 
     /* default constructor */
     public Table(String name) {
+        this(name, StorageMode.ROW);
+    }
+
+    public Table(String name, StorageMode storageMode) {
         this.tableName = name;
         this.columns = new ArrayList<>();
-        this.contents = new ArrayList<>();
+        this.storageMode = storageMode;
+
+        if (storageMode == StorageMode.COLUMNAR) {
+            this.storage = new ColumnarStorage(columns);
+        } else if (storageMode == StorageMode.PAGED) {
+            this.storage = new PagedStorage(columns, name);
+        } else {
+            this.storage = new RowStorage(new ArrayList<Row>());
+        }
     }
 
     public Table(String tableName, ArrayList<Column> columns, ArrayList<Row> contents) {
         this.tableName = tableName;
         this.columns = columns;
-        this.contents = contents;
+        this.storageMode = StorageMode.ROW;
+        this.storage = new RowStorage(contents);
     }
 
     public void setTableName(String tableName) {
@@ -210,7 +215,11 @@ public class Table implements Serializable {
     }
 
     public ArrayList<Row> getContents() {
-        return contents;
+        return storage.asList();
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
     }
 
     public int getColumnIndex(String colName) throws CoSQLError {
@@ -243,8 +252,7 @@ public class Table implements Serializable {
 //            return;
 //
 //        } else {
-        Row newRow = new Row(args);
-        this.contents.add(newRow);
+        Row newRow = storage.add(args);
 
         if (indexes != null) {
             for (Index index : indexes.values()) {
@@ -254,6 +262,49 @@ public class Table implements Serializable {
 
     }
 
+    /* appends the rows in one go, then loads their keys into every index */
+    public void insertRows(List<ArrayList<Object>> rows) {
+
+        RoaringBitmap ids = new RoaringBitmap();
+        for (ArrayList<Object> row : rows) {
+            ids.add(storage.add(row).getId());
+        }
+
+        indexRows(ids);
+    }
+
+    /* adds the given rows to every index, a pass over the rows per index */
+    void indexRows(RoaringBitmap ids) {
+
+        if (indexes == null || ids.isEmpty()) {
+            return;
+        }
+
+        for (Index index : indexes.values()) {
+            int pos = getColumnIndex(index.column);
+
+            // runs of equal keys share one lookup in the tree
+            Object lastValue = null;
+            RoaringBitmap lastPosting = null;
+
+            RoaringBitmap.IntIterator it = ids.intIterator();
+            while (it.hasNext()) {
+                int id = it.next();
+                Object value = storage.getById(id).getValueAt(pos);
+
+                if (lastPosting == null || !Objects.equals(value, lastValue)) {
+                    lastPosting = index.index.get(value);
+                    if (lastPosting == null) {
+                        lastPosting = new RoaringBitmap();
+                        index.index.put(value, lastPosting);
+                    }
+                    lastValue = value;
+                }
+                lastPosting.add(id);
+            }
+        }
+    }
+
     void indexRow(Row row, Index index) {
 
         // get index's column position
@@ -263,80 +314,126 @@ public class Table implements Serializable {
         // get value
         Object value = row.getValueAt(pos);
 
-        // get index list or create
-        HashSet<Row> indexRowsOnValue = index.index.get(value);
+        // get index posting or create
+        RoaringBitmap indexRowsOnValue = index.index.get(value);
         if (indexRowsOnValue == null) {
-            indexRowsOnValue = new HashSet<>();
+            indexRowsOnValue = new RoaringBitmap();
             index.index.put(value, indexRowsOnValue);
         }
 
-        indexRowsOnValue.add(row);
+        indexRowsOnValue.add(row.getId());
 
     }
 
     public Iterable<Row> getRows() {
-        return contents;
+        return storage.rows();
     }
 
     public int getRowCount() {
-        return contents.size();
+        return storage.size();
     }
 
     public Row getRowAt(int i) {
-        return contents.get(i);
+        return storage.get(i);
+    }
+
+    public Row getRowById(int id) {
+        return storage.getById(id);
+    }
+
+    /* ids of every row */
+    public RoaringBitmap getRowIds() {
+        RoaringBitmap res = new RoaringBitmap();
+        for (Row row : storage.rows()) {
+            res.add(row.getId());
+        }
+        return res;
+    }
+
+    /* rows of the given ids, in id (insertion) order */
+    public ArrayList<Row> getRowsById(RoaringBitmap ids) {
+        ArrayList<Row> res = new ArrayList<>(ids.cardinality());
+        RoaringBitmap.IntIterator it = ids.intIterator();
+        while (it.hasNext()) {
+            Row row = storage.getById(it.next());
+            if (row != null)
+                res.add(row);
+        }
+        return res;
+    }
+
+    public Object getValueAt(int rowIndex, int colIndex) {
+        return storage.getValue(rowIndex, colIndex);
     }
 
     public int getRowIndex(Row row) {
-        return contents.indexOf(row);
+        return storage.indexOf(row);
     }
 
     public void removeRow(Row row) {
-        this.contents.remove(row);
+        storage.remove(row);
     }
 
     public void addColumn(String name, ColumnType type) {
-        columns.add(new Column(name, type));
+        addColumn(new Column(name, type));
     }
 
     public void addColumn(Column c) {
         columns.add(c);
+        storage.columnAdded();
     }
 
     public void addAllColumns(Collection<Column> cols) {
         for (Column c: cols)
-            columns.add(c);
+            addColumn(c);
     }
 
     public void addIndex(Index index) {
         indexes.put(index.column, index);
     }
 
-    public void updateIndexAt(int colIndex, int rowIndex, Object oldValue) {
+    /* re-files the row under its new value of the column, after an update */
+    public void updateIndex(Row row, int colIndex, Object oldValue) {
+
+        if (indexes == null) {
+            return;
+        }
 
         Column column = getColumnAt(colIndex);
-        Row row = getRowAt(rowIndex);
-        Object newValue = row.getValueAt(colIndex);
 
         Index idx = indexes.get(column);
 
         if (idx == null) {
             return;
         }
-        HashSet<Row> vals = idx.index.get(oldValue);
-        idx.index.remove(oldValue);
-        idx.index.put(newValue, vals);
+
+        // move only this row's id from the old key to the new one
+        RoaringBitmap vals = idx.index.get(oldValue);
+        if (vals != null) {
+            vals.remove(row.getId());
+            if (vals.isEmpty()) {
+                idx.index.remove(oldValue);
+            }
+        }
+        indexRow(row, idx);
     }
 
 
     public void updateIndexForDelete(Row row) {
 
-        //Index idx = indexes.get(getColumnAt(colIndex));
+        if (indexes == null) {
+            return;
+        }
+
         for (Index idx : indexes.values()) {
 
             int colIndex = getColumnIndex(idx.column);
 
-            HashSet<Row> set = idx.index.get(row.getValueAt(colIndex));
-            set.remove(row);
+            RoaringBitmap set = idx.index.get(row.getValueAt(colIndex));
+            if (set == null) {
+                continue;
+            }
+            set.remove(row.getId());
 
             if (set.isEmpty()) {
                 idx.index.remove(row.getValueAt(colIndex));
@@ -354,10 +451,10 @@ public class Table implements Serializable {
                 result.append(",");
             }
         }
-        for (Row row : contents) {
+        for (Row row : getRows()) {
             result.append("\n").append(row);
         }
-        if (contents.size() == 0)
+        if (getRowCount() == 0)
             result = new StringBuilder("NO RESULTS");
         return result.toString();
     }
@@ -372,10 +469,39 @@ public class Table implements Serializable {
         return -1;
     }
 
+    public Index getIndex(Column column) {
+        return indexes != null ? indexes.get(column) : null;
+    }
+
+    public ColumnStatistics getStatistics(Column column) {
+        return statistics != null ? statistics.get(column) : null;
+    }
+
+    /* collects statistics of every column, replacing the previous ones */
+    public void analyze() {
+        HashMap<Column, ColumnStatistics> res = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            res.put(columns.get(i), ColumnStatistics.collect(this, i));
+        }
+        statistics = res;
+    }
+
+    /* whether some row holds the given primary key */
+    public boolean containsPK(Object value) {
+        return exists(value, getColumnIndex(pk));
+    }
+
     public boolean exists(Object value, int column) {
 
-        for (Row r : contents) {
-            if (r.getValueAt(column).equals(value))
+        // probe the column's index (PK, FK or user made) when there is one
+        Index idx = getIndex(getColumnAt(column));
+        if (idx != null) {
+            RoaringBitmap ids = idx.index.get(value);
+            return ids != null && !ids.isEmpty();
+        }
+
+        for (int i = 0; i < storage.size(); i++) {
+            if (storage.getValue(i, column).equals(value))
                 return true;
         }
         return false;
@@ -385,6 +511,9 @@ public class Table implements Serializable {
 
         ArrayList<Object> values;
 
+        /* stable id within the owning table, -1 until stored */
+        int id = -1;
+
         public Row(ArrayList<Object> values) {
             this.values = values;
         }
@@ -393,9 +522,12 @@ public class Table implements Serializable {
             return values;
         }
 
+        public int getId() {
+            return id;
+        }
+
         public void updateValueAt(int i, Object obj) {
-            values.remove(i);
-            values.add(i, obj);
+            values.set(i, obj);
         }
 
         public Object getValueAt(int index) {
@@ -405,22 +537,26 @@ public class Table implements Serializable {
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+            if (!(o instanceof Row)) return false;
 
-            Row row = (Row) o;
+            // go through getValues() so rows of any storage compare alike
+            ArrayList<Object> values = getValues();
+            ArrayList<Object> other = ((Row) o).getValues();
 
-            if (values != null ? !values.equals(row.values) : row.values != null) return false;
+            if (values != null ? !values.equals(other) : other != null) return false;
 
             return true;
         }
 
         @Override
         public int hashCode() {
+            ArrayList<Object> values = getValues();
             return values != null ? values.hashCode() : 0;
         }
 
         @Override
         public String toString() {
+            ArrayList<Object> values = getValues();
             StringBuilder result = new StringBuilder();
             for (int i = 0; i < values.size(); i++) {
                 result.append(values.get(i));
@@ -451,11 +587,8 @@ public class Table implements Serializable {
         return res;
     }
 
-    public Table cartesianProduct (Table other) {
-        /* queryColNames are the columns in query should be saved by their table name */
-        Table result = new Table("cartesTable");
-        // TODO error if queryColNames.size > 2
-
+    /* columns of this table followed by other's, named by their table like "t.col" */
+    ArrayList<Column> joinedColumns(Table other) {
         ArrayList<Column> resCol = new ArrayList<>();
         for (Column c : this.columns) {
             String fullColName = this.tableName + "." + c.getName();
@@ -466,15 +599,22 @@ public class Table implements Serializable {
             String fullColName = other.tableName + "." + c.getName();
             resCol.add(new Column(fullColName, c.type));
         }
-        result.addAllColumns(resCol);
+        return resCol;
+    }
 
-        for (Row r : this.contents) {
-            for (Row r2 : other.contents) {
+    public Table cartesianProduct (Table other) {
+        /* queryColNames are the columns in query should be saved by their table name */
+        Table result = new Table("cartesTable");
+        // TODO error if queryColNames.size > 2
+
+        result.addAllColumns(joinedColumns(other));
+
+        for (Row r : this.getRows()) {
+            for (Row r2 : other.getRows()) {
                 ArrayList<Object> vals = new ArrayList<>();
                 vals.addAll(r.getValues());
                 vals.addAll(r2.getValues());
-                Row newRow = new Row(vals);
-                result.contents.add(newRow);
+                result.storage.add(vals);
             }
         }
         return result;
@@ -485,35 +625,25 @@ public class Table implements Serializable {
         Table result = new Table("joinTable");
         // TODO error if queryColNames.size > 2
 
-        ArrayList<Column> resCol = new ArrayList<>();
-        for (Column c : this.columns) {
-            String fullColName = this.tableName + "." + c.getName();
-            resCol.add(new Column(fullColName, c.type));
-        }
-        for (Column c : other.columns) {
-            String fullColName = other.tableName + "." + c.getName();
-            resCol.add(new Column(fullColName, c.type));
-        }
-        result.addAllColumns(resCol);
+        result.addAllColumns(joinedColumns(other));
         int fkIndex = this.getColumnIndex(FKcolumns.get(tableReference.indexOf(other)));
-        for (Row r : contents) {
+        for (Row r : getRows()) {
             ArrayList<Object> vals = new ArrayList<>();
             vals.addAll(r.getValues());
             Object key = r.getValueAt(fkIndex);
             Column fafaf = getPKcolumn();
             Index idx = other.indexes.get(fafaf);
-            HashSet<Table.Row> indexedResult = idx.index.get(key);
-            ArrayList<Table.Row> resultRows = new ArrayList<>();
+            RoaringBitmap indexedResult = idx.index.get(key);
+            ArrayList<Table.Row> resultRows;
             if (indexedResult == null)
                 continue; // mapping does not exist
             else
-                resultRows.addAll(indexedResult);
+                resultRows = other.getRowsById(indexedResult);
             // TODO error if resRows.size > 1 (every fk map to one pk)
             Row mappedRow = resultRows.get(0);
             vals.addAll(mappedRow.getValues());
             // TODO error if vals.size != this.colCount + other.colCount (pk)
-            Row newRow = new Row(vals);
-            result.contents.add(newRow);
+            result.storage.add(vals);
         }
         return result;
     }
@@ -0,0 +1,43 @@
+package dbms.engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import static dbms.engine.Table.Row;
+
+/**
+ * Physical layout of a table's rows. {@link Table} only reaches its
+ * rows through this class, so the row, columnar and paged layouts can be
+ * swapped without touching the query code.
+ */
+abstract class TableStorage implements Serializable {
+
+    /* number of live rows */
+    abstract int size();
+
+    /* row at the given position (0 .. size-1), in insertion order */
+    abstract Row get(int position);
+
+    /* row with the given id, null if it was removed */
+    abstract Row getById(int id);
+
+    /* value of one cell, without materializing the row */
+    abstract Object getValue(int position, int column);
+
+    /* appends a row built from the given values and returns it, with its id set */
+    abstract Row add(ArrayList<Object> values);
+
+    abstract void remove(Row row);
+
+    abstract int indexOf(Row row);
+
+    /* rows as a list; may be a snapshot, callers must not rely on write-through */
+    abstract ArrayList<Row> asList();
+
+    abstract Iterable<Row> rows();
+
+    /* a column was appended to the schema, which rows already stored read as NULL */
+    void columnAdded() {
+    }
+
+}
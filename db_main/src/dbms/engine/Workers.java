@@ -0,0 +1,53 @@
+package dbms.engine;
+
+import dbms.DatabaseBible;
+import dbms.exceptions.CoSQLError;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork/join pool parallel query execution runs on, shared by every
+ * query and sized by {@link DatabaseBible#PARALLELISM} (a new pool is made
+ * when that changes).
+ *
+ * Work is split into morsels of consecutive rows, each small enough to
+ * keep every worker busy and large enough that handing it out costs
+ * little against processing it.
+ */
+class Workers {
+
+    static final int MORSEL_SIZE = 16 * Batch.CAPACITY;
+
+    private static ForkJoinPool pool;
+
+    static synchronized ForkJoinPool pool() {
+        if (pool == null || pool.getParallelism() != DatabaseBible.PARALLELISM) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = new ForkJoinPool(DatabaseBible.PARALLELISM);
+        }
+        return pool;
+    }
+
+    /* whether a table of this many rows is worth splitting up */
+    static boolean worthSplitting(int rows) {
+        return DatabaseBible.PARALLELISM > 1 && rows >= 2 * MORSEL_SIZE;
+    }
+
+    /* how many morsels a table of this many rows is split into, halving it until they are small enough */
+    static int morselCount(int rows) {
+        if (rows <= MORSEL_SIZE) {
+            return 1;
+        }
+        return morselCount(rows / 2) + morselCount(rows - rows / 2);
+    }
+
+    /* carries a query error out of a worker */
+    static class Failure extends RuntimeException {
+
+        Failure(CoSQLError cause) {
+            super(cause);
+        }
+    }
+}
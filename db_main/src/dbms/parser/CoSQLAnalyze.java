@@ -0,0 +1,22 @@
+package dbms.parser;
+
+import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLQueryExecutionError;
+
+/**
+ * ANALYZE, collects the column statistics the select path costs access
+ * paths with.
+ */
+public class CoSQLAnalyze extends CoSQLCommand {
+
+    String tableName;
+
+    public CoSQLAnalyze(String tableName) {
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void execute() throws CoSQLQueryExecutionError {
+        DatabaseCore.analyze(tableName);
+    }
+}
@@ -1,12 +1,40 @@
 package dbms.parser;
 
+import dbms.engine.Metrics;
 import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryExecutionError;
 
+import java.util.List;
+
 /**
  * Created by blackvvine on 10/13/15.
  */
 public abstract class CoSQLCommand {
 
     public abstract void execute() throws CoSQLQueryExecutionError, CoSQLError;
+
+    /* runs it with the '?' of a prepared statement bound to the values, in order */
+    public void execute(List<LexicalToken> parameters) throws CoSQLError {
+        execute();
+    }
+
+    /* executes it, bound to the parameters unless null, its time or failure counted into the metrics of its kind */
+    public final void run(List<LexicalToken> parameters) throws CoSQLError {
+
+        Metrics.Statement metrics = Metrics.statement(getClass());
+        long start = System.nanoTime();
+
+        try {
+            if (parameters == null) {
+                execute();
+            } else {
+                execute(parameters);
+            }
+        } catch (CoSQLError e) {
+            metrics.failed();
+            throw e;
+        }
+
+        metrics.executed(System.nanoTime() - start);
+    }
 }
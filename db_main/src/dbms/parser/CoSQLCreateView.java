@@ -16,20 +16,22 @@ public class CoSQLCreateView extends CoSQLCommand {
     String rawTupleCondition;
     int type;
     GroupByData groupBy;
+    long limit;
     String name;
 
     public CoSQLCreateView(String name ,ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition,
-                           int type, GroupByData groupBy) {
+                           int type, GroupByData groupBy, long limit) {
         this.name = name;
         this.tableNames = tableNames;
         this.selectValues = selectValues;
         this.rawTupleCondition = rawTupleCondition;
         this.type = type;
         this.groupBy = groupBy;
+        this.limit = limit;
     }
 
     @Override
     public void execute() throws CoSQLQueryExecutionError, CoSQLError {
-        DatabaseCore.createView(name , tableNames , selectValues , rawTupleCondition , type  , groupBy);
+        DatabaseCore.createView(name , tableNames , selectValues , rawTupleCondition , type  , groupBy, limit);
     }
 }
@@ -2,9 +2,13 @@ package dbms.parser;
 
 import dbms.engine.DatabaseCore;
 import dbms.engine.Table;
+import dbms.engine.View;
+import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryExecutionError;
+import dbms.exceptions.CoSQLQueryParseError;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by rajabzz on 11/13/15.
@@ -13,14 +17,29 @@ public class CoSQLDelete extends CoSQLCommand {
 
     String tableName;
     String condition;
+    private final PreparedQuery.Condition where;
 
     public CoSQLDelete(String tableName, String condition) {
         this.tableName = tableName;
         this.condition = condition;
+        this.where = new PreparedQuery.Condition(condition);
     }
 
     @Override
-    public void execute() throws CoSQLQueryExecutionError {
+    public void execute() throws CoSQLQueryExecutionError, CoSQLQueryParseError {
         DatabaseCore.delete(tableName, condition);
     }
+
+    @Override
+    public void execute(List<LexicalToken> parameters) throws CoSQLError {
+        Table table = DatabaseCore.getTable(tableName);
+
+        // a view hands the condition on to its base tables as text
+        if (table instanceof View) {
+            DatabaseCore.delete(tableName, PreparedQuery.bind(condition, parameters));
+            return;
+        }
+
+        DatabaseCore.deleteItems(tableName, DatabaseCore.filter(table, where.bind(table, parameters)), false);
+    }
 }
@@ -0,0 +1,34 @@
+package dbms.parser;
+
+import dbms.exceptions.CoSQLError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static dbms.util.LanguageUtils.throwExecError;
+
+/**
+ * EXECUTE name(values), runs a statement made by PREPARE with its
+ * parameters bound to the values.
+ */
+public class CoSQLExecute extends CoSQLCommand {
+
+    String name;
+    ArrayList<LexicalToken> values;
+    HashMap<String, PreparedQuery> prepared;
+
+    public CoSQLExecute(String name, ArrayList<LexicalToken> values, HashMap<String, PreparedQuery> prepared) {
+        this.name = name;
+        this.values = values;
+        this.prepared = prepared;
+    }
+
+    @Override
+    public void execute() throws CoSQLError {
+        PreparedQuery query = prepared.get(name);
+        if (query == null) {
+            throwExecError("No prepared statement with name '%s'", name);
+        }
+        query.execute(values);
+    }
+}
@@ -0,0 +1,23 @@
+package dbms.parser;
+
+import dbms.exceptions.CoSQLError;
+
+/**
+ * EXPLAIN [ANALYZE] SELECT ..., prints how the SELECT is run instead of
+ * its result (see {@link dbms.engine.Explain}).
+ */
+public class CoSQLExplain extends CoSQLCommand {
+
+    CoSQLSelect select;
+    boolean analyze;
+
+    public CoSQLExplain(CoSQLSelect select, boolean analyze) {
+        this.select = select;
+        this.analyze = analyze;
+    }
+
+    @Override
+    public void execute() throws CoSQLError {
+        select.explain(analyze);
+    }
+}
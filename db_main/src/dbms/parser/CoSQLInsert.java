@@ -1,8 +1,10 @@
 package dbms.parser;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryExecutionError;
 
 /**
@@ -11,15 +13,32 @@ import dbms.exceptions.CoSQLQueryExecutionError;
 public class CoSQLInsert extends CoSQLCommand {
 
     String table;
-    ArrayList<LexicalToken> values;
+    ArrayList<ArrayList<LexicalToken>> rows;
 
-    public CoSQLInsert(String table, ArrayList<LexicalToken> values) {
+    public CoSQLInsert(String table, ArrayList<ArrayList<LexicalToken>> rows) {
         this.table = table;
-        this.values = values;
+        this.rows = rows;
     }
 
     @Override
     public void execute() throws CoSQLQueryExecutionError {
-        DatabaseCore.insert(table, values);
+        if (rows.size() == 1) {
+            DatabaseCore.insert(table, rows.get(0));
+        } else {
+            DatabaseCore.insertBatch(table, rows);
+        }
+    }
+
+    @Override
+    public void execute(List<LexicalToken> parameters) throws CoSQLError {
+        if (rows.size() == 1) {
+            DatabaseCore.insert(table, PreparedQuery.bind(rows.get(0), parameters));
+        } else {
+            ArrayList<ArrayList<LexicalToken>> bound = new ArrayList<>(rows.size());
+            for (ArrayList<LexicalToken> row : rows) {
+                bound.add(PreparedQuery.bind(row, parameters));
+            }
+            DatabaseCore.insertBatch(table, bound);
+        }
     }
 }
@@ -0,0 +1,25 @@
+package dbms.parser;
+
+import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLQueryExecutionError;
+
+/**
+ * LOAD DATA 'file' INTO table [IGNORE n LINES]
+ */
+public class CoSQLLoadData extends CoSQLCommand {
+
+    String fileName;
+    String tableName;
+    int ignoreLines;
+
+    public CoSQLLoadData(String fileName, String tableName, int ignoreLines) {
+        this.fileName = fileName;
+        this.tableName = tableName;
+        this.ignoreLines = ignoreLines;
+    }
+
+    @Override
+    public void execute() throws CoSQLQueryExecutionError {
+        DatabaseCore.loadData(fileName, tableName, ignoreLines);
+    }
+}
@@ -0,0 +1,26 @@
+package dbms.parser;
+
+import java.util.HashMap;
+
+/**
+ * PREPARE name AS ..., keeps the parsed statement for EXECUTE, replacing
+ * any of the same name.
+ */
+public class CoSQLPrepare extends CoSQLCommand {
+
+    String name;
+    PreparedQuery query;
+    HashMap<String, PreparedQuery> prepared;
+
+    public CoSQLPrepare(String name, PreparedQuery query, HashMap<String, PreparedQuery> prepared) {
+        this.name = name;
+        this.query = query;
+        this.prepared = prepared;
+    }
+
+    @Override
+    public void execute() {
+        prepared.put(name, query);
+        System.out.println("STATEMENT PREPARED");
+    }
+}
@@ -0,0 +1,15 @@
+package dbms.parser;
+
+import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLQueryExecutionError;
+
+/**
+ * SAVE, writes a snapshot of every database.
+ */
+public class CoSQLSave extends CoSQLCommand {
+
+    @Override
+    public void execute() throws CoSQLQueryExecutionError {
+        DatabaseCore.save();
+    }
+}
@@ -1,10 +1,12 @@
 package dbms.parser;
 
 import dbms.engine.DatabaseCore;
+import dbms.engine.ResultSink;
 import dbms.engine.Table;
 import dbms.exceptions.CoSQLError;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by rajabzz on 11/13/15.
@@ -16,6 +18,8 @@ public class CoSQLSelect extends CoSQLCommand{
     String rawTupleCondition;
     int type;
     GroupByData groupBy;
+    long limit = -1;
+    private PreparedQuery.Condition where;
 
     public CoSQLSelect(ArrayList<String> tableName, ArrayList<SelectValue> selectValues, String rawTupleCondition, int type) {
         this.tableNames = tableName;
@@ -32,10 +36,38 @@ public class CoSQLSelect extends CoSQLCommand{
         this.groupBy = groupBy;
     }
 
+    public CoSQLSelect(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String rawTupleCondition, int type,
+                       GroupByData groupBy, long limit) {
+        this(tableNames, selectValues, rawTupleCondition, type, groupBy);
+        this.limit = limit;
+    }
+
+    @Override
+    public void execute(List<LexicalToken> parameters) throws CoSQLError {
+
+        // a join or product is a new table every time, its condition is parsed along with it
+        if (tableNames.size() > 1) {
+            DatabaseCore.select(tableNames, selectValues, PreparedQuery.bind(rawTupleCondition, parameters), type, groupBy, limit,
+                    new ResultSink.Printer(System.out));
+            return;
+        }
+
+        if (where == null) {
+            where = new PreparedQuery.Condition(rawTupleCondition);
+        }
+        Table source = DatabaseCore.getTable(tableNames.get(0));
+        ResultSink.run(DatabaseCore.query(source, selectValues, where.bind(source, parameters), groupBy, limit),
+                new ResultSink.Printer(System.out));
+    }
+
     @Override
     public void execute() throws CoSQLError {
-        Table res = DatabaseCore.select(tableNames, selectValues, rawTupleCondition, type, groupBy);
-        System.out.println(res);
+        DatabaseCore.select(tableNames, selectValues, rawTupleCondition, type, groupBy, limit, new ResultSink.Printer(System.out));
+    }
+
+    /* prints its plan, run and measured if analyzing, instead of its result */
+    public void explain(boolean analyze) throws CoSQLError {
+        DatabaseCore.explain(tableNames, selectValues, rawTupleCondition, type, groupBy, limit, analyze);
     }
 
 }
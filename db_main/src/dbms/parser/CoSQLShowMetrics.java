@@ -0,0 +1,15 @@
+package dbms.parser;
+
+import dbms.engine.Metrics;
+
+/**
+ * SHOW METRICS, prints what the engine has done since it started, as
+ * its JMX beans tell it (see {@link Metrics}).
+ */
+public class CoSQLShowMetrics extends CoSQLCommand {
+
+    @Override
+    public void execute() {
+        System.out.print(Metrics.report());
+    }
+}
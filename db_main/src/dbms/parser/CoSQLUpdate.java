@@ -2,9 +2,11 @@ package dbms.parser;
 
 import dbms.engine.DatabaseCore;
 import dbms.engine.Table;
+import dbms.engine.View;
 import dbms.exceptions.CoSQLError;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by rajabzz on 11/13/15.
@@ -14,16 +16,47 @@ public class CoSQLUpdate extends CoSQLCommand {
     String colName;
     String rawComputeValue;
     String condition;
+    private final PreparedQuery.Condition where;
+
+    /* the new value compiled against the table it last ran on, if it has no parameters */
+    private Table valueTable;
+    private ValueComputer.ParsedTuple value;
 
     public CoSQLUpdate(String tableName, String colName, String rawComputeValue, String condition) {
         this.tableName = tableName;
         this.colName = colName;
         this.rawComputeValue = rawComputeValue;
         this.condition = condition;
+        this.where = new PreparedQuery.Condition(condition);
     }
 
     @Override
     public void execute() throws CoSQLError {
         DatabaseCore.update(tableName, colName, rawComputeValue, condition);
     }
+
+    @Override
+    public void execute(List<LexicalToken> parameters) throws CoSQLError {
+        Table table = DatabaseCore.getTable(tableName);
+
+        // a view hands the value and condition on to its base tables as text
+        if (table instanceof View) {
+            DatabaseCore.update(tableName, colName, PreparedQuery.bind(rawComputeValue, parameters),
+                    PreparedQuery.bind(condition, parameters));
+            return;
+        }
+
+        ValueComputer.ParsedTuple tuple;
+        if (PreparedQuery.hasParameters(rawComputeValue)) {
+            tuple = ValueComputer.computeFieldBased(PreparedQuery.bind(rawComputeValue, parameters), table);
+        } else {
+            if (table != valueTable) {
+                value = ValueComputer.computeFieldBased(rawComputeValue, table);
+                valueTable = table;
+            }
+            tuple = value;
+        }
+
+        DatabaseCore.updateItems(tableName, colName, tuple, DatabaseCore.filter(table, where.bind(table, parameters)), false);
+    }
 }
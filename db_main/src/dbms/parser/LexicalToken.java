@@ -1,19 +1,44 @@
 package dbms.parser;
 
+import dbms.util.StringUtils;
+
 /**
  * Created by blackvvine on 10/25/15.
+ *
+ * A token read off a query lies in the query text, its value is only cut
+ * out of it when asked for; keywords and numerals are compared and read
+ * in place.
  */
 public class LexicalToken {
 
+    /* null until asked for, for a token read off a query */
     String value;
     boolean literal;
+    private boolean numeral;
+
+    /* where a token read off a query lies in it */
+    private CharSequence source;
+    private int start;
+    private int end;
 
     public LexicalToken(String value, boolean literal) {
         this.value = value;
         this.literal = literal;
+        this.numeral = !literal && StringUtils.isNumeral(value);
+    }
+
+    public LexicalToken(CharSequence source, int start, int end, boolean literal, boolean numeral) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.literal = literal;
+        this.numeral = numeral;
     }
 
     public String getValue() {
+        if (value == null) {
+            value = source.subSequence(start, end).toString();
+        }
         return value;
     }
 
@@ -21,8 +46,71 @@ public class LexicalToken {
         return literal;
     }
 
+    /* a number, digits with an optional sign, not in quotes */
+    public boolean isNumeral() {
+        return numeral;
+    }
+
+    /* whether the value is the given text, ignoring case */
+    public boolean is(String text) {
+
+        if (value != null) {
+            return value.equalsIgnoreCase(text);
+        }
+
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char a = source.charAt(start + i);
+            char b = text.charAt(i);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* the value of a numeral; NumberFormatException if it does not fit a long */
+    public long longValue() {
+
+        if (value != null || !numeral) {
+            return Long.parseLong(getValue());
+        }
+
+        // digits only, read off the query; accumulated negatively so that the range is the same as parseLong's
+        long res = 0;
+        for (int i = start; i < end; i++) {
+            int digit = source.charAt(i) - '0';
+            if (res < (Long.MIN_VALUE + digit) / 10) {
+                throw new NumberFormatException(getValue());
+            }
+            res = res * 10 - digit;
+        }
+        if (res == Long.MIN_VALUE) {
+            throw new NumberFormatException(getValue());
+        }
+        return -res;
+    }
+
+    /* position among the '?' of a prepared statement, -1 if this is not one of them */
+    public int getParameterIndex() {
+        if (literal || length() < 2 || charAt(0) != '?') {
+            return -1;
+        }
+        return Integer.parseInt(getValue().substring(1));
+    }
+
+    private int length() {
+        return value != null ? value.length() : end - start;
+    }
+
+    private char charAt(int i) {
+        return value != null ? value.charAt(i) : source.charAt(start + i);
+    }
+
     @Override
     public String toString() {
-        return String.format("<%s %s>", value, literal ? "L" : "NL");
+        return String.format("<%s %s>", getValue(), literal ? "L" : "NL");
     }
 }
@@ -0,0 +1,177 @@
+package dbms.parser;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.CoSQLQueryParseError;
+import dbms.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static dbms.util.LanguageUtils.throwExecError;
+
+/**
+ * An INSERT, SELECT, UPDATE or DELETE parsed once, with a '?' wherever a
+ * value is to be given at execution: in a VALUES tuple, or as the whole
+ * value of a comparison in WHERE (or part of a SET value).
+ *
+ * Executing it binds the values into the parsed command, nothing is
+ * lexed or parsed again. A WHERE clause is compiled against its table on
+ * the first execution and only again if that table is replaced.
+ *
+ * Made by {@code PREPARE name AS ...;} and run by {@code EXECUTE name(...);},
+ * or by {@link QueryParser#prepare} and {@link #execute(Object...)}.
+ */
+public class PreparedQuery {
+
+    private final CoSQLCommand command;
+    private final int parameterCount;
+
+    /* whether it counts towards the next automatic checkpoint */
+    private final boolean modifies;
+
+    PreparedQuery(CoSQLCommand command, int parameterCount, boolean modifies) {
+        this.command = command;
+        this.parameterCount = parameterCount;
+        this.modifies = modifies;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    /* runs it with the parameters bound to the values, in order; a Number is an INT, null is NULL, anything else a VARCHAR */
+    public void execute(Object... values) throws CoSQLError {
+
+        List<LexicalToken> tokens = new ArrayList<>(values.length);
+        for (Object value : values) {
+            if (value == null) {
+                tokens.add(new LexicalToken("NULL", false));
+            } else if (value instanceof Number) {
+                tokens.add(new LexicalToken(String.valueOf(((Number) value).longValue()), false));
+            } else {
+                tokens.add(new LexicalToken(value.toString(), true));
+            }
+        }
+
+        execute(tokens);
+    }
+
+    /* runs it with the parameters bound to the value tokens, as an INSERT would take them */
+    public void execute(List<LexicalToken> values) throws CoSQLError {
+
+        if (values.size() != parameterCount) {
+            throwExecError("Expected %d parameters, found %d", parameterCount, values.size());
+        }
+
+        // not run(): the EXECUTE running it is what the metrics count, once
+        command.execute(values);
+
+        if (modifies) {
+            DatabaseCore.modified();
+        }
+    }
+
+    /* the value tokens as the constants a compared value computes to */
+    static Object[] constants(List<LexicalToken> values) throws CoSQLQueryParseError {
+
+        Object[] res = new Object[values.size()];
+        for (int i = 0; i < res.length; i++) {
+            LexicalToken token = values.get(i);
+            if (token.isLiteral() || token.getValue().equalsIgnoreCase("NULL")) {
+                res[i] = token.getValue();
+            } else {
+                res[i] = ValueComputer.computeConstant(token.getValue());
+            }
+        }
+        return res;
+    }
+
+    /* the tokens with the parameters among them replaced by the values */
+    static ArrayList<LexicalToken> bind(List<LexicalToken> tokens, List<LexicalToken> values) {
+        ArrayList<LexicalToken> res = new ArrayList<>(tokens.size());
+        for (LexicalToken token : tokens) {
+            int parameter = token.getParameterIndex();
+            res.add(parameter == -1 ? token : values.get(parameter));
+        }
+        return res;
+    }
+
+    /* a raw condition or value with its parameters written out as the values, for what is still parsed per execution */
+    static String bind(String raw, List<LexicalToken> values) {
+
+        StringBuilder res = new StringBuilder(raw.length());
+        boolean literal = false;
+
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (literal && c == '\\') {
+                res.append(c).append(raw.charAt(++i)); // escaped, a '"' of it does not end the literal
+                continue;
+            }
+            if (c == '"') {
+                literal = !literal;
+            }
+
+            int end = i + 1;
+            while (!literal && c == '?' && end < raw.length() && Character.isDigit(raw.charAt(end))) {
+                end++;
+            }
+            if (end == i + 1) {
+                res.append(c);
+                continue;
+            }
+
+            LexicalToken value = values.get(Integer.parseInt(raw.substring(i + 1, end)));
+            if (value.isLiteral()) {
+                res.append(StringUtils.quote(value.getValue()));
+            } else {
+                res.append(value.getValue());
+            }
+            i = end - 1;
+        }
+
+        return res.toString();
+    }
+
+    /* whether a raw condition or value has parameters */
+    static boolean hasParameters(String raw) {
+        boolean literal = false;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (literal && c == '\\') {
+                i++;
+            } else if (c == '"') {
+                literal = !literal;
+            } else if (!literal && c == '?') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The WHERE clause of a prepared statement, compiled against the table
+     * it runs on the first time and again only if the table is replaced.
+     */
+    static class Condition {
+
+        private final String raw;
+
+        private Table table;
+        private TuplePredicate predicate;
+
+        Condition(String raw) {
+            this.raw = raw;
+        }
+
+        TuplePredicate bind(Table table, List<LexicalToken> values) throws CoSQLQueryParseError {
+            if (table != this.table) {
+                predicate = TuplePredicate.compile(raw, table);
+                this.table = table;
+            }
+            return predicate.bind(constants(values));
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package dbms.parser;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
 
 import dbms.UserInterface;
+import dbms.engine.DatabaseCore;
 import dbms.engine.Table;
 import dbms.exceptions.*;
 import dbms.util.StringUtils;
@@ -23,6 +25,7 @@ public class QueryParser {
     public static final String REGEX_DATABASE_NAME = "^[a-zA-Z\\$][a-zA-Z_\\$0-9]*$";
     public static final String REGEX_NUMERAL = "^[\\+\\-]?[0-9]+$";
     public static final String REGEX_INDEX_NAME = "^[a-zA-Z_\\$][a-zA-Z0-9_\\$]*$";
+    public static final String REGEX_STATEMENT_NAME = "^[a-zA-Z_\\$][a-zA-Z0-9_\\$]*$";
 
     public static final int CART = 0;
     public static final int JOIN = 1;
@@ -30,6 +33,9 @@ public class QueryParser {
     private UserInterface userInterface;
     private ParseData parseData;
 
+    /* statements of this session made by PREPARE, by name */
+    private HashMap<String, PreparedQuery> prepared = new HashMap<>();
+
     public QueryParser(UserInterface userInterface) {
         this.userInterface = userInterface;
     }
@@ -48,6 +54,20 @@ public class QueryParser {
 
     }
 
+    /**
+     * Parses a single INSERT, SELECT, UPDATE or DELETE with '?' for the
+     * values to be given at each execution, once for all of them.
+     */
+    public PreparedQuery prepare(String query) throws CoSQLError {
+
+        parseData = new ParseData(query);
+
+        PreparedQuery res = preparable(parseData);
+        expectEnd(parseData);
+
+        return res;
+    }
+
     // TODO else error for all these
 
     private void start(ParseData parseData) throws CoSQLError {
@@ -57,19 +77,34 @@ public class QueryParser {
 
         try {
 
-            String next = parseData.next();
-            if (next.equalsIgnoreCase("create")) {
+            LexicalToken next = parseData.nextFullToken();
+            if (next.is("create")) {
                 create(parseData);
-            } else if (next.equalsIgnoreCase("insert")) {
-                insert(parseData);
-            } else if (next.equalsIgnoreCase("update")) {
-                update(parseData);
-            } else if (next.equalsIgnoreCase("select")) {
-                select(parseData);
-            } else if (next.equalsIgnoreCase("delete")) {
-                delete(parseData);
-            } else if (next.equalsIgnoreCase("print")) { // for debugging only
+            } else if (next.is("insert")) {
+                parseData.addCommand(insert(parseData));
+            } else if (next.is("update")) {
+                parseData.addCommand(update(parseData));
+            } else if (next.is("select")) {
+                parseData.addCommand(select(parseData));
+            } else if (next.is("delete")) {
+                parseData.addCommand(delete(parseData));
+            } else if (next.is("explain")) {
+                parseData.addCommand(explain(parseData));
+            } else if (next.is("prepare")) {
+                prepare(parseData);
+            } else if (next.is("execute")) {
+                execute(parseData);
+            } else if (next.is("print")) { // for debugging only
                 print(parseData);
+            } else if (next.is("load")) {
+                load(parseData);
+            } else if (next.is("save")) {
+                parseData.addCommand(new CoSQLSave());
+            } else if (next.is("analyze")) {
+                parseData.addCommand(new CoSQLAnalyze(tableName(parseData)));
+            } else if (next.is("show")) {
+                match("metrics");
+                parseData.addCommand(new CoSQLShowMetrics());
             } else {
                 // TODO error
                 System.err.println("Invalid command!");
@@ -77,37 +112,120 @@ public class QueryParser {
 
             end(parseData);
 
+            // counts towards the next automatic checkpoint
+            if (next.is("create") || next.is("insert") || next.is("load") || next.is("update") || next.is("delete")) {
+                DatabaseCore.modified();
+            }
+
         } catch (EndOfBufferException e) {
             System.err.println("Unexpected end of input");
         }
 
     }
 
-    private void insert(ParseData parseData) throws CoSQLQueryParseError {
+    private CoSQLInsert insert(ParseData parseData) throws CoSQLQueryParseError {
 
-        String lookAhead = parseData.next();
+        LexicalToken lookAhead = parseData.nextFullToken();
 
         // force INTO keyword after INSERT
-        if (!lookAhead.equalsIgnoreCase("into")) {
-            String message = String.format("Expected INTO after INSERT, before \'%s\'", lookAhead);
+        if (!lookAhead.is("into")) {
+            String message = String.format("Expected INTO after INSERT, before \'%s\'", lookAhead.getValue());
             throw new CoSQLQueryParseError(message);
         }
 
         String tableName = tableName(parseData);
 
         // mandatory VALUES keyword
-        lookAhead = parseData.next();
+        lookAhead = parseData.nextFullToken();
 
-        if (!lookAhead.equalsIgnoreCase("values")) {
-            String error = String.format("Expected VALUES before \'%s\'", lookAhead);
+        if (!lookAhead.is("values")) {
+            String error = String.format("Expected VALUES before \'%s\'", lookAhead.getValue());
             throw new CoSQLQueryParseError(error);
         }
 
+        // one or more comma separated value tuples
+        ArrayList<ArrayList<LexicalToken>> rows = new ArrayList<>();
+        rows.add(valueTuple(parseData));
+
+        while (parseData.hasNext() && parseData.peekAhead(",")) {
+            match(",");
+            rows.add(valueTuple(parseData));
+        }
+
+        return new CoSQLInsert(tableName, rows);
+    }
+
+    private CoSQLExplain explain(ParseData parseData) throws CoSQLQueryParseError {
+
+        boolean analyze = parseData.hasNext() && parseData.peekAhead("analyze");
+        if (analyze) {
+            match("analyze");
+        }
+
+        match("select");
+
+        return new CoSQLExplain(select(parseData), analyze);
+    }
+
+    private void prepare(ParseData parseData) throws CoSQLQueryParseError {
+
+        String name = statementName(parseData);
+        match("as");
+
+        parseData.addCommand(new CoSQLPrepare(name, preparable(parseData), prepared));
+    }
+
+    /* a statement that can be prepared, with parameters allowed while it is parsed */
+    private PreparedQuery preparable(ParseData parseData) throws CoSQLQueryParseError {
+
+        parseData.parameters = 0;
+
+        String next = parseData.next();
+        CoSQLCommand command = null;
+        if (next.equalsIgnoreCase("insert")) {
+            command = insert(parseData);
+        } else if (next.equalsIgnoreCase("update")) {
+            command = update(parseData);
+        } else if (next.equalsIgnoreCase("select")) {
+            command = select(parseData);
+        } else if (next.equalsIgnoreCase("delete")) {
+            command = delete(parseData);
+        } else {
+            throwParseError("Only INSERT, SELECT, UPDATE and DELETE can be prepared, found %s", next);
+        }
+
+        PreparedQuery res = new PreparedQuery(command, parseData.parameters, !next.equalsIgnoreCase("select"));
+        parseData.parameters = -1;
+
+        return res;
+    }
+
+    private void execute(ParseData parseData) throws CoSQLQueryParseError {
+
+        String name = statementName(parseData);
+
+        // values in parentheses, none at all for a statement without parameters
+        ArrayList<LexicalToken> values = new ArrayList<>();
+        if (parseData.hasNext() && parseData.peekAhead("(")) {
+            match("(");
+            if (parseData.peekAhead(")")) {
+                match(")");
+            } else {
+                parseData.goPrev();
+                values = valueTuple(parseData);
+            }
+        }
+
+        parseData.addCommand(new CoSQLExecute(name, values, prepared));
+    }
+
+    private ArrayList<LexicalToken> valueTuple(ParseData parseData) throws CoSQLQueryParseError {
+
         // open parenthesis
-        lookAhead = parseData.next();
+        LexicalToken lookAhead = parseData.nextFullToken();
 
-        if (!lookAhead.equals("(")) {
-            String error = String.format("Expected '(' before \'%s\'", lookAhead);
+        if (!lookAhead.is("(")) {
+            String error = String.format("Expected '(' before \'%s\'", lookAhead.getValue());
             throw new CoSQLQueryParseError(error);
         }
 
@@ -122,9 +240,9 @@ public class QueryParser {
 
             if (expectComma) {
 
-                if (token.getValue().equals(",")) {
+                if (token.is(",")) {
                     expectComma = false;
-                } else if (token.getValue().equals(")")) { // break if end
+                } else if (token.is(")")) { // break if end
                     break;
                 } else {
                     String message = String.format("Expected comma or ')' before \'%s\'", token);
@@ -133,9 +251,12 @@ public class QueryParser {
 
             } else {
 
-                if (token.getValue().matches(REGEX_NUMERAL) || token.isLiteral() || token.getValue().equalsIgnoreCase("null")) {
+                if (token.isLiteral() || token.isNumeral() || token.is("null")) {
                     values.add(token);
                     expectComma = true;
+                } else if (token.is("?")) {
+                    values.add(parseData.parameter());
+                    expectComma = true;
                 } else {
                     String message = String.format("Unexpected token: \'%s\' in values.", token.getValue());
                     throw new CoSQLQueryParseError(message);
@@ -145,13 +266,42 @@ public class QueryParser {
 
         } // end while loop
 
-        // create and add command to batch
-        CoSQLInsert insertQuery = new CoSQLInsert(tableName, values);
-        parseData.addCommand(insertQuery);
+        return values;
+    }
+
+    private void load(ParseData parseData) throws CoSQLQueryParseError {
+
+        match("data");
+
+        // file name, as a string literal
+        LexicalToken file = parseData.nextFullToken();
+        if (!file.isLiteral()) {
+            throwParseError("Expected file name literal before %s", file.getValue());
+        }
+
+        match("into");
+
+        String tableName = tableName(parseData);
+
+        // optional IGNORE n LINES, for header lines
+        int ignoreLines = 0;
+        if (parseData.hasNext() && parseData.peekAhead("ignore")) {
+            match("ignore");
 
+            String count = parseData.next();
+            if (!count.matches(REGEX_NUMERAL)) {
+                throwParseError("Expected number of lines to ignore before %s", count);
+            }
+            ignoreLines = Integer.parseInt(count);
+
+            match("lines");
+        }
+
+        CoSQLLoadData loadQuery = new CoSQLLoadData(file.getValue(), tableName, ignoreLines);
+        parseData.addCommand(loadQuery);
     }
 
-    private void update(ParseData parseData) throws CoSQLQueryParseError {
+    private CoSQLUpdate update(ParseData parseData) throws CoSQLQueryParseError {
 
         // get table name
         String tableName = tableName(parseData);
@@ -179,27 +329,29 @@ public class QueryParser {
             if (value.equals(";"))
                 throw new CoSQLQueryParseError();
 
-            if (nextFullToken.isLiteral()) {
-                computeValueStr = computeValueStr.concat("\"").concat(value).concat("\"");
-            } else {
-                computeValueStr = computeValueStr.concat(nextFullToken.value);
-            }
+            computeValueStr = computeValueStr.concat(rawToken(nextFullToken));
         }
 
         // tuple condition
         String condition = "";
         while (!((nextFullToken = parseData.nextFullToken()).getValue().equals(";"))) {
-            if (nextFullToken.isLiteral()) {
-                condition = condition.concat("\"").concat(nextFullToken.getValue()).concat("\"");
-            } else {
-                condition = condition.concat(nextFullToken.getValue());
-            }
+            condition = condition.concat(rawToken(nextFullToken));
         }
         parseData.goPrev();
 
 //        TupleCondition tupleCondition = new TupleCondition(condition, tableName);
-        CoSQLUpdate updateQuery = new CoSQLUpdate(tableName, columnName, computeValueStr, condition);
-        parseData.addCommand(updateQuery);
+        return new CoSQLUpdate(tableName, columnName, computeValueStr, condition);
+    }
+
+    /* a token of a raw condition or value: literals quoted again, a '?' numbered */
+    private String rawToken(LexicalToken token) throws CoSQLQueryParseError {
+        if (token.isLiteral()) {
+            return StringUtils.quote(token.getValue());
+        }
+        if (token.getValue().equals("?")) {
+            return parseData.parameter().getValue();
+        }
+        return token.getValue();
     }
 
     private SelectValue selectValue() throws CoSQLQueryParseError {
@@ -222,35 +374,8 @@ public class QueryParser {
 
     }
 
-    private void select(ParseData parseData) throws CoSQLQueryParseError {
-
-        GroupByData groupByData;
-        ArrayList<String> tableNames;
-        ArrayList<SelectValue> selectValues;
-        String condition;
-        int selectType;
-
-        List parseArray = new ArrayList();
-        parseArray = selectParser(parseData);
-        tableNames = (ArrayList<String>) parseArray.get(0);
-        selectValues = (ArrayList<SelectValue>) parseArray.get(1);
-        condition = (String) parseArray.get(2);
-        selectType = (Integer) parseArray.get(3);
-        groupByData = (GroupByData) parseArray.get(4);
-
-        CoSQLSelect selectQuery = new CoSQLSelect(
-                tableNames,
-                selectValues,
-                condition,
-                selectType,
-                groupByData
-        );
-
-        parseData.addCommand(selectQuery);
-
-    }
-
-    private List selectParser(ParseData parseData) throws CoSQLQueryParseError {
+    /* what follows SELECT, for a SELECT or the one a view is made of */
+    private CoSQLSelect select(ParseData parseData) throws CoSQLQueryParseError {
 
         ArrayList<String> tableNames = new ArrayList<>();
         ArrayList<SelectValue> selectValues = new ArrayList<>();
@@ -284,17 +409,14 @@ public class QueryParser {
 
         String condition = "";
         LexicalToken nextFullToken;
-        while (!((nextFullToken = parseData.nextFullToken()).getValue().equals(";")) && !nextFullToken.getValue().equalsIgnoreCase("group")) {
-            if (nextFullToken.isLiteral()) {
-                condition = condition.concat("\"").concat(nextFullToken.getValue()).concat("\"");
-            } else {
-                String token = nextFullToken.getValue();
-                if (tableNames.size() == 1 && nextFullToken.getValue().contains(".")) {
-                    // remove table name in column name in conditions
-                    token = token.substring(token.indexOf(".") + 1);
-                }
-                condition = condition.concat(token);
+        while (!((nextFullToken = parseData.nextFullToken()).getValue().equals(";")) && !nextFullToken.getValue().equalsIgnoreCase("group")
+                && !nextFullToken.getValue().equalsIgnoreCase("limit")) {
+            String token = rawToken(nextFullToken);
+            if (!nextFullToken.isLiteral() && tableNames.size() == 1 && token.contains(".")) {
+                // remove table name in column name in conditions
+                token = token.substring(token.indexOf(".") + 1);
             }
+            condition = condition.concat(token);
         }
         parseData.goPrev();
 
@@ -303,15 +425,13 @@ public class QueryParser {
             groupByData = groupBy();
         }
 
+        long limit = -1;
+        if (parseData.peekAhead("limit")) {
+            limit = limit();
+        }
 
-        List parseArray = new ArrayList();
-        parseArray.add(tableNames);
-        parseArray.add(selectValues);
-        parseArray.add(condition);
-        parseArray.add(selectType);
-        parseArray.add(groupByData);
 
-        return parseArray;
+        return new CoSQLSelect(tableNames, selectValues, condition, selectType, groupByData, limit);
     }
 
 
@@ -346,7 +466,7 @@ public class QueryParser {
 
         String condition = "";
         String token;
-        while (!(token = parseData.next()).equalsIgnoreCase(";")) {
+        while (!(token = parseData.next()).equalsIgnoreCase(";") && !token.equalsIgnoreCase("limit")) {
             condition = condition.concat(token);
         }
 
@@ -355,7 +475,18 @@ public class QueryParser {
         return condition;
     }
 
-    private void delete(ParseData parseData) throws CoSQLQueryParseError {
+    private long limit() throws CoSQLQueryParseError {
+
+        match("limit");
+
+        String count = parseData.next();
+        if (!count.matches("\\d+"))
+            throwParseError("Expected number of rows after LIMIT, found %s", count);
+
+        return Long.parseLong(count);
+    }
+
+    private CoSQLDelete delete(ParseData parseData) throws CoSQLQueryParseError {
         // force FROM keyword
         String lookAhead = parseData.next();
         if (!lookAhead.equalsIgnoreCase("from")) {
@@ -373,18 +504,13 @@ public class QueryParser {
         String condition = "";
         LexicalToken nextFullToken;
         while (!((nextFullToken = parseData.nextFullToken()).getValue().equals(";"))) {
-            if (nextFullToken.isLiteral()) {
-                condition = condition.concat("\"").concat(nextFullToken.getValue()).concat("\"");
-            } else {
-                condition = condition.concat(nextFullToken.getValue());
-            }
+            condition = condition.concat(rawToken(nextFullToken));
         }
         parseData.goPrev();
 
 //        TupleCondition tupleCondition = new TupleCondition(condition, tableName);
 
-        CoSQLDelete deleteQuery = new CoSQLDelete(tableName, condition);
-        parseData.addCommand(deleteQuery);
+        return new CoSQLDelete(tableName, condition);
     }
 
     // this method is for debugging only ..
@@ -411,6 +537,17 @@ public class QueryParser {
     }
 
 
+    private String statementName(ParseData parseData) throws CoSQLQueryParseError {
+
+        String name = parseData.next();
+
+        if (!name.matches(REGEX_STATEMENT_NAME)) {
+            throwParseError("Illegal statement name: '%s'", name);
+        }
+
+        return name;
+    }
+
     private String viewName(ParseData parseData) throws CoSQLQueryParseError {
 
         // get potential view name
@@ -496,25 +633,13 @@ public class QueryParser {
 
     private void createView(ParseData parseData) throws CoSQLQueryParseError {
 
-        GroupByData groupByData = null;
-        ArrayList<String> tableNames = new ArrayList<>();
-        ArrayList<SelectValue> selectValues = new ArrayList<>();
-        String condition = "";
-        int selectType = 0;
-
         String name = viewName(parseData);
 
         // force 'AS'
         match("AS");
         match("select");
 
-        List parseArray = new ArrayList();
-        parseArray = selectParser(parseData);
-        tableNames = (ArrayList<String>) parseArray.get(0);
-        selectValues = (ArrayList<SelectValue>) parseArray.get(1);
-        condition = (String) parseArray.get(2);
-        selectType = (Integer) parseArray.get(3);
-        groupByData = (GroupByData) parseArray.get(4);
+        CoSQLSelect select = select(parseData);
 
         //print
 //        System.out.println(name);
@@ -531,11 +656,12 @@ public class QueryParser {
 
         CoSQLCreateView command = new CoSQLCreateView(
                 name,
-                tableNames,
-                selectValues,
-                condition,
-                selectType,
-                groupByData
+                select.tableNames,
+                select.selectValues,
+                select.rawTupleCondition,
+                select.type,
+                select.groupBy,
+                select.limit
         );
 
         parseData.addCommand(command);
@@ -699,6 +825,14 @@ public class QueryParser {
 
     private void end(ParseData parseData) throws CoSQLError {
 
+        expectEnd(parseData);
+
+        // trigger parsed query run
+        parseData.batchRun();
+    }
+
+    private void expectEnd(ParseData parseData) throws CoSQLQueryParseError {
+
         String eoq = parseData.next();
 
         if (!eoq.equals(";")) {
@@ -710,9 +844,6 @@ public class QueryParser {
             String error = String.format("Unexpected \'%s\' at the end of query. Expecting query's end.", parseData.rest());
             throw new CoSQLQueryParseError(error);
         }
-
-        // trigger parsed query run
-        parseData.batchRun();
     }
 
     private void checkDirectives(String query) throws EndOfSessionException {
@@ -722,9 +853,9 @@ public class QueryParser {
     }
 
     private void match(String s) throws CoSQLQueryParseError {
-        String lookAhead = parseData.next();
-        if (!lookAhead.equalsIgnoreCase(s)) {
-            String error = String.format("Expected '%s' before %s", s, lookAhead);
+        LexicalToken lookAhead = parseData.nextFullToken();
+        if (!lookAhead.is(s)) {
+            String error = String.format("Expected '%s' before %s", s, lookAhead.getValue());
             throw new CoSQLQueryParseError(error);
         }
     }
@@ -746,6 +877,9 @@ public class QueryParser {
         private int next;
         private ArrayList<CoSQLCommand> commands = new ArrayList<>();
 
+        /* '?' seen so far in a statement being prepared, -1 where they are not allowed */
+        private int parameters = -1;
+
         LexicalToken nextFullToken() throws EndOfBufferException {
             if (next >= tokens.size()) {
                 throw new EndOfBufferException();
@@ -753,6 +887,14 @@ public class QueryParser {
             return tokens.get(next++);
         }
 
+        /* the next parameter of the statement being prepared */
+        LexicalToken parameter() throws CoSQLQueryParseError {
+            if (parameters == -1) {
+                throwParseError("Unexpected '?' outside of PREPARE");
+            }
+            return new LexicalToken("?" + parameters++, false);
+        }
+
         String next() throws EndOfBufferException {
             if (next >= tokens.size()) {
                 throw new EndOfBufferException();
@@ -774,7 +916,7 @@ public class QueryParser {
         }
 
         boolean peekAhead(String text) {
-            return tokens.get(next).getValue().equalsIgnoreCase(text);
+            return tokens.get(next).is(text);
         }
 
         boolean hasNext() {
@@ -802,7 +944,7 @@ public class QueryParser {
 
         void batchRun() throws CoSQLError {
             for (CoSQLCommand command : commands) {
-                command.execute(); // TODO batch run might get messed if something goes wrong in the middle, proper revert system needed
+                command.run(null); // TODO batch run might get messed if something goes wrong in the middle, proper revert system needed
             }
         }
 
@@ -0,0 +1,574 @@
+package dbms.parser;
+
+import dbms.engine.CostModel;
+import dbms.engine.DatabaseCore;
+import dbms.engine.IndexScan;
+import dbms.engine.Metrics;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLQueryParseError;
+import dbms.util.RoaringBitmap;
+import dbms.util.StringUtils;
+
+import java.util.List;
+import java.util.Objects;
+
+import static dbms.util.LanguageUtils.throwParseError;
+
+/**
+ * A WHERE clause compiled against one table.
+ *
+ * The raw condition (tokens glued together by the parser, literals
+ * re-quoted with '"' by {@link StringUtils#quote}) is parsed once into a
+ * tree of AND / OR / NOT nodes over comparisons whose left side is bound
+ * to a column position and whose right side is either a constant computed
+ * up front or a {@link ValueComputer.ParsedTuple} for field based values.
+ *
+ * A subtree that no index can answer is tested row by row, one pass over
+ * the table however deep it is. Where indexes can answer, the tree is
+ * evaluated to sets of row ids instead: AND, OR and NOT become bitmap
+ * intersection, union and complement, and a row can never come out twice.
+ *
+ * Which conditions go to an index is decided by {@link CostModel}, from
+ * the selectivities ANALYZE statistics give (see {@link #selectivity}).
+ *
+ * Binary operators need both sides in parentheses, {@code (a)AND(b)}; NOT
+ * binds tighter than AND, which binds tighter than OR.
+ *
+ * In a prepared statement a compared value may be a parameter, {@code ?n}
+ * for the n-th '?'; such a tree is compiled once and {@link #bind}s the
+ * values of each execution into a copy.
+ */
+public abstract class TuplePredicate {
+
+    public abstract boolean test(Table.Row row) throws CoSQLQueryParseError;
+
+    /* whether matchingIds gets (part of) its ids from indexes rather than by testing every row */
+    public boolean usesIndex(Table table) {
+        return false;
+    }
+
+    /* adds the indexes matchingIds looks ids up in, as "index ON column", for EXPLAIN */
+    public void indexesUsed(Table table, List<String> res) {
+    }
+
+    /* estimated fraction of the rows this predicate holds for */
+    public abstract double selectivity(Table table);
+
+    /* the predicate with its parameters replaced by the given constants, itself if it has none */
+    public TuplePredicate bind(Object[] values) {
+        return this;
+    }
+
+    /**
+     * Ids of the rows among the candidates (every row of the table when
+     * null) this predicate holds for. By default each candidate is tested.
+     */
+    public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) throws CoSQLQueryParseError {
+
+        RoaringBitmap res = new RoaringBitmap();
+
+        if (candidates == null) {
+            for (Table.Row row : table.getRows()) {
+                if (test(row)) {
+                    res.add(row.getId());
+                }
+            }
+            Metrics.scanned(table.getRowCount());
+            return res;
+        }
+
+        RoaringBitmap.IntIterator it = candidates.intIterator();
+        while (it.hasNext()) {
+            Table.Row row = table.getRowById(it.next());
+            if (row != null && test(row)) {
+                res.add(row.getId());
+            }
+        }
+        Metrics.scanned(candidates.cardinality());
+        return res;
+    }
+
+    public static TuplePredicate compile(String rawStr, Table table) throws CoSQLQueryParseError {
+
+        String s = rawStr.trim();
+
+        if (s.equalsIgnoreCase("TRUE")) {
+            return new Constant(true);
+        }
+        if (s.equalsIgnoreCase("FALSE")) {
+            return new Constant(false);
+        }
+
+        // loosest binding first, the last one at top level makes it left associative
+        int split = lastTopLevel(s, "OR");
+        if (split != -1) {
+            return new Or(compile(s.substring(0, split), table), compile(s.substring(split + 2), table));
+        }
+        split = lastTopLevel(s, "AND");
+        if (split != -1) {
+            return new And(compile(s.substring(0, split), table), compile(s.substring(split + 3), table));
+        }
+
+        if (isWrapped(s)) {
+            return compile(s.substring(1, s.length() - 1), table);
+        }
+
+        int op = comparisonOperator(s);
+
+        // "NOTx=1" is NOT x=1, unless the table really has a column called NOTx
+        if (s.regionMatches(true, 0, "NOT", 0, 3)
+                && (op == -1 || columnIndex(table, s.substring(0, op)) == -1)) {
+            return new Not(compile(s.substring(3), table));
+        }
+
+        if (op == -1) {
+            throwParseError("Invalid condition '%s'", s);
+        }
+
+        return comparison(s, op, table);
+    }
+
+    private static Comparison comparison(String s, int op, Table table) throws CoSQLQueryParseError {
+
+        String colName = s.substring(0, op);
+        int colIndex = columnIndex(table, colName);
+        if (colIndex == -1) {
+            throwParseError("No such column '%s'", colName);
+        }
+
+        int type;
+        int valueStart = op + 1;
+        char c = s.charAt(op);
+        boolean orEqual = valueStart < s.length() && s.charAt(valueStart) == '=';
+
+        if (c == '=') {
+            type = DatabaseCore.COMPARISON_TYPE_EQUAL;
+        } else if (c == '>') {
+            type = orEqual ? DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL : DatabaseCore.COMPARISON_TYPE_GREATER;
+        } else {
+            type = orEqual ? DatabaseCore.COMPARISON_TYPE_LESS_THAN_OR_EQUAL : DatabaseCore.COMPARISON_TYPE_LESS_THAN;
+        }
+        if (c != '=' && orEqual) {
+            valueStart++;
+        }
+
+        String rawValue = s.substring(valueStart);
+        if (rawValue.isEmpty()) {
+            throwParseError("Missing value after '%s'", s);
+        }
+
+        // a parameter is bound to a constant later
+        if (rawValue.charAt(0) == '?' && StringUtils.isNumeral(rawValue.substring(1))) {
+            return new Comparison(colIndex, type, Integer.parseInt(rawValue.substring(1)));
+        }
+
+        // compute right hand side once if it's constant, otherwise per row
+        if (ValueComputer.getType(rawValue) == ValueComputer.ValueType.CONSTANT) {
+            return new Comparison(colIndex, type, ValueComputer.computeConstant(rawValue), null);
+        }
+        return new Comparison(colIndex, type, null, ValueComputer.computeFieldBased(rawValue, table));
+    }
+
+    private static int columnIndex(Table table, String colName) {
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            if (table.getColumnAt(i).getName().equalsIgnoreCase(colName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /* position of the last ")keyword(" outside literals and parentheses, -1 if none */
+    private static int lastTopLevel(String s, String keyword) {
+
+        int res = -1;
+        int depth = 0;
+        boolean literal = false;
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (literal && c == '\\') {
+                i++; // escaped
+            } else if (c == '"') {
+                literal = !literal;
+            } else if (!literal && c == '(') {
+                depth++;
+            } else if (!literal && c == ')') {
+                depth--;
+            } else if (!literal && depth == 0 && i > 0 && s.charAt(i - 1) == ')'
+                    && s.regionMatches(true, i, keyword, 0, keyword.length())
+                    && i + keyword.length() < s.length() && s.charAt(i + keyword.length()) == '(') {
+                res = i;
+            }
+        }
+
+        return res;
+    }
+
+    /* whether the first parenthesis closes at the very end */
+    private static boolean isWrapped(String s) {
+
+        if (s.length() < 2 || s.charAt(0) != '(' || s.charAt(s.length() - 1) != ')') {
+            return false;
+        }
+
+        int depth = 0;
+        boolean literal = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (literal && c == '\\') {
+                i++; // escaped
+            } else if (c == '"') {
+                literal = !literal;
+            } else if (!literal && c == '(') {
+                depth++;
+            } else if (!literal && c == ')' && --depth == 0) {
+                return i == s.length() - 1;
+            }
+        }
+        return false;
+    }
+
+    /* position of the first '=', '<' or '>' outside literals, -1 if none */
+    private static int comparisonOperator(String s) {
+        boolean literal = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (literal && c == '\\') {
+                i++; // escaped
+            } else if (c == '"') {
+                literal = !literal;
+            } else if (!literal && (c == '=' || c == '<' || c == '>')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static class Constant extends TuplePredicate {
+
+        private final boolean value;
+
+        Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(Table.Row row) {
+            return value;
+        }
+
+        @Override
+        public boolean usesIndex(Table table) {
+            return !value; // no row needs to be looked at
+        }
+
+        @Override
+        public double selectivity(Table table) {
+            return value ? 1 : 0;
+        }
+
+        @Override
+        public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) {
+            if (!value) {
+                return new RoaringBitmap();
+            }
+            return candidates == null ? table.getRowIds() : candidates.copy();
+        }
+    }
+
+    public static class Not extends TuplePredicate {
+
+        private final TuplePredicate operand;
+
+        Not(TuplePredicate operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean test(Table.Row row) throws CoSQLQueryParseError {
+            return !operand.test(row);
+        }
+
+        @Override
+        public boolean usesIndex(Table table) {
+            // the complement of a selective condition is most of the table
+            return operand.usesIndex(table) && CostModel.indexBeatsScan(selectivity(table));
+        }
+
+        @Override
+        public void indexesUsed(Table table, List<String> res) {
+            if (usesIndex(table)) {
+                operand.indexesUsed(table, res);
+            }
+        }
+
+        @Override
+        public double selectivity(Table table) {
+            return 1 - operand.selectivity(table);
+        }
+
+        @Override
+        public TuplePredicate bind(Object[] values) {
+            TuplePredicate bound = operand.bind(values);
+            return bound == operand ? this : new Not(bound);
+        }
+
+        @Override
+        public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) throws CoSQLQueryParseError {
+            // among candidates the operand picks its own way, the complement is cheap either way
+            if (candidates == null && !usesIndex(table)) {
+                return super.matchingIds(table, candidates);
+            }
+
+            // complement within the candidates, the table itself is never touched
+            RoaringBitmap all = candidates == null ? table.getRowIds() : candidates;
+            return RoaringBitmap.andNot(all, operand.matchingIds(table, candidates));
+        }
+    }
+
+    public static class And extends TuplePredicate {
+
+        private final TuplePredicate left;
+        private final TuplePredicate right;
+
+        And(TuplePredicate left, TuplePredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(Table.Row row) throws CoSQLQueryParseError {
+            return left.test(row) && right.test(row);
+        }
+
+        @Override
+        public boolean usesIndex(Table table) {
+            return left.usesIndex(table) || right.usesIndex(table);
+        }
+
+        @Override
+        public void indexesUsed(Table table, List<String> res) {
+            // an unindexed side is tested among the ids of the other
+            left.indexesUsed(table, res);
+            right.indexesUsed(table, res);
+        }
+
+        @Override
+        public double selectivity(Table table) {
+            return left.selectivity(table) * right.selectivity(table);
+        }
+
+        @Override
+        public TuplePredicate bind(Object[] values) {
+            TuplePredicate l = left.bind(values);
+            TuplePredicate r = right.bind(values);
+            return l == left && r == right ? this : new And(l, r);
+        }
+
+        @Override
+        public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) throws CoSQLQueryParseError {
+            if (!usesIndex(table)) {
+                return super.matchingIds(table, candidates);
+            }
+
+            // the side an index answers goes first, the more selective one if both,
+            // the other side only has to look at what is left
+            boolean rightFirst = right.usesIndex(table) && (!left.usesIndex(table)
+                    || right.selectivity(table) < left.selectivity(table));
+            TuplePredicate first = rightFirst ? right : left;
+            TuplePredicate second = rightFirst ? left : right;
+
+            RoaringBitmap ids = first.matchingIds(table, candidates);
+            if (ids.isEmpty()) {
+                return ids;
+            }
+            return second.matchingIds(table, ids);
+        }
+    }
+
+    public static class Or extends TuplePredicate {
+
+        private final TuplePredicate left;
+        private final TuplePredicate right;
+
+        Or(TuplePredicate left, TuplePredicate right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(Table.Row row) throws CoSQLQueryParseError {
+            return left.test(row) || right.test(row);
+        }
+
+        @Override
+        public boolean usesIndex(Table table) {
+            // one unindexed side means a scan anyway, it might as well test both
+            return left.usesIndex(table) && right.usesIndex(table) && CostModel.indexBeatsScan(selectivity(table));
+        }
+
+        @Override
+        public void indexesUsed(Table table, List<String> res) {
+            if (usesIndex(table)) {
+                left.indexesUsed(table, res);
+                right.indexesUsed(table, res);
+            }
+        }
+
+        @Override
+        public double selectivity(Table table) {
+            double l = left.selectivity(table);
+            double r = right.selectivity(table);
+            return l + r - l * r;
+        }
+
+        @Override
+        public TuplePredicate bind(Object[] values) {
+            TuplePredicate l = left.bind(values);
+            TuplePredicate r = right.bind(values);
+            return l == left && r == right ? this : new Or(l, r);
+        }
+
+        @Override
+        public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) throws CoSQLQueryParseError {
+            if (!usesIndex(table)) {
+                return super.matchingIds(table, candidates);
+            }
+            return RoaringBitmap.or(left.matchingIds(table, candidates), right.matchingIds(table, candidates));
+        }
+    }
+
+    /**
+     * {@code column <op> value}. Values of different types (a NULL cell
+     * against a number, say) are never equal and never ordered.
+     */
+    public static class Comparison extends TuplePredicate {
+
+        public final int columnIndex;
+        public final int type;
+
+        /* right side, exactly one of them is set, or neither until a parameter is bound */
+        public final Object constant;
+        private final ValueComputer.ParsedTuple computer;
+        private final int parameter;
+
+        Comparison(int columnIndex, int type, Object constant, ValueComputer.ParsedTuple computer) {
+            this.columnIndex = columnIndex;
+            this.type = type;
+            this.constant = constant;
+            this.computer = computer;
+            this.parameter = -1;
+        }
+
+        Comparison(int columnIndex, int type, int parameter) {
+            this.columnIndex = columnIndex;
+            this.type = type;
+            this.constant = null;
+            this.computer = null;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public TuplePredicate bind(Object[] values) {
+            return parameter == -1 ? this : new Comparison(columnIndex, type, values[parameter], null);
+        }
+
+        @Override
+        public boolean test(Table.Row row) throws CoSQLQueryParseError {
+
+            Object rowValue = row.getValueAt(columnIndex);
+            Object value = computer == null ? constant : computer.computeForRow(row);
+
+            if (type == DatabaseCore.COMPARISON_TYPE_EQUAL) {
+                return Objects.equals(rowValue, value);
+            }
+
+            if (value == null || rowValue == null || rowValue.getClass() != value.getClass()) {
+                return false;
+            }
+
+            int cmp;
+            if (rowValue instanceof Long) {
+                cmp = Long.compare((Long) rowValue, (Long) value);
+            } else if (rowValue instanceof String) {
+                cmp = ((String) rowValue).compareTo((String) value);
+            } else if (rowValue instanceof Double) {
+                cmp = Double.compare((Double) rowValue, (Double) value);
+            } else {
+                return false;
+            }
+
+            switch (type) {
+                case DatabaseCore.COMPARISON_TYPE_GREATER:
+                    return cmp > 0;
+                case DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL:
+                    return cmp >= 0;
+                case DatabaseCore.COMPARISON_TYPE_LESS_THAN:
+                    return cmp < 0;
+                case DatabaseCore.COMPARISON_TYPE_LESS_THAN_OR_EQUAL:
+                    return cmp <= 0;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean usesIndex(Table table) {
+            return indexable(table) && CostModel.indexBeatsScan(estimate(table));
+        }
+
+        @Override
+        public void indexesUsed(Table table, List<String> res) {
+            if (usesIndex(table)) {
+                Table.Column column = table.getColumnAt(columnIndex);
+                res.add(table.getIndex(column).getName() + " ON " + column.getName());
+            }
+        }
+
+        private boolean indexable(Table table) {
+
+            Table.Column column = table.getColumnAt(columnIndex);
+            if (computer != null || table.getIndex(column) == null) {
+                return false;
+            }
+
+            // the index is keyed by the column's type, a mismatched constant matches nothing there
+            return column.getType() == Table.ColumnType.INT ? constant instanceof Long : constant instanceof String;
+        }
+
+        /* -1 when there is nothing to go by */
+        private double estimate(Table table) {
+            return computer != null ? -1 : CostModel.selectivity(table, columnIndex, type, constant);
+        }
+
+        @Override
+        public double selectivity(Table table) {
+            double estimate = estimate(table);
+            if (estimate >= 0) {
+                return estimate;
+            }
+            return type == DatabaseCore.COMPARISON_TYPE_EQUAL
+                    ? CostModel.DEFAULT_EQUAL_SELECTIVITY : CostModel.DEFAULT_RANGE_SELECTIVITY;
+        }
+
+        @Override
+        public RoaringBitmap matchingIds(Table table, RoaringBitmap candidates) throws CoSQLQueryParseError {
+
+            if (!indexable(table) || candidates == null && !usesIndex(table)) {
+                return super.matchingIds(table, candidates);
+            }
+
+            Table.Index idx = table.getIndex(table.getColumnAt(columnIndex));
+            if (candidates == null) {
+                return IndexScan.union(idx, constant, type);
+            }
+
+            // a handful of rows is cheaper to test than a range of postings to walk
+            if (!CostModel.intersectBeatsTest(table, estimate(table), type, candidates.cardinality())) {
+                return super.matchingIds(table, candidates);
+            }
+            return IndexScan.intersect(idx, constant, type, candidates);
+        }
+    }
+}
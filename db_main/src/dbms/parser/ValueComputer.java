@@ -3,12 +3,12 @@ package dbms.parser;
 import dbms.engine.Table;
 import dbms.exceptions.CoSQLError;
 import dbms.exceptions.CoSQLQueryParseError;
-import dbms.exceptions.EndOfBufferException;
 import dbms.util.StringUtils;
 
-import java.util.ArrayList;
 import java.util.List;
 
+import static dbms.util.LanguageUtils.throwParseError;
+
 
 
 public class ValueComputer {
@@ -18,55 +18,37 @@ public class ValueComputer {
     }
 
 
+    /**
+     * A value expression compiled against a table, once per statement.
+     *
+     * Numeric expressions become a tree of nodes working on primitive
+     * longs, with the usual precedence (unary sign, then * and /, then +
+     * and -, parentheses to override). As soon as one operand of a '+' is
+     * a string the '+' concatenates. A NULL operand, or a division by zero,
+     * makes a numeric result NULL.
+     */
     public static class ParsedTuple {
 
-        private List<ValueWrapper> wrappers;
-        private Table table;
+        private final Expression expression;
 
-        public ParsedTuple(List<ValueWrapper> wrappers, Table table) {
-            this.wrappers = wrappers;
-            this.table = table;
+        ParsedTuple(Expression expression) {
+            this.expression = expression;
         }
 
         public Object computeForRow(Table.Row row) throws CoSQLQueryParseError {
-
-            // list of tokens to be parsed as constant value
-            ArrayList<LexicalToken> tokens = new ArrayList<>(wrappers.size());
-
-            for (ValueWrapper vw: wrappers) {
-                if (vw.token != null) {
-                    tokens.add(vw.token);
-                } else {
-                    if (table.getColumnAt(vw.columnIndex).getType() == Table.ColumnType.INT) {
-                        String value = String.valueOf(row.getValueAt(vw.columnIndex));
-                        tokens.add(new LexicalToken(value, false));
-
-                    } else if (table.getColumnAt(vw.columnIndex).getType() == Table.ColumnType.VARCHAR) {
-                        String value = (String)row.getValueAt(vw.columnIndex);
-                        tokens.add(new LexicalToken(value, true));
-
-                    } else {
-                        System.err.println("Unknown type: " + table.getColumnAt(vw.columnIndex).getType());
-                    }
-                }
-            }
-
-            return computeConstant(tokens);
+            return expression.eval(row);
         }
     }
 
 
     public static ValueType getType(String rawInput) throws CoSQLQueryParseError {
-        final String delimiters = "+-*/=";
+        final String delimiters = "+-*/=()";
 
-        ParseData parsedData = new ParseData(rawInput);
         boolean hasField = false;
-        while (parsedData.hasNext()) {
-            LexicalToken token = parsedData.nextFullToken();
-
+        for (LexicalToken token : StringUtils.tokenizeQuery(rawInput)) {
             if (!delimiters.contains(token.getValue())
                     && !token.isLiteral()
-                    && !token.getValue().matches("^\\d+$"))
+                    && !token.isNumeral())
                 hasField = true;
         }
 
@@ -77,190 +59,276 @@ public class ValueComputer {
     }
 
     public static Object computeConstant(String rawInput) throws CoSQLQueryParseError {
-
-        ParseData parseData = new ParseData(rawInput);
-        boolean hasString = false;
-        while (parseData.hasNext()) {
-            LexicalToken token = parseData.nextFullToken();
-            if (token.isLiteral()) {
-                hasString = true;
-            }
-        }
-
-        parseData.goToFirst();
-        if (hasString)
-            return computeConstantString(parseData);
-        return computeConstantNumber(parseData);
+        return computeConstant(StringUtils.tokenizeQuery(rawInput));
     }
 
     public static Object computeConstant(List<LexicalToken> tokens) throws CoSQLQueryParseError {
-        ParseData parseData = new ParseData(tokens);
-        boolean hasString = false;
-        while (parseData.hasNext()) {
-            LexicalToken token = parseData.nextFullToken();
-            if (token.isLiteral()) {
-                hasString = true;
-            }
-        }
+        return new Compiler(tokens, null).compile().eval(null);
+    }
 
-        parseData.goToFirst();
-        if (hasString)
-            return computeConstantString(parseData);
-        return computeConstantNumber(parseData);
+    public static ParsedTuple computeFieldBased(String rawInput, Table table) throws CoSQLQueryParseError {
+        return new ParsedTuple(new Compiler(StringUtils.tokenizeQuery(rawInput), table).compile());
     }
 
-    private static Object computeConstantString(ParseData parseData) throws EndOfBufferException {
-        StringBuilder sb = new StringBuilder();
-        while (parseData.hasNext()) {
-            LexicalToken lt = parseData.nextFullToken();
-            if (lt.isLiteral())
-                sb.append(lt.getValue());
-            else if (!lt.getValue().equals("+"))
-                System.err.println("WARNING: Ignoring unknown String operator '" + lt.getValue() + "'");
+
+    /* thrown by numeric nodes when the result is NULL, shared since it carries nothing */
+    private static final class NullOperand extends RuntimeException {
+
+        static final NullOperand INSTANCE = new NullOperand();
+
+        private NullOperand() {
+            super(null, null, false, false);
         }
-        return sb.toString();
     }
 
-    private static Object computeConstantNumber(ParseData parseData) throws EndOfBufferException {
-        final int OPERATOR_PLUS = 0;
-        final int OPERATOR_MINUS = 1;
-        final int OPERATOR_MULTIPLY = 2;
-        final int OPERATOR_DIVIDE = 3;
-        final int OPERATOR_NOTHING = 4;
-
-        int operatorType = OPERATOR_NOTHING;
-
-        long result = 0;
-
-        while (parseData.hasNext()) {
-            String token = parseData.next();
-
-            if (token.contains("+"))
-                operatorType = OPERATOR_PLUS;
-            else if (token.contains("-"))
-                operatorType = OPERATOR_MINUS;
-            else if (token.contains("*"))
-                operatorType = OPERATOR_MULTIPLY;
-            else if (token.contains("/"))
-                operatorType = OPERATOR_DIVIDE;
-            else if (operatorType == OPERATOR_NOTHING)
-                result = Long.parseLong(token);
-            else if (operatorType == OPERATOR_PLUS)
-                result += Long.parseLong(token);
-            else if (operatorType == OPERATOR_MINUS)
-                result -= Long.parseLong(token);
-            else if (operatorType == OPERATOR_MULTIPLY)
-                result *= Long.parseLong(token);
-            else if (operatorType == OPERATOR_DIVIDE)
-                result /= Long.parseLong(token);
-        }
+    abstract static class Expression {
 
-        return result;
+        /* result as a cell value: a Long, a String, or "NULL" */
+        abstract Object eval(Table.Row row);
     }
 
-    static class ValueWrapper {
-        LexicalToken token;
-        int columnIndex;
+    abstract static class LongExpression extends Expression {
 
-        public ValueWrapper(LexicalToken token) {
-            this.token = token;
-            this.columnIndex = -1;
-        }
+        abstract long evalLong(Table.Row row);
 
-        public ValueWrapper(int columnIndex) {
-            this.columnIndex = columnIndex;
+        @Override
+        Object eval(Table.Row row) {
+            try {
+                return evalLong(row);
+            } catch (NullOperand e) {
+                return "NULL";
+            }
         }
     }
 
-    private static boolean isColumnName(LexicalToken token) {
-        return !token.isLiteral() && !token.getValue().matches("^\\d+$") && !("();,=+-*/".contains(token.getValue()));
+    abstract static class StringExpression extends Expression {
+
+        abstract String evalString(Table.Row row);
+
+        @Override
+        Object eval(Table.Row row) {
+            return evalString(row);
+        }
     }
 
-    public static ParsedTuple computeFieldBased(String rawInput, Table table) throws CoSQLQueryParseError {
+    private static final class LongConstant extends LongExpression {
 
-        List<LexicalToken> tokens = StringUtils.tokenizeQuery(rawInput);
-        List<ValueWrapper> wrapperList = new ArrayList<>();
+        final long value;
 
-        for (LexicalToken token : tokens) {
+        LongConstant(long value) {
+            this.value = value;
+        }
 
-            if (isColumnName(token)) {
+        @Override
+        long evalLong(Table.Row row) {
+            return value;
+        }
+    }
 
-                String colName = token.getValue();
-                try {
-                    int colIndex = table.getColumnIndex(colName);
-                    wrapperList.add(new ValueWrapper(colIndex));
-                } catch (CoSQLError coSQLError) {
-                    throw new CoSQLQueryParseError(String.format("No such column '%s'", colName));
-                }
+    /**
+     * Recursive descent over the tokens of one expression:
+     *
+     *   sum     := product (('+' | '-') product)*
+     *   product := unary (('*' | '/') unary)*
+     *   unary   := ('+' | '-') unary | number | literal | column | '(' sum ')'
+     */
+    private static class Compiler {
+
+        private final List<LexicalToken> tokens;
+        private final Table table;
+        private int next;
 
-            } else {
+        Compiler(List<LexicalToken> tokens, Table table) {
+            this.tokens = tokens;
+            this.table = table;
+        }
 
-                wrapperList.add(new ValueWrapper(token));
+        Expression compile() throws CoSQLQueryParseError {
+            if (tokens.isEmpty()) {
+                throwParseError("Missing value expression");
+            }
 
+            Expression res = sum();
+            if (next < tokens.size()) {
+                throwParseError("Unexpected '%s' in value expression", tokens.get(next).getValue());
             }
+            return res;
         }
 
-        return new ParsedTuple(wrapperList, table);
-    }
+        private Expression sum() throws CoSQLQueryParseError {
+            Expression res = product();
+            while (peekOperator("+") || peekOperator("-")) {
+                String op = tokens.get(next++).getValue();
+                res = binary(op, res, product());
+            }
+            return res;
+        }
 
-    private static class ParseData {
+        private Expression product() throws CoSQLQueryParseError {
+            Expression res = unary();
+            while (peekOperator("*") || peekOperator("/")) {
+                String op = tokens.get(next++).getValue();
+                res = binary(op, res, unary());
+            }
+            return res;
+        }
 
-        private List<LexicalToken> tokens;
-        private int next;
-        private ArrayList<CoSQLCommand> commands = new ArrayList<>();
+        private Expression unary() throws CoSQLQueryParseError {
 
-        LexicalToken nextFullToken() throws EndOfBufferException {
             if (next >= tokens.size()) {
-                throw new EndOfBufferException();
+                throwParseError("Unexpected end of value expression");
             }
-            return tokens.get(next++);
-        }
+            LexicalToken token = tokens.get(next++);
+            String value = token.getValue();
 
-        String next() throws EndOfBufferException {
-            if (next >= tokens.size()) {
-                throw new EndOfBufferException();
+            if (token.isLiteral()) {
+                final String literal = value;
+                return new StringExpression() {
+                    @Override
+                    String evalString(Table.Row row) {
+                        return literal;
+                    }
+                };
             }
-            return tokens.get(next++).getValue();
-        }
 
-        void goPrev() {
-            if (next != 0)
-                next--;
-        }
+            if (value.equals("+") || value.equals("-")) {
+                Expression operand = unary();
+                if (!(operand instanceof LongExpression)) {
+                    throwParseError("Operator '%s' is not defined on strings", value);
+                }
+                return value.equals("+") ? operand : binary("-", new LongConstant(0), operand);
+            }
 
-        void goToLast() {
-            next = tokens.size() - 1;
-        }
+            if (value.equals("(")) {
+                Expression res = sum();
+                if (!peekOperator(")")) {
+                    throwParseError("Expected ')' in value expression");
+                }
+                next++;
+                return res;
+            }
 
-        void goToFirst() {next = 0;}
+            if (token.isNumeral()) {
+                try {
+                    return new LongConstant(token.longValue());
+                } catch (NumberFormatException e) {
+                    throwParseError("Number %s is out of range", value);
+                }
+            }
 
-        LexicalToken peek() {
-            return tokens.get(next);
+            return column(value);
         }
 
-        boolean hasNext() {
-            return next < tokens.size();
+        private Expression column(String colName) throws CoSQLQueryParseError {
+
+            int colIndex = -1;
+            if (table != null) {
+                try {
+                    colIndex = table.getColumnIndex(colName);
+                } catch (CoSQLError coSQLError) {
+                    colIndex = -1;
+                }
+            }
+            if (colIndex == -1) {
+                throwParseError("No such column '%s'", colName);
+            }
+
+            final int index = colIndex;
+            if (table.getColumnAt(index).getType() == Table.ColumnType.VARCHAR) {
+                return new StringExpression() {
+                    @Override
+                    String evalString(Table.Row row) {
+                        return String.valueOf(row.getValueAt(index));
+                    }
+                };
+            }
+
+            return new LongExpression() {
+                @Override
+                long evalLong(Table.Row row) {
+                    Object value = row.getValueAt(index);
+                    if (!(value instanceof Long)) {
+                        throw NullOperand.INSTANCE;
+                    }
+                    return (Long) value;
+                }
+            };
         }
 
-        String rest() {
-            StringBuilder sb = new StringBuilder();
-            for (int i=next; i<tokens.size(); i++) {
-                sb.append(tokens.get(i));
-                if (i != tokens.size() - 1) {
-                    sb.append(" ");
+        private Expression binary(String op, final Expression left, final Expression right) throws CoSQLQueryParseError {
+
+            if (!(left instanceof LongExpression) || !(right instanceof LongExpression)) {
+                if (!op.equals("+")) {
+                    throwParseError("Operator '%s' is not defined on strings", op);
                 }
+                return new StringExpression() {
+                    @Override
+                    String evalString(Table.Row row) {
+                        return String.valueOf(left.eval(row)) + right.eval(row);
+                    }
+                };
+            }
+
+            final LongExpression l = (LongExpression) left;
+            final LongExpression r = (LongExpression) right;
+
+            // fold constant operands now, except a division that would be NULL
+            if (l instanceof LongConstant && r instanceof LongConstant
+                    && !(op.equals("/") && ((LongConstant) r).value == 0)) {
+                return new LongConstant(apply(op, ((LongConstant) l).value, ((LongConstant) r).value));
+            }
+
+            switch (op) {
+                case "+":
+                    return new LongExpression() {
+                        @Override
+                        long evalLong(Table.Row row) {
+                            return l.evalLong(row) + r.evalLong(row);
+                        }
+                    };
+                case "-":
+                    return new LongExpression() {
+                        @Override
+                        long evalLong(Table.Row row) {
+                            return l.evalLong(row) - r.evalLong(row);
+                        }
+                    };
+                case "*":
+                    return new LongExpression() {
+                        @Override
+                        long evalLong(Table.Row row) {
+                            return l.evalLong(row) * r.evalLong(row);
+                        }
+                    };
+                default:
+                    return new LongExpression() {
+                        @Override
+                        long evalLong(Table.Row row) {
+                            long divisor = r.evalLong(row);
+                            if (divisor == 0) {
+                                throw NullOperand.INSTANCE;
+                            }
+                            return l.evalLong(row) / divisor;
+                        }
+                    };
             }
-            return sb.toString();
         }
 
-        ParseData(String command) throws CoSQLQueryParseError {
-            tokens = StringUtils.tokenizeQuery(command);
-            next = 0;
+        private static long apply(String op, long a, long b) {
+            switch (op) {
+                case "+":
+                    return a + b;
+                case "-":
+                    return a - b;
+                case "*":
+                    return a * b;
+                default:
+                    return a / b;
+            }
         }
 
-        ParseData(List<LexicalToken> tokens) throws CoSQLQueryParseError {
-            this.tokens = tokens;
-            next = 0;
+        private boolean peekOperator(String op) {
+            return next < tokens.size() && !tokens.get(next).isLiteral() && tokens.get(next).getValue().equals(op);
         }
     }
 
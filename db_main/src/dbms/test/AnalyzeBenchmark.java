@@ -0,0 +1,82 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.TupleCondition;
+
+import java.util.ArrayList;
+
+/**
+ * Times conditions on indexed columns before and after ANALYZE, so the
+ * access paths picked from statistics can be set against the ones picked
+ * without them. The ranges here match most of the table.
+ *
+ * usage: AnalyzeBenchmark [rows]
+ */
+public class AnalyzeBenchmark {
+
+    private static final String[] CONDITIONS = {
+            "a>=50",
+            "a<990",
+            "NOT(b=3)",
+            "(a>500)AND(b=3)",
+            "(a>=10)AND(name=\"name 42\")",
+            "(a<5)OR(b>=1)"
+    };
+
+    private static final int RUNS = 5;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("b", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("analyze_bench", columns, "id", new ArrayList<String[]>());
+        DatabaseCore.createIndex("a_idx", "analyze_bench", "a");
+        DatabaseCore.createIndex("b_idx", "analyze_bench", "b");
+        DatabaseCore.createIndex("name_idx", "analyze_bench", "name");
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 1000));
+            row.add((long) (i % 7));
+            row.add("name " + (i % 5000));
+            values.add(row);
+        }
+        DatabaseCore.getTable("analyze_bench").insertRows(values);
+
+        long[] before = new long[CONDITIONS.length];
+        for (int i = 0; i < CONDITIONS.length; i++) {
+            before[i] = time(CONDITIONS[i]);
+        }
+
+        long start = System.nanoTime();
+        DatabaseCore.getTable("analyze_bench").analyze();
+        System.out.println(String.format("%,10.2f ms ANALYZE", (System.nanoTime() - start) / 1e6));
+
+        for (int i = 0; i < CONDITIONS.length; i++) {
+            System.out.println(String.format("%,10.2f ms before  %,10.2f ms after  %s",
+                    before[i] / 1e6, time(CONDITIONS[i]) / 1e6, CONDITIONS[i]));
+        }
+    }
+
+    /* best of a few runs, after one to warm up */
+    private static long time(String condition) throws CoSQLError {
+        new TupleCondition(condition, "analyze_bench").getContents();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            new TupleCondition(condition, "analyze_bench").getContents();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
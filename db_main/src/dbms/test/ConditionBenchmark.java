@@ -0,0 +1,74 @@
+package dbms.test;
+
+import dbms.DatabaseBible;
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.TupleCondition;
+
+import java.util.ArrayList;
+
+/**
+ * Times WHERE clauses of growing depth over a columnar table of the given
+ * number of rows. The conditions are written the way the parser hands
+ * them over: tokens glued together, binary operators between parenthesized
+ * operands.
+ *
+ * usage: ConditionBenchmark [rows]
+ */
+public class ConditionBenchmark {
+
+    private static final String[] CONDITIONS = {
+            "a=5",
+            "NOTa=5",
+            "(a>10)AND(b=3)",
+            "(((a>10)AND(a<90))AND(b=3))AND(NOTa=50)",
+            "(((((((a=1)OR(a=2))OR(a=3))OR(a=4))OR(a=5))OR(a=6))OR(a=7))OR(a=8)",
+            "((((a>10)AND(b<5))OR((a<5)AND(b>1)))AND(NOTb=3))OR(((a=50)OR(a=51))AND(NOTa=51))",
+            "(id>1000)AND(((a>10)AND(b<5))OR(a=7))",
+            "id=4242",
+            "((id=5)OR(id=77))OR(id=4242)",
+            "(NOTid<1000)AND(NOTid>=1010)"
+    };
+
+    private static final int RUNS = 5;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        DatabaseBible.DEFAULT_STORAGE_MODE = Table.StorageMode.COLUMNAR;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("b", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("cond_bench", columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 100));
+            row.add((long) (i % 7));
+            row.add("name " + i);
+            values.add(row);
+        }
+        DatabaseCore.getTable("cond_bench").insertRows(values);
+
+        for (String condition : CONDITIONS) {
+
+            // one run to warm up, then the best of the rest
+            int matched = new TupleCondition(condition, "cond_bench").getContents().size();
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < RUNS; i++) {
+                long start = System.nanoTime();
+                new TupleCondition(condition, "cond_bench").getContents();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%,10.2f ms  %,8d rows  %s", best / 1e6, matched, condition));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.EndOfSessionException;
+import dbms.parser.GroupByData;
+import dbms.parser.LexicalToken;
+import dbms.parser.QueryParser;
+import dbms.parser.SelectValue;
+import dbms.parser.TupleCondition;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Benchmarks of the engine's hot paths, driving DatabaseCore directly, at
+ * each of the given table sizes so that their scaling shows:
+ *
+ *   INSERT with its PK and FK checks, filtering on an indexed and on an
+ *   unindexed column with each comparison, join and Cartesian product,
+ *   GROUP BY with each aggregate, DELETE cascading to a referencing
+ *   table, and INSERT and SELECT statements through the parser.
+ *
+ * Each benchmark and size gets fresh tables, a warm-up, then ITERATIONS
+ * iterations of ITERATION_MILLIS each; only the invocations themselves are
+ * timed, not what puts the tables back in shape between them. Prints the
+ * mean throughput and its standard deviation over the iterations, and
+ * the mean time of an invocation.
+ *
+ * usage: EngineBenchmarks [sizes, comma separated] [only names containing]
+ */
+public class EngineBenchmarks {
+
+    private static final int WARMUP_MILLIS = 1000;
+    private static final int ITERATIONS = 5;
+    private static final int ITERATION_MILLIS = 500;
+
+    /* fraction of the rows the filters' constant splits off, values are 0 .. DISTINCT-1 */
+    private static final int DISTINCT = 1000;
+
+    private static final int GROUPS = 100;
+
+    /* rows of the small side of the Cartesian product, so that it grows linearly with the size */
+    private static final int PRODUCT_ROWS = 10;
+
+    /* results are folded in here so that no invocation can be optimized away */
+    static volatile long sink;
+
+    /**
+     * One benchmark: tables made by setup for a size, an invocation run
+     * over and over, the tables dropped by tearDown.
+     */
+    abstract static class Benchmark {
+
+        final String name;
+        private final ArrayList<Table> tables = new ArrayList<>();
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        abstract void setup(int size) throws CoSQLError;
+
+        /* one invocation, timed */
+        abstract long run() throws CoSQLError, EndOfSessionException;
+
+        /* puts back what an invocation changed, not timed */
+        void afterEach() throws CoSQLError {
+        }
+
+        void tearDown() {
+            for (Table table : tables) {
+                DatabaseCore.getCurrentDatabase().removeTable(table);
+            }
+            tables.clear();
+        }
+
+        /* a table named after the benchmark's, of INT columns, the first its primary key */
+        Table create(String name, int size, ArrayList<String[]> foreignKeys, String... columns) throws CoSQLError {
+            ArrayList<Table.Column> res = new ArrayList<>();
+            for (String column : columns) {
+                res.add(new Table.Column(column, Table.ColumnType.INT));
+            }
+            return create(name, size, foreignKeys, res);
+        }
+
+        Table create(String name, int size, ArrayList<String[]> foreignKeys, ArrayList<Table.Column> columns) throws CoSQLError {
+            String tableName = name + "_" + size;
+            DatabaseCore.createTable(tableName, columns, columns.get(0).getName(), foreignKeys);
+            Table table = DatabaseCore.getTable(tableName);
+            tables.add(table);
+            return table;
+        }
+    }
+
+    public static void main(String... args) throws CoSQLError, EndOfSessionException {
+
+        String[] sizes = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+        String only = args.length > 1 ? args[1] : "";
+
+        ArrayList<Benchmark> benchmarks = benchmarks();
+
+        // the engine reports every statement, none of it is wanted here
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        out.println(String.format("%-32s %10s %14s %12s %12s", "benchmark", "size", "ops/s", "+-", "us/op"));
+
+        for (String s : sizes) {
+            int size = Integer.parseInt(s.trim());
+
+            for (Benchmark benchmark : benchmarks) {
+                if (!benchmark.name.contains(only)) {
+                    continue;
+                }
+
+                benchmark.setup(size);
+
+                measure(benchmark, WARMUP_MILLIS);
+
+                double[] throughput = new double[ITERATIONS];
+                long invocations = 0;
+                long nanos = 0;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long[] res = measure(benchmark, ITERATION_MILLIS);
+                    throughput[i] = res[0] * 1e9 / res[1];
+                    invocations += res[0];
+                    nanos += res[1];
+                }
+
+                benchmark.tearDown();
+
+                double mean = 0;
+                for (double t : throughput) {
+                    mean += t / ITERATIONS;
+                }
+                double variance = 0;
+                for (double t : throughput) {
+                    variance += (t - mean) * (t - mean) / (ITERATIONS - 1);
+                }
+
+                out.println(String.format("%-32s %,10d %,14.1f %,12.1f %,12.2f",
+                        benchmark.name, size, mean, Math.sqrt(variance), nanos / 1e3 / invocations));
+            }
+        }
+    }
+
+    /* invokes the benchmark until the invocations took the given time, returns their number and nanoseconds */
+    private static long[] measure(Benchmark benchmark, long millis) throws CoSQLError, EndOfSessionException {
+
+        long invocations = 0;
+        long nanos = 0;
+        long res = 0;
+
+        while (nanos < millis * 1000000) {
+            long start = System.nanoTime();
+            res += benchmark.run();
+            nanos += System.nanoTime() - start;
+            invocations++;
+
+            benchmark.afterEach();
+        }
+
+        sink += res;
+        return new long[]{invocations, nanos};
+    }
+
+    private static ArrayList<Benchmark> benchmarks() {
+
+        ArrayList<Benchmark> res = new ArrayList<>();
+
+        res.add(new Benchmark("insert pk+fk") {
+
+            private Table child;
+            private int size;
+            private long next;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                this.size = size;
+                Table parent = create("ins_parent", size, new ArrayList<String[]>(), "id");
+                parent.insertRows(rows(size, 1));
+                child = create("ins_child", size, foreignKey("parent_id", parent, "cascade"), "id", "parent_id");
+                child.insertRows(rows(size, 2));
+                next = size;
+            }
+
+            @Override
+            long run() throws CoSQLError {
+                ArrayList<LexicalToken> values = new ArrayList<>(2);
+                values.add(new LexicalToken(String.valueOf(next), false));
+                values.add(new LexicalToken(String.valueOf(next++ % size), false));
+                return DatabaseCore.insertItems(child.getName(), values, true) ? 1 : 0;
+            }
+        });
+
+        String[] operators = {"=", ">", ">=", "<", "<="};
+        for (final String operator : operators) {
+            for (final boolean indexed : new boolean[]{true, false}) {
+
+                final String condition = (indexed ? "a" : "b") + operator + (DISTINCT / 2);
+                res.add(new Benchmark("filter " + condition + (indexed ? " (indexed)" : " (scan)")) {
+
+                    private Table table;
+
+                    @Override
+                    void setup(int size) throws CoSQLError {
+                        table = create("filter", size, new ArrayList<String[]>(), "id", "a", "b");
+                        table.insertRows(rows(size, 3));
+                        DatabaseCore.createIndex("a_idx", table.getName(), "a");
+                    }
+
+                    @Override
+                    long run() throws CoSQLError {
+                        return new TupleCondition(condition, table.getName()).getContents().size();
+                    }
+                });
+            }
+        }
+
+        res.add(new Benchmark("join") {
+
+            private Table parent;
+            private Table child;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                parent = create("join_parent", size, new ArrayList<String[]>(), "id", "x");
+                parent.insertRows(rows(size, 2));
+                child = create("join_child", size, foreignKey("parent_id", parent, "cascade"), "id", "parent_id");
+                child.insertRows(children(size));
+            }
+
+            @Override
+            long run() {
+                return child.join(parent).getRowCount();
+            }
+        });
+
+        res.add(new Benchmark("cartesianProduct x" + PRODUCT_ROWS) {
+
+            private Table left;
+            private Table right;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                left = create("product_left", size, new ArrayList<String[]>(), "id", "x");
+                left.insertRows(rows(size, 2));
+                right = create("product_right", size, new ArrayList<String[]>(), "id", "y");
+                right.insertRows(rows(PRODUCT_ROWS, 2));
+            }
+
+            @Override
+            long run() {
+                return left.cartesianProduct(right).getRowCount();
+            }
+        });
+
+        for (final GroupByData.Method method : GroupByData.Method.values()) {
+            res.add(new Benchmark("group by " + method.getText()) {
+
+                private ArrayList<String> tableNames;
+                private ArrayList<SelectValue> selectValues;
+                private GroupByData groupBy;
+
+                @Override
+                void setup(int size) throws CoSQLError {
+                    Table table = create("group", size, new ArrayList<String[]>(), "id", "k", "v");
+                    ArrayList<ArrayList<Object>> rows = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        ArrayList<Object> row = new ArrayList<>();
+                        row.add((long) i);
+                        row.add((long) (i % GROUPS));
+                        row.add((long) (i % DISTINCT));
+                        rows.add(row);
+                    }
+                    table.insertRows(rows);
+
+                    tableNames = new ArrayList<>();
+                    tableNames.add(table.getName());
+                    selectValues = new ArrayList<>();
+                    selectValues.add(SelectValue.fromIndividualColumn("k"));
+                    selectValues.add(SelectValue.fromAggregateFunction(method, "v"));
+                    ArrayList<String> groupColumns = new ArrayList<>();
+                    groupColumns.add("k");
+                    groupBy = new GroupByData(groupColumns, null);
+                }
+
+                @Override
+                long run() throws CoSQLError {
+                    return DatabaseCore.select(tableNames, selectValues, "TRUE", 0, groupBy, -1).getRowCount();
+                }
+            });
+        }
+
+        res.add(new Benchmark("delete cascade") {
+
+            private Table parent;
+            private Table child;
+            private int size;
+            private long key;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                this.size = size;
+                parent = create("del_parent", size, new ArrayList<String[]>(), "id");
+                parent.insertRows(rows(size, 1));
+                child = create("del_child", size, foreignKey("parent_id", parent, "cascade"), "id", "parent_id");
+                child.insertRows(children(size));
+            }
+
+            @Override
+            long run() throws CoSQLError {
+                ArrayList<Table.Row> rows = new TupleCondition("id=" + key, parent.getName()).getContents();
+                return DatabaseCore.deleteItems(parent.getName(), rows, true) ? 1 : 0;
+            }
+
+            @Override
+            void afterEach() {
+                ArrayList<ArrayList<Object>> row = new ArrayList<>();
+                row.add(values(key));
+                parent.insertRows(row);
+
+                row = new ArrayList<>();
+                row.add(values(key, key));
+                child.insertRows(row);
+
+                key = (key + 1) % size;
+            }
+        });
+
+        res.add(new Benchmark("parseAndRun INSERT") {
+
+            private final QueryParser parser = new QueryParser(null);
+            private String tableName;
+            private long next;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                ArrayList<Table.Column> columns = new ArrayList<>();
+                columns.add(new Table.Column("id", Table.ColumnType.INT));
+                columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+                tableName = create("parse_insert", size, new ArrayList<String[]>(), columns).getName();
+                next = 0;
+            }
+
+            @Override
+            long run() throws CoSQLError, EndOfSessionException {
+                parser.parseAndRun("INSERT INTO " + tableName + " VALUES (" + next++ + ", \"some name\");");
+                return 1;
+            }
+        });
+
+        res.add(new Benchmark("parseAndRun SELECT by PK") {
+
+            private final QueryParser parser = new QueryParser(null);
+            private String tableName;
+            private int size;
+            private long key;
+
+            @Override
+            void setup(int size) throws CoSQLError {
+                this.size = size;
+                tableName = create("parse_select", size, new ArrayList<String[]>(), "id", "x").getName();
+                DatabaseCore.getTable(tableName).insertRows(rows(size, 2));
+            }
+
+            @Override
+            long run() throws CoSQLError, EndOfSessionException {
+                parser.parseAndRun("SELECT x FROM " + tableName + " WHERE id = " + key + ";");
+                key = (key + 1) % size;
+                return 1;
+            }
+        });
+
+        return res;
+    }
+
+    /* FK details of a column referencing the table, as CREATE TABLE passes them */
+    private static ArrayList<String[]> foreignKey(String column, Table reference, String onDelete) {
+        ArrayList<String[]> res = new ArrayList<>();
+        res.add(new String[]{column, reference.getName(), onDelete, "cascade"});
+        return res;
+    }
+
+    /* rows i, (i, i % DISTINCT, ...) for the given number of columns */
+    private static ArrayList<ArrayList<Object>> rows(int count, int columns) {
+        ArrayList<ArrayList<Object>> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ArrayList<Object> row = new ArrayList<>(columns);
+            row.add((long) i);
+            for (int c = 1; c < columns; c++) {
+                row.add((long) (i % DISTINCT));
+            }
+            res.add(row);
+        }
+        return res;
+    }
+
+    /* rows (i, i), each referencing parent i */
+    private static ArrayList<ArrayList<Object>> children(int count) {
+        ArrayList<ArrayList<Object>> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            res.add(values(i, i));
+        }
+        return res;
+    }
+
+    private static ArrayList<Object> values(long... values) {
+        ArrayList<Object> res = new ArrayList<>(values.length);
+        for (long value : values) {
+            res.add(value);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,72 @@
+package dbms.test;
+
+import dbms.parser.QueryParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Literals with an escaped quote and an escaped backslash in the parts of
+ * a query the parser writes back as text: a WHERE condition, the value of
+ * an UPDATE SET and the values an EXECUTE binds. Each must reach the table
+ * as it was written, and be found by a condition comparing to it.
+ *
+ * usage: EscapedLiteralTest
+ */
+public class EscapedLiteralTest {
+
+    private static final QueryParser parser = new QueryParser(null);
+
+    public static void main(String... args) throws Exception {
+
+        run("CREATE TABLE esc (id INT, s VARCHAR) PRIMARY KEY id;");
+        run("INSERT INTO esc VALUES (1, \"a\\\"b\"), (2, \"back\\\\slash\"), (3, \"x\"), (4, \"y\"), (5, \"z\");");
+
+        // WHERE
+        check("SELECT id, s FROM esc WHERE s = \"a\\\"b\";", "1,a\"b");
+        check("SELECT id, s FROM esc WHERE s = \"back\\\\slash\";", "2,back\\slash");
+        check("SELECT id, s FROM esc WHERE (s = \"a\\\"b\")OR(s = \"(\\\")\");", "1,a\"b");
+
+        // UPDATE SET
+        run("UPDATE esc SET s = \"q\\\"q\" WHERE id = 3;");
+        check("SELECT id, s FROM esc WHERE s = \"q\\\"q\";", "3,q\"q");
+        run("UPDATE esc SET s = \"r\\\\r\" WHERE s = \"y\";");
+        check("SELECT id, s FROM esc WHERE id = 4;", "4,r\\r");
+
+        // prepared, the values bound at EXECUTE
+        run("PREPARE u AS UPDATE esc SET s = ? WHERE id = ?;");
+        run("EXECUTE u(\"z\\\"z\", 5);");
+        check("SELECT id, s FROM esc WHERE id = 5;", "5,z\"z");
+        run("PREPARE q AS SELECT id, s FROM esc WHERE s = ?;");
+        check("EXECUTE q(\"z\\\"z\");", "5,z\"z");
+        check("EXECUTE q(\"back\\\\slash\");", "2,back\\slash");
+
+        System.out.println("OK");
+    }
+
+    private static void run(String query) throws Exception {
+        output(query);
+    }
+
+    /* the query must print the header and then exactly the given row */
+    private static void check(String query, String row) throws Exception {
+        String expected = "id,s\n" + row + "\n";
+        String res = output(query);
+        if (!res.equals(expected)) {
+            throw new AssertionError(query + " printed\n" + res + "instead of\n" + expected);
+        }
+    }
+
+    private static String output(String query) throws Exception {
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer));
+        try {
+            parser.parseAndRun(query);
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package dbms.test;
+
+import dbms.DatabaseBible;
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.GroupByData;
+import dbms.parser.QueryParser;
+import dbms.parser.SelectValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * EXPLAIN ANALYZE of queries with stages that build something: a hash
+ * aggregate, a hash join and a scan of the columnar layout, which makes a
+ * row for every match. Each of those must report the bytes it allocated,
+ * and no stage may report fewer than none.
+ *
+ * usage: ExplainAnalyzeTest [rows]
+ */
+public class ExplainAnalyzeTest {
+
+    private static final Pattern ALLOCATED = Pattern.compile("ALLOCATED (-?\\d+) BYTES");
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        // allocation is counted on the calling thread, keep the work there
+        DatabaseBible.PARALLELISM = 1;
+
+        GroupByFixture.createTable("explain_groups", rows, 1000);
+        DatabaseBible.DEFAULT_STORAGE_MODE = Table.StorageMode.COLUMNAR;
+        GroupByFixture.createTable("explain_columnar", rows, 10);
+        DatabaseBible.DEFAULT_STORAGE_MODE = Table.StorageMode.ROW;
+
+        String aggregate = explain(tables("explain_groups"), GroupByFixture.selectValues(1000), "v>=0",
+                QueryParser.CART, GroupByFixture.groupBy(1000));
+        if (aggregate == null) {
+            System.out.println("SKIPPED, the JVM does not count allocated bytes");
+            return;
+        }
+        check(aggregate, "HASH AGGREGATE");
+
+        ArrayList<SelectValue> ids = new ArrayList<>();
+        ids.add(SelectValue.fromIndividualColumn("explain_groups.id"));
+        check(explain(tables("explain_groups", "explain_columnar"), ids, "explain_groups.id=explain_columnar.id",
+                QueryParser.CART, null), "HASH JOIN");
+
+        ArrayList<SelectValue> values = new ArrayList<>();
+        values.add(SelectValue.fromIndividualColumn("v"));
+        check(explain(tables("explain_columnar"), values, "k10=3", QueryParser.CART, null), "COLUMNAR SCAN");
+
+        System.out.println("OK");
+    }
+
+    /* what EXPLAIN ANALYZE prints, null if it counts no bytes */
+    private static String explain(ArrayList<String> tableNames, ArrayList<SelectValue> selectValues, String condition,
+                                  int type, GroupByData groupBy) throws CoSQLError {
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer));
+        try {
+            DatabaseCore.explain(tableNames, selectValues, condition, type, groupBy, -1, true);
+        } finally {
+            System.setOut(out);
+        }
+
+        String res = buffer.toString();
+        return res.contains("ALLOCATED") ? res : null;
+    }
+
+    /* the stage must have allocated something, no stage less than nothing */
+    private static void check(String explain, String stage) {
+
+        boolean found = false;
+        for (String line : explain.split("\n")) {
+
+            Matcher m = ALLOCATED.matcher(line);
+            if (!m.find()) {
+                continue;
+            }
+
+            long bytes = Long.parseLong(m.group(1));
+            if (bytes < 0) {
+                throw new AssertionError("negative allocation in:\n" + explain);
+            }
+            if (line.contains(stage)) {
+                found = true;
+                if (bytes == 0) {
+                    throw new AssertionError(stage + " allocated nothing in:\n" + explain);
+                }
+            }
+        }
+
+        if (!found) {
+            throw new AssertionError("no " + stage + " stage in:\n" + explain);
+        }
+    }
+
+    private static ArrayList<String> tables(String... names) {
+        ArrayList<String> res = new ArrayList<>();
+        for (String name : names) {
+            res.add(name);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,48 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.GroupByData;
+import dbms.parser.SelectValue;
+
+import java.util.ArrayList;
+
+/**
+ * Times SELECT k, MIN(v), MAX(v), SUM(v), AVG(v) ... GROUP BY k over a
+ * table of the given size, for a few numbers of groups.
+ *
+ * usage: GroupByBenchmark [rows]
+ */
+public class GroupByBenchmark {
+
+    private static final int[] GROUPS = {10, 1000, 100000};
+
+    private static final int RUNS = 3;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+        GroupByFixture.createTable("group_bench", rows, GROUPS);
+
+        ArrayList<String> tableNames = new ArrayList<>();
+        tableNames.add("group_bench");
+
+        for (int groups : GROUPS) {
+
+            ArrayList<SelectValue> selectValues = GroupByFixture.selectValues(groups);
+            GroupByData groupBy = GroupByFixture.groupBy(groups);
+
+            long best = Long.MAX_VALUE;
+            int count = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                count = DatabaseCore.select(tableNames, selectValues, "TRUE", 0, groupBy, -1).getRowCount();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            System.out.println(String.format("%,10.1f ms  %,12.0f rows/s  %,8d groups",
+                    best / 1e6, rows * 1e9 / best, count));
+        }
+    }
+}
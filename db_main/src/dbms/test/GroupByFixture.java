@@ -0,0 +1,60 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.GroupByData;
+import dbms.parser.SelectValue;
+
+import java.util.ArrayList;
+
+/**
+ * The table the GROUP BY benchmarks aggregate: an INT primary key id, a
+ * key column k&lt;n&gt; with n groups for each n asked for, spread evenly
+ * over the rows, and an INT value v from 0 to 999.
+ */
+class GroupByFixture {
+
+    static void createTable(String name, int rows, int... groups) throws CoSQLError {
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        for (int n : groups) {
+            columns.add(new Table.Column(keyColumn(n), Table.ColumnType.INT));
+        }
+        columns.add(new Table.Column("v", Table.ColumnType.INT));
+        DatabaseCore.createTable(name, columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            for (int n : groups) {
+                row.add((i * 7919L) % n);
+            }
+            row.add((long) (i % 1000));
+            values.add(row);
+        }
+        DatabaseCore.getTable(name).insertRows(values);
+    }
+
+    static String keyColumn(int groups) {
+        return "k" + groups;
+    }
+
+    /* k<groups>, then every aggregate of v */
+    static ArrayList<SelectValue> selectValues(int groups) {
+        ArrayList<SelectValue> res = new ArrayList<>();
+        res.add(SelectValue.fromIndividualColumn(keyColumn(groups)));
+        for (GroupByData.Method method : GroupByData.Method.values()) {
+            res.add(SelectValue.fromAggregateFunction(method, "v"));
+        }
+        return res;
+    }
+
+    static GroupByData groupBy(int groups) {
+        ArrayList<String> columns = new ArrayList<>();
+        columns.add(keyColumn(groups));
+        return new GroupByData(columns, null);
+    }
+}
@@ -0,0 +1,72 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.LexicalToken;
+import dbms.parser.QueryParser;
+import dbms.parser.SelectValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash joins on keys that are NULL on both sides, in an INT and in a
+ * VARCHAR column. NULL never equals NULL, so either join pairs only the
+ * rows whose keys are equal values, the same rows whatever the type.
+ *
+ * usage: HashJoinNullTest
+ */
+public class HashJoinNullTest {
+
+    public static void main(String... args) throws CoSQLError {
+
+        for (String table : new String[]{"jl", "jr"}) {
+            ArrayList<Table.Column> columns = new ArrayList<>();
+            columns.add(new Table.Column("id", Table.ColumnType.INT));
+            columns.add(new Table.Column("n", Table.ColumnType.INT));
+            columns.add(new Table.Column("s", Table.ColumnType.VARCHAR));
+            DatabaseCore.createTable(table, columns, "id", new ArrayList<String[]>());
+        }
+
+        // keys 1 and 2 on both sides, two NULL keys on the left and one on the right
+        insert("jl", 1, "1", "a");
+        insert("jl", 2, "2", "b");
+        insert("jl", 3, "NULL", "NULL");
+        insert("jl", 4, "NULL", "NULL");
+        insert("jr", 1, "1", "a");
+        insert("jr", 2, "2", "b");
+        insert("jr", 3, "NULL", "NULL");
+        insert("jr", 4, "3", "c");
+
+        check("jl.n=jr.n", 2);
+        check("jl.s=jr.s", 2);
+        check("jr.n=jl.n", 2);
+
+        System.out.println("OK");
+    }
+
+    private static void insert(String table, int id, String n, String s) throws CoSQLError {
+        List<LexicalToken> values = new ArrayList<>(3);
+        values.add(new LexicalToken(String.valueOf(id), false));
+        values.add(new LexicalToken(n, false));
+        values.add(s.equals("NULL") ? new LexicalToken(s, false) : new LexicalToken(s, true));
+        DatabaseCore.insertItems(table, values, true);
+    }
+
+    private static void check(String condition, int expected) throws CoSQLError {
+
+        ArrayList<String> tables = new ArrayList<>();
+        tables.add("jl");
+        tables.add("jr");
+        ArrayList<SelectValue> selectValues = new ArrayList<>();
+        selectValues.add(SelectValue.fromIndividualColumn("jl.id"));
+        selectValues.add(SelectValue.fromIndividualColumn("jr.id"));
+
+        Table result = DatabaseCore.select(tables, selectValues, condition, QueryParser.CART, null, -1);
+        if (result.getRowCount() != expected) {
+            throw new AssertionError(String.format("%s joined %d rows, %d expected:\n%s",
+                    condition, result.getRowCount(), expected, result.getRows()));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.TupleCondition;
+
+import java.util.ArrayList;
+
+/**
+ * Times conjunctions of conditions on two different columns over two
+ * copies of the same rows, one with an index on every column and one
+ * with the primary key index only, so the index intersection can be set
+ * against a scan.
+ *
+ * usage: IndexIntersectBenchmark [rows]
+ */
+public class IndexIntersectBenchmark {
+
+    private static final String[] CONDITIONS = {
+            "(a>10)AND(name=\"name 42\")",
+            "(a>500)AND(b=3)",
+            "(a<20)AND(b>=5)",
+            "((a>=100)AND(a<200))AND(b=0)"
+    };
+
+    private static final int RUNS = 5;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        fill("indexed", rows);
+        DatabaseCore.createIndex("a_idx", "indexed", "a");
+        DatabaseCore.createIndex("b_idx", "indexed", "b");
+        DatabaseCore.createIndex("name_idx", "indexed", "name");
+        fill("plain", rows);
+
+        for (String condition : CONDITIONS) {
+            long indexed = time("indexed", condition);
+            long plain = time("plain", condition);
+            System.out.println(String.format("%,10.2f ms indexed  %,10.2f ms scan  %s",
+                    indexed / 1e6, plain / 1e6, condition));
+        }
+    }
+
+    private static void fill(String name, int rows) throws CoSQLError {
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("b", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable(name, columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 1000));
+            row.add((long) (i % 7));
+            row.add("name " + (i % 5000));
+            values.add(row);
+        }
+        DatabaseCore.getTable(name).insertRows(values);
+    }
+
+    /* best of a few runs, after one to warm up */
+    private static long time(String table, String condition) throws CoSQLError {
+        new TupleCondition(condition, table).getContents();
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            new TupleCondition(condition, table).getContents();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,48 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.LexicalToken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts into a table with a primary key in fixed size rounds and prints
+ * the throughput of every round. With the C1 check probing the PK index
+ * the numbers should stay flat while the table grows.
+ *
+ * usage: InsertBenchmark [total rows] [rows per round]
+ */
+public class InsertBenchmark {
+
+    public static void main(String... args) throws CoSQLError {
+
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int round = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("insert_bench", columns, "id", new ArrayList<String[]>());
+
+        int inserted = 0;
+        while (inserted < total) {
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < round && inserted < total; i++, inserted++) {
+                List<LexicalToken> values = new ArrayList<>(2);
+                values.add(new LexicalToken(String.valueOf(inserted), false));
+                values.add(new LexicalToken("name" + inserted, true));
+
+                // reference mode keeps it quiet, no "RECORD INSERTED" per row
+                DatabaseCore.insertItems("insert_bench", values, true);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%,12d rows  %,12.0f inserts/s", inserted, round * 1e9 / elapsed));
+        }
+    }
+}
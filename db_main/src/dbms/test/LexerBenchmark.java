@@ -0,0 +1,87 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.EndOfSessionException;
+import dbms.parser.QueryParser;
+import dbms.util.StringUtils;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Prints the statements per second StringUtils.tokenizeQuery splits for a
+ * few kinds of statement, then those QueryParser parses and runs for a
+ * stream of INSERTs (lexing, parsing and inserting, output discarded).
+ *
+ * usage: LexerBenchmark [statements]
+ */
+public class LexerBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String... args) throws CoSQLError, EndOfSessionException {
+
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        StringBuilder longText = new StringBuilder();
+        while (longText.length() < 4096) {
+            longText.append("lorem ipsum dolor sit amet, ");
+        }
+
+        String[] names = {"INSERT", "SELECT", "INSERT 4KB literal"};
+        String[] statements = {
+                "INSERT INTO people VALUES (123456, \"John Smith\", 42, \"London\");",
+                "SELECT id, name FROM people WHERE ((age>=18)AND(city=\"London\"))OR(id=7) GROUP BY name;",
+                "INSERT INTO notes VALUES (1, \"" + longText + "\");"
+        };
+
+        for (int s = 0; s < statements.length; s++) {
+
+            // the long literal is that many times more characters
+            int n = s == 2 ? count / 50 : count;
+
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    StringUtils.tokenizeQuery(statements[s]);
+                }
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.println(String.format("tokenize %-20s %,12.0f statements/s", names[s], n * 1e9 / best));
+        }
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        columns.add(new Table.Column("age", Table.ColumnType.INT));
+        columns.add(new Table.Column("city", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("people", columns, "id", new ArrayList<String[]>());
+
+        QueryParser parser = new QueryParser(null);
+        int inserts = count / 5;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < inserts; i++) {
+            parser.parseAndRun("INSERT INTO people VALUES (" + i + ", \"John Smith\", 42, \"London\");");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.setOut(out);
+        System.out.println(String.format("parse and run INSERT            %,12.0f statements/s", inserts * 1e9 / elapsed));
+    }
+}
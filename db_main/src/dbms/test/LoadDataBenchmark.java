@@ -0,0 +1,46 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes a CSV file of the given number of rows and loads it with
+ * LOAD DATA into a table with a primary key and an extra index; the
+ * loader prints its own rows/s.
+ *
+ * usage: LoadDataBenchmark [rows]
+ */
+public class LoadDataBenchmark {
+
+    public static void main(String... args) throws CoSQLError, IOException {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        File csv = File.createTempFile("load_bench", ".csv");
+        csv.deleteOnExit();
+
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(csv))) {
+            out.write("id,name,value\n");
+            for (int i = 0; i < rows; i++) {
+                out.write(i + ",\"name " + i + "\"," + (i % 1000) + "\n");
+            }
+        }
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        columns.add(new Table.Column("value", Table.ColumnType.INT));
+        DatabaseCore.createTable("load_bench", columns, "id", new ArrayList<String[]>());
+        DatabaseCore.createIndex("value_idx", "load_bench", "value");
+
+        System.out.println(String.format("%,d rows, %,d KB", rows, csv.length() / 1024));
+        DatabaseCore.loadData(csv.getPath(), "load_bench", 1);
+    }
+}
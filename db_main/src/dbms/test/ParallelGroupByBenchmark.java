@@ -0,0 +1,55 @@
+package dbms.test;
+
+import dbms.DatabaseBible;
+import dbms.engine.DatabaseCore;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.GroupByData;
+import dbms.parser.SelectValue;
+
+import java.util.ArrayList;
+
+/**
+ * Times SELECT k, MIN(v), MAX(v), SUM(v), AVG(v) ... WHERE v >= 0 GROUP BY k
+ * over a table of the given size with 1, 2, 4, ... workers, up to the
+ * number of cores (or the given maximum), and prints the speed-up over one.
+ *
+ * usage: ParallelGroupByBenchmark [rows] [max workers]
+ */
+public class ParallelGroupByBenchmark {
+
+    private static final int GROUPS = 1000;
+
+    private static final int RUNS = 3;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        GroupByFixture.createTable("parallel_bench", rows, GROUPS);
+
+        ArrayList<String> tableNames = new ArrayList<>();
+        tableNames.add("parallel_bench");
+        ArrayList<SelectValue> selectValues = GroupByFixture.selectValues(GROUPS);
+        GroupByData groupBy = GroupByFixture.groupBy(GROUPS);
+
+        double single = 0;
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+
+            DatabaseBible.PARALLELISM = workers;
+
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                DatabaseCore.select(tableNames, selectValues, "v>=0", 0, groupBy, -1);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            if (workers == 1) {
+                single = best;
+            }
+            System.out.println(String.format("%3d workers  %,10.1f ms  %,12.0f rows/s  %5.2fx",
+                    workers, best / 1e6, rows * 1e9 / best, single / best));
+        }
+    }
+}
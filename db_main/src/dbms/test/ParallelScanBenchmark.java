@@ -0,0 +1,66 @@
+package dbms.test;
+
+import dbms.DatabaseBible;
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.TuplePredicate;
+
+import java.util.ArrayList;
+
+/**
+ * Times filtering a table of the given size on a condition no index
+ * answers ((v>=100)AND(v<200), a tenth of the rows) with 1, 2, 4, ...
+ * workers, up to the number of cores (or the given maximum), and prints
+ * the speed-up over one.
+ *
+ * usage: ParallelScanBenchmark [rows] [max workers]
+ */
+public class ParallelScanBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+        int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("v", Table.ColumnType.INT));
+        DatabaseCore.createTable("scan_bench", columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((i * 7919L) % 1000);
+            values.add(row);
+        }
+        Table table = DatabaseCore.getTable("scan_bench");
+        table.insertRows(values);
+        values = null;
+
+        TuplePredicate predicate = TuplePredicate.compile("(v>=100)AND(v<200)", table);
+
+        double single = 0;
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+
+            DatabaseBible.PARALLELISM = workers;
+
+            long best = Long.MAX_VALUE;
+            int found = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                found = DatabaseCore.filter(table, predicate).size();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+
+            if (workers == 1) {
+                single = best;
+            }
+            System.out.println(String.format("%3d workers  %,10.1f ms  %,12.0f rows/s  %5.2fx  (%d found)",
+                    workers, best / 1e6, rows * 1e9 / best, single / best, found));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.exceptions.EndOfSessionException;
+import dbms.parser.PreparedQuery;
+import dbms.parser.QueryParser;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Runs the same INSERT, then the same point SELECT by primary key, the
+ * given number of times, each once as statement text through the parser
+ * and once as a prepared statement with the values bound, and prints the
+ * statements per second of both. Results are not printed while timed.
+ *
+ * usage: PreparedBenchmark [statements]
+ */
+public class PreparedBenchmark {
+
+    public static void main(String... args) throws CoSQLError, EndOfSessionException {
+
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("text_bench", columns, "id", new ArrayList<String[]>());
+        DatabaseCore.createTable("prepared_bench", columns, "id", new ArrayList<String[]>());
+
+        QueryParser parser = new QueryParser(null);
+        PreparedQuery insert = parser.prepare("INSERT INTO prepared_bench VALUES (?, ?);");
+        PreparedQuery select = parser.prepare("SELECT name FROM prepared_bench WHERE id = ?;");
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            parser.parseAndRun("INSERT INTO text_bench VALUES (" + i + ", \"name " + i + "\");");
+        }
+        long textInsert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            insert.execute(i, "name " + i);
+        }
+        long preparedInsert = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            parser.parseAndRun("SELECT name FROM text_bench WHERE id = " + i + ";");
+        }
+        long textSelect = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            select.execute(i);
+        }
+        long preparedSelect = System.nanoTime() - start;
+
+        System.setOut(out);
+
+        System.out.println(String.format("INSERT  text %,10.0f/s  prepared %,10.0f/s  %5.2fx",
+                count * 1e9 / textInsert, count * 1e9 / preparedInsert, textInsert / (double) preparedInsert));
+        System.out.println(String.format("SELECT  text %,10.0f/s  prepared %,10.0f/s  %5.2fx",
+                count * 1e9 / textSelect, count * 1e9 / preparedSelect, textSelect / (double) preparedSelect));
+    }
+}
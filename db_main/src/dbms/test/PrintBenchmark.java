@@ -0,0 +1,93 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.ResultSink;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.SelectValue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/**
+ * Prints SELECT * over a table of the given size to a stream that only
+ * counts bytes, once by building the result table and its string and once
+ * through a {@link ResultSink.Printer}, timing the first byte out and the
+ * last.
+ *
+ * usage: PrintBenchmark [rows]
+ */
+public class PrintBenchmark {
+
+    /* counts what is written, remembering when the first byte came */
+    private static class Counter extends OutputStream {
+
+        long start;
+        long firstByte;
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            written(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written(len);
+        }
+
+        private void written(int len) {
+            if (bytes == 0) {
+                firstByte = System.nanoTime() - start;
+            }
+            bytes += len;
+        }
+    }
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("print_bench", columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 1000));
+            row.add("name " + (i % 5000));
+            values.add(row);
+        }
+        DatabaseCore.getTable("print_bench").insertRows(values);
+        values = null;
+
+        ArrayList<String> tableNames = new ArrayList<>();
+        tableNames.add("print_bench");
+        ArrayList<SelectValue> selectValues = new ArrayList<>();
+        selectValues.add(SelectValue.fromIndividualColumn("id"));
+        selectValues.add(SelectValue.fromIndividualColumn("a"));
+        selectValues.add(SelectValue.fromIndividualColumn("name"));
+
+        for (int run = 0; run < 3; run++) {
+
+            Counter whole = new Counter();
+            whole.start = System.nanoTime();
+            new PrintStream(whole).println(DatabaseCore.select(tableNames, selectValues, "TRUE", 0, null, -1));
+            long wholeTime = System.nanoTime() - whole.start;
+
+            Counter streamed = new Counter();
+            streamed.start = System.nanoTime();
+            DatabaseCore.select(tableNames, selectValues, "TRUE", 0, null, -1, new ResultSink.Printer(streamed));
+            long streamedTime = System.nanoTime() - streamed.start;
+
+            System.out.println(String.format(
+                    "toString: first byte %,8.2f ms, %,8.1f ms total   printer: first byte %,8.2f ms, %,8.1f ms total   (%,d bytes)",
+                    whole.firstByte / 1e6, wholeTime / 1e6, streamed.firstByte / 1e6, streamedTime / 1e6, streamed.bytes));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dbms.test;
+
+import dbms.engine.Batch;
+import dbms.engine.BatchOperator;
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.SelectValue;
+
+import java.util.ArrayList;
+
+/**
+ * Times SELECT a, name FROM t WHERE ... over a table of the given size,
+ * materialized into a result table and pulled through the pipeline batch
+ * by batch (holding one batch at a time), and with a LIMIT.
+ *
+ * usage: SelectBenchmark [rows]
+ */
+public class SelectBenchmark {
+
+    private static final String[] CONDITIONS = {"TRUE", "b<3", "name=\"name 42\""};
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("b", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("select_bench", columns, "id", new ArrayList<String[]>());
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 1000));
+            row.add((long) (i % 7));
+            row.add("name " + (i % 5000));
+            values.add(row);
+        }
+        DatabaseCore.getTable("select_bench").insertRows(values);
+        values = null;
+
+        ArrayList<String> tableNames = new ArrayList<>();
+        tableNames.add("select_bench");
+        ArrayList<SelectValue> selectValues = new ArrayList<>();
+        selectValues.add(SelectValue.fromIndividualColumn("a"));
+        selectValues.add(SelectValue.fromIndividualColumn("name"));
+
+        for (String condition : CONDITIONS) {
+            for (int run = 0; run < 2; run++) {
+                long start = System.nanoTime();
+                Table res = DatabaseCore.select(tableNames, selectValues, condition, 0, null, -1);
+                long materialized = System.nanoTime() - start;
+                int count = res.getRowCount();
+                res = null;
+
+                start = System.nanoTime();
+                long pulled = 0;
+                BatchOperator plan = DatabaseCore.query(tableNames, selectValues, condition, 0, null, -1);
+                Batch batch;
+                while ((batch = plan.next()) != null) {
+                    pulled += batch.size();
+                }
+                long pipelined = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                DatabaseCore.select(tableNames, selectValues, condition, 0, null, 10);
+                long limited = System.nanoTime() - start;
+
+                if (run == 1) {
+                    System.out.println(String.format(
+                            "%,10d rows  %,8.1f ms materialized  %,8.1f ms pipelined  %,8.2f ms LIMIT 10  %s",
+                            count, materialized / 1e6, pipelined / 1e6, limited / 1e6, condition));
+                }
+                if (pulled != count) {
+                    throw new IllegalStateException(pulled + " rows pulled, " + count + " materialized");
+                }
+            }
+        }
+    }
+}
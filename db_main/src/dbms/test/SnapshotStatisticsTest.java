@@ -0,0 +1,81 @@
+package dbms.test;
+
+import dbms.engine.ColumnStatistics;
+import dbms.engine.DatabaseCore;
+import dbms.engine.Snapshot;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Saves an analyzed table and restores it: the statistics must come back
+ * as they were, so the estimates and the plans made from them are the
+ * same after a restart.
+ *
+ * usage: SnapshotStatisticsTest [directory]
+ */
+public class SnapshotStatisticsTest {
+
+    public static void main(String... args) throws Exception {
+
+        File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "snapshot_statistics_test");
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("s", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("analyzed", columns, "id", new ArrayList<String[]>());
+
+        Table table = DatabaseCore.getTable("analyzed");
+        for (int i = 0; i < 1000; i++) {
+            ArrayList<Object> values = new ArrayList<>(3);
+            values.add((long) i);
+            values.add(i % 10 == 0 ? "NULL" : (Object) (long) (i % 125));
+            values.add("s" + i % 7);
+            table.insertRow(values);
+        }
+        DatabaseCore.analyze("analyzed");
+
+        String before = estimates(table);
+
+        DatabaseCore.saveDatabases(directory);
+        DatabaseCore.restoreDatabases(directory);
+
+        Table restored = DatabaseCore.getTable("analyzed");
+        if (restored == table) {
+            throw new AssertionError("analyzed was not restored");
+        }
+
+        String after = estimates(restored);
+        if (!after.equals(before)) {
+            throw new AssertionError("statistics were " + before + ", restored as " + after);
+        }
+
+        Snapshot.fileFor(directory, DatabaseCore.defaultDatabase.getName()).delete();
+        directory.delete();
+
+        System.out.println("OK");
+    }
+
+    /* counts and a few selectivities of every column */
+    private static String estimates(Table table) throws CoSQLError {
+
+        StringBuilder res = new StringBuilder();
+        for (Table.Column column : table.getColumns()) {
+            ColumnStatistics statistics = table.getStatistics(column);
+            if (statistics == null) {
+                throw new AssertionError(column.getName() + " has no statistics");
+            }
+
+            Object constant = column.getType() == Table.ColumnType.INT ? (Object) 42L : "s3";
+            res.append(column.getName()).append(": ").append(statistics)
+                    .append(String.format(", = %.4f, < %.4f, >= %.4f; ",
+                            statistics.selectivity(DatabaseCore.COMPARISON_TYPE_EQUAL, constant),
+                            statistics.selectivity(DatabaseCore.COMPARISON_TYPE_LESS_THAN, constant),
+                            statistics.selectivity(DatabaseCore.COMPARISON_TYPE_GREATER_OR_EQUAL, constant)));
+        }
+        return res.toString();
+    }
+}
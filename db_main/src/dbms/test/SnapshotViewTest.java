@@ -0,0 +1,92 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Snapshot;
+import dbms.engine.Table;
+import dbms.engine.View;
+import dbms.exceptions.CoSQLError;
+import dbms.parser.LexicalToken;
+import dbms.parser.QueryParser;
+import dbms.parser.SelectValue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves a database with a view and restores it, as SAVE and a restart of
+ * the shell do: the view must come back with its rows, made from the
+ * restored tables, and writes through it must reach them.
+ *
+ * usage: SnapshotViewTest [directory]
+ */
+public class SnapshotViewTest {
+
+    public static void main(String... args) throws Exception {
+
+        File directory = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "snapshot_view_test");
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("name", Table.ColumnType.VARCHAR));
+        DatabaseCore.createTable("dept", columns, "id", new ArrayList<String[]>());
+        insert("dept", 1, "eng");
+        insert("dept", 2, "ops");
+        insert("dept", 3, "hr");
+
+        DatabaseCore.createView("big_dept", tables("dept"), values("id", "name"), "id>1", QueryParser.CART, null, -1);
+        String before = select("big_dept").getRows().toString();
+
+        DatabaseCore.saveDatabases(directory);
+        DatabaseCore.restoreDatabases(directory);
+
+        Table view = DatabaseCore.getTable("big_dept");
+        if (!(view instanceof View)) {
+            throw new AssertionError("big_dept restored as " + view);
+        }
+        if (((View) view).originalTables.get(0) != DatabaseCore.getTable("dept")) {
+            throw new AssertionError("big_dept is not made from the restored dept");
+        }
+
+        String after = select("big_dept").getRows().toString();
+        if (!after.equals(before)) {
+            throw new AssertionError("big_dept was " + before + ", restored as " + after);
+        }
+
+        // an insert through the view goes to the table it was made from
+        insert("big_dept", 4, "ops2");
+        if (DatabaseCore.getTable("dept").getRowCount() != 4 || select("big_dept").getRowCount() != 3) {
+            throw new AssertionError("insert through the restored view was lost");
+        }
+
+        Snapshot.fileFor(directory, DatabaseCore.defaultDatabase.getName()).delete();
+        directory.delete();
+
+        System.out.println("OK");
+    }
+
+    private static void insert(String table, int id, String name) throws CoSQLError {
+        List<LexicalToken> values = new ArrayList<>(2);
+        values.add(new LexicalToken(String.valueOf(id), false));
+        values.add(new LexicalToken(name, true));
+        DatabaseCore.insert(table, values);
+    }
+
+    private static Table select(String table) throws CoSQLError {
+        return DatabaseCore.select(tables(table), values("id", "name"), "TRUE", QueryParser.CART, null, -1);
+    }
+
+    private static ArrayList<String> tables(String name) {
+        ArrayList<String> res = new ArrayList<>();
+        res.add(name);
+        return res;
+    }
+
+    private static ArrayList<SelectValue> values(String... columns) {
+        ArrayList<SelectValue> res = new ArrayList<>();
+        for (String column : columns) {
+            res.add(SelectValue.fromIndividualColumn(column));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,55 @@
+package dbms.test;
+
+import dbms.engine.DatabaseCore;
+import dbms.engine.Table;
+import dbms.exceptions.CoSQLError;
+
+import java.util.ArrayList;
+
+/**
+ * Times UPDATE t SET c = a * 2 + b over every row of a table of the
+ * given size, then a second time on an indexed column.
+ *
+ * usage: UpdateBenchmark [rows]
+ */
+public class UpdateBenchmark {
+
+    public static void main(String... args) throws CoSQLError {
+
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        ArrayList<Table.Column> columns = new ArrayList<>();
+        columns.add(new Table.Column("id", Table.ColumnType.INT));
+        columns.add(new Table.Column("a", Table.ColumnType.INT));
+        columns.add(new Table.Column("b", Table.ColumnType.INT));
+        columns.add(new Table.Column("c", Table.ColumnType.INT));
+        columns.add(new Table.Column("d", Table.ColumnType.INT));
+        DatabaseCore.createTable("update_bench", columns, "id", new ArrayList<String[]>());
+        DatabaseCore.createIndex("d_idx", "update_bench", "d");
+
+        ArrayList<ArrayList<Object>> values = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Object> row = new ArrayList<>();
+            row.add((long) i);
+            row.add((long) (i % 1000));
+            row.add((long) (i % 7));
+            row.add(0L);
+            row.add(0L);
+            values.add(row);
+        }
+        DatabaseCore.getTable("update_bench").insertRows(values);
+
+        time(rows, "c", "a*2+b");
+        time(rows, "c", "(a+b)*2-c/3");
+        time(rows, "d", "a*2+b");
+    }
+
+    private static void time(int rows, String column, String expression) throws CoSQLError {
+        long start = System.nanoTime();
+        DatabaseCore.update("update_bench", column, expression, "TRUE");
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("%,10d ms  %,12.0f rows/s  SET %s = %s",
+                elapsed / 1000000, rows * 1e9 / elapsed, column, expression));
+    }
+}
@@ -0,0 +1,632 @@
+package dbms.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Compressed set of non-negative ints, Roaring style: values are bucketed
+ * by their high 16 bits and every bucket is either a sorted char array
+ * (sparse) or a 65536-bit bitmap (dense), whichever is smaller.
+ */
+public class RoaringBitmap implements Serializable {
+
+    /* an array container never grows past this, it turns into a bitmap */
+    static final int ARRAY_MAX = 4096;
+
+    /*
+     * a bitmap emptied by removes turns back into an array only at this
+     * size, well under ARRAY_MAX, so adds and removes around ARRAY_MAX do
+     * not convert the container back and forth
+     */
+    static final int BITMAP_MIN = ARRAY_MAX / 2;
+
+    /* orWith adds the values of containers up to this size one by one */
+    private static final int SMALL_CONTAINER = 32;
+
+    public interface IntIterator {
+        boolean hasNext();
+
+        int next();
+    }
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public RoaringBitmap() {
+    }
+
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap res = new RoaringBitmap();
+        for (int v : values) {
+            res.add(v);
+        }
+        return res;
+    }
+
+    /* every int in [from, to) */
+    public static RoaringBitmap range(int from, int to) {
+        RoaringBitmap res = new RoaringBitmap();
+
+        // a container per 65536 values, whole words set at once in bitmaps
+        for (long start = Math.max(from, 0); start < to; start = (start | 0xFFFF) + 1) {
+            int low = (int) start & 0xFFFF;
+            int high = (int) Math.min(to - (start & ~0xFFFFL), 1 << 16);
+
+            Container c;
+            if (high - low > ARRAY_MAX) {
+                BitmapContainer bitmap = new BitmapContainer();
+                bitmap.setRange(low, high);
+                c = bitmap;
+            } else {
+                char[] values = new char[high - low];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (char) (low + i);
+                }
+                c = new ArrayContainer(values, values.length);
+            }
+            res.appendContainer((char) (start >>> 16), c);
+        }
+        return res;
+    }
+
+    public void add(int x) {
+        char hb = (char) (x >>> 16);
+        int pos = findKey(hb);
+
+        if (pos >= 0) {
+            containers[pos] = containers[pos].add((char) x);
+        } else {
+            pos = -(pos + 1);
+            insertContainer(pos, hb, new ArrayContainer().add((char) x));
+        }
+    }
+
+    public void remove(int x) {
+        int pos = findKey((char) (x >>> 16));
+        if (pos < 0) {
+            return;
+        }
+
+        containers[pos] = containers[pos].remove((char) x);
+        if (containers[pos].cardinality() == 0) {
+            removeContainer(pos);
+        }
+    }
+
+    public boolean contains(int x) {
+        int pos = findKey((char) (x >>> 16));
+        return pos >= 0 && containers[pos].contains((char) x);
+    }
+
+    public int cardinality() {
+        int res = 0;
+        for (int i = 0; i < size; i++) {
+            res += containers[i].cardinality();
+        }
+        return res;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap res = new RoaringBitmap();
+        int i = 0, j = 0;
+
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0) {
+                    res.appendContainer(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return res;
+    }
+
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap res = new RoaringBitmap();
+        int i = 0, j = 0;
+
+        while (i < a.size || j < b.size) {
+            if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                res.appendContainer(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i >= a.size || a.keys[i] > b.keys[j]) {
+                res.appendContainer(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                res.appendContainer(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return res;
+    }
+
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap res = new RoaringBitmap();
+        int j = 0;
+
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) {
+                j++;
+            }
+
+            Container c;
+            if (j < b.size && b.keys[j] == a.keys[i]) {
+                c = a.containers[i].andNot(b.containers[j]);
+            } else {
+                c = a.containers[i].copy();
+            }
+
+            if (c.cardinality() > 0) {
+                res.appendContainer(a.keys[i], c);
+            }
+        }
+        return res;
+    }
+
+    /*
+     * in place union, used to fold postings together. Small containers
+     * are added value by value so that folding many tiny postings does
+     * not copy the accumulated containers over and over.
+     */
+    public void orWith(RoaringBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            char key = other.keys[j];
+            Container c = other.containers[j];
+            int pos = findKey(key);
+
+            if (pos < 0) {
+                insertContainer(-(pos + 1), key, c.copy());
+            } else if (c.cardinality() <= SMALL_CONTAINER) {
+                CharIterator it = c.iterator();
+                while (it.hasNext()) {
+                    containers[pos] = containers[pos].add(it.next());
+                }
+            } else {
+                containers[pos] = containers[pos].or(c);
+            }
+        }
+    }
+
+    public RoaringBitmap copy() {
+        RoaringBitmap res = new RoaringBitmap();
+        for (int i = 0; i < size; i++) {
+            res.appendContainer(keys[i], containers[i].copy());
+        }
+        return res;
+    }
+
+    public int[] toArray() {
+        int[] res = new int[cardinality()];
+        int n = 0;
+        IntIterator it = intIterator();
+        while (it.hasNext()) {
+            res[n++] = it.next();
+        }
+        return res;
+    }
+
+    /* ascending order */
+    public IntIterator intIterator() {
+        return new IntIterator() {
+
+            int container = 0;
+            CharIterator current = size > 0 ? containers[0].iterator() : null;
+
+            private void settle() {
+                while (current != null && !current.hasNext()) {
+                    container++;
+                    current = container < size ? containers[container].iterator() : null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                settle();
+                return current != null;
+            }
+
+            @Override
+            public int next() {
+                settle();
+                if (current == null) {
+                    throw new NoSuchElementException();
+                }
+                return (keys[container] << 16) | current.next();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RoaringBitmap)) return false;
+        return Arrays.equals(toArray(), ((RoaringBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private int findKey(char key) {
+        if (size > 0 && keys[size - 1] == key) {
+            // appends hit the last container almost always
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int pos, char key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = c;
+        size++;
+    }
+
+    private void appendContainer(char key, Container c) {
+        insertContainer(size, key, c);
+    }
+
+    private void removeContainer(int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        containers[--size] = null;
+    }
+
+    private interface CharIterator {
+        boolean hasNext();
+
+        char next();
+    }
+
+    private static abstract class Container implements Serializable {
+
+        /* these may return a container of the other kind */
+
+        abstract Container add(char x);
+
+        abstract Container remove(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract CharIterator iterator();
+
+        BitmapContainer toBitmap() {
+            BitmapContainer res = new BitmapContainer();
+            CharIterator it = iterator();
+            while (it.hasNext()) {
+                res.set(it.next());
+            }
+            return res;
+        }
+    }
+
+    private static class ArrayContainer extends Container {
+
+        char[] values;
+        int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char x) {
+            // appending in order is the common case, skip the search
+            int pos = cardinality > 0 && values[cardinality - 1] < x ?
+                    -(cardinality + 1) : Arrays.binarySearch(values, 0, cardinality, x);
+            if (pos >= 0) {
+                return this;
+            }
+
+            if (cardinality >= ARRAY_MAX) {
+                return toBitmap().add(x);
+            }
+
+            pos = -(pos + 1);
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(Math.max(values.length * 2, 4), ARRAY_MAX));
+            }
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = x;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int pos = Arrays.binarySearch(values, 0, cardinality, x);
+            if (pos >= 0) {
+                System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, cardinality, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] res = new char[Math.min(cardinality, other.cardinality())];
+            int n = 0;
+
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        res[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        res[n++] = values[i];
+                    }
+                }
+            }
+
+            return new ArrayContainer(res, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+
+            ArrayContainer o = (ArrayContainer) other;
+            if (cardinality + o.cardinality > ARRAY_MAX) {
+                return toBitmap().or(other);
+            }
+
+            char[] res = new char[cardinality + o.cardinality];
+            int n = 0, i = 0, j = 0;
+            while (i < cardinality || j < o.cardinality) {
+                if (j >= o.cardinality || (i < cardinality && values[i] < o.values[j])) {
+                    res[n++] = values[i++];
+                } else if (i >= cardinality || values[i] > o.values[j]) {
+                    res[n++] = o.values[j++];
+                } else {
+                    res[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(res, n);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] res = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!other.contains(values[i])) {
+                    res[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(res, n);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 1)), cardinality);
+        }
+
+        @Override
+        CharIterator iterator() {
+            return new CharIterator() {
+                int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < cardinality;
+                }
+
+                @Override
+                public char next() {
+                    return values[next++];
+                }
+            };
+        }
+    }
+
+    private static class BitmapContainer extends Container {
+
+        long[] words = new long[1024];
+        int cardinality;
+
+        void set(char x) {
+            long before = words[x >>> 6];
+            long after = before | (1L << x);
+            words[x >>> 6] = after;
+            if (before != after) {
+                cardinality++;
+            }
+        }
+
+        /* sets every bit in [from, to) */
+        void setRange(int from, int to) {
+            if (from >= to) {
+                return;
+            }
+
+            int first = from >>> 6;
+            int last = (to - 1) >>> 6;
+            for (int i = first; i <= last; i++) {
+                long mask = -1L;
+                if (i == first) {
+                    mask &= -1L << from;
+                }
+                if (i == last) {
+                    mask &= -1L >>> -to;
+                }
+                cardinality += Long.bitCount(mask & ~words[i]);
+                words[i] |= mask;
+            }
+        }
+
+        @Override
+        Container add(char x) {
+            set(x);
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            long before = words[x >>> 6];
+            long after = before & ~(1L << x);
+            words[x >>> 6] = after;
+            if (before != after) {
+                cardinality--;
+            }
+            return cardinality <= BITMAP_MIN ? toArrayContainer() : this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+
+            BitmapContainer o = (BitmapContainer) other;
+            BitmapContainer res = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                res.words[i] = words[i] & o.words[i];
+                res.cardinality += Long.bitCount(res.words[i]);
+            }
+            return res.cardinality <= ARRAY_MAX ? res.toArrayContainer() : res;
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer o = other instanceof BitmapContainer ?
+                    (BitmapContainer) other : other.toBitmap();
+            BitmapContainer res = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                res.words[i] = words[i] | o.words[i];
+                res.cardinality += Long.bitCount(res.words[i]);
+            }
+            return res;
+        }
+
+        @Override
+        Container andNot(Container other) {
+            BitmapContainer o = other instanceof BitmapContainer ?
+                    (BitmapContainer) other : other.toBitmap();
+            BitmapContainer res = new BitmapContainer();
+            for (int i = 0; i < words.length; i++) {
+                res.words[i] = words[i] & ~o.words[i];
+                res.cardinality += Long.bitCount(res.words[i]);
+            }
+            return res.cardinality <= ARRAY_MAX ? res.toArrayContainer() : res;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer res = new BitmapContainer();
+            res.words = words.clone();
+            res.cardinality = cardinality;
+            return res;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] res = new char[Math.max(cardinality, 1)];
+            int n = 0;
+            for (int i = 0; i < words.length; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    res[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(res, n);
+        }
+
+        @Override
+        CharIterator iterator() {
+            return new CharIterator() {
+                int word = 0;
+                long bits = words[0];
+
+                @Override
+                public boolean hasNext() {
+                    while (bits == 0 && word < words.length - 1) {
+                        bits = words[++word];
+                    }
+                    return bits != 0;
+                }
+
+                @Override
+                public char next() {
+                    hasNext();
+                    char res = (char) ((word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                    return res;
+                }
+            };
+        }
+    }
+}
@@ -2,7 +2,7 @@ package dbms.util;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
+
 import dbms.exceptions.CoSQLQueryParseError;
 import dbms.parser.LexicalToken;
 
@@ -11,60 +11,142 @@ import dbms.parser.LexicalToken;
  */
 public class StringUtils {
 
-    private static final String[] IGNORE = new String[]{"\t", "\n", " "};
-
-    public static List<LexicalToken> tokenizeQuery(String command) throws CoSQLQueryParseError {
+    /* same as matching QueryParser.REGEX_NUMERAL, without going through a regex */
+    public static boolean isNumeral(String s) {
 
-        List<LexicalToken> res = new ArrayList<>();
+        int i = 0;
+        if (s.length() > 0 && (s.charAt(0) == '+' || s.charAt(0) == '-')) {
+            i++;
+        }
+        if (i == s.length()) {
+            return false;
+        }
 
-        // use Java tokenizer for raw tokenize
-        StringTokenizer tokenizer = new StringTokenizer(command, " \n\t\r\"\'();,=+-*/", true);
+        for (; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        boolean literalMode = false;
-        String buffer = null;
+    /**
+     * Splits a query into tokens in one pass over its characters: each of
+     * ( ) ; , = + - * / ? on its own, words (runs of anything else but
+     * whitespace and quotes) and literals. A word of digits only is a
+     * numeral. A literal is quoted with ' or " and ends at the same quote;
+     * in it a backslash escapes the next character, \n and \t being a
+     * newline and a tab.
+     *
+     * Tokens are offsets into the query, nothing is copied out of it but a
+     * literal with escapes in it.
+     */
+    public static List<LexicalToken> tokenizeQuery(CharSequence command) throws CoSQLQueryParseError {
 
-        // iterate through raw tokens
-        main_loop:
-        while (tokenizer.hasMoreTokens()) {
+        List<LexicalToken> res = new ArrayList<>();
+        int length = command.length();
+        int i = 0;
 
-            String tk = tokenizer.nextToken();
+        while (i < length) {
 
-            if (tk.equals("\"") || tk.equals("\'")) {
+            char c = command.charAt(i);
 
-                if (literalMode) {
-                    literalMode = false;
-                    res.add(new LexicalToken(buffer, true));
-                    buffer = null;
-                } else {
-                    literalMode = true;
-                    buffer = "";
+            if (isWhitespace(c)) {
+                i++;
+            } else if (c == '"' || c == '\'') {
+                i = literal(command, i, res);
+            } else if (isDelimiter(c)) {
+                res.add(new LexicalToken(command, i, i + 1, false, false));
+                i++;
+            } else {
+                int start = i;
+                boolean digits = true;
+                while (i < length && !endsWord(c = command.charAt(i))) {
+                    digits &= c >= '0' && c <= '9';
+                    i++;
                 }
-
-                continue;
+                res.add(new LexicalToken(command, start, i, false, digits));
             }
+        }
 
-            if (literalMode) {
+        return res;
+    }
 
-                buffer += tk;
+    /* adds the literal opened by the quote at the given position, returns the position after it */
+    private static int literal(CharSequence command, int open, List<LexicalToken> res) throws CoSQLQueryParseError {
 
-            } else {
+        char quote = command.charAt(open);
 
-                for (String ws: IGNORE) {
-                    if (ws.equals(tk)) {
-                        continue main_loop;
-                    }
+        // only a literal with escapes is copied, up to the last one so far
+        StringBuilder escaped = null;
+        int copied = open + 1;
+
+        for (int i = open + 1; i < command.length(); i++) {
+
+            char c = command.charAt(i);
+
+            if (c == quote) {
+                if (escaped == null) {
+                    res.add(new LexicalToken(command, open + 1, i, true, false));
+                } else {
+                    res.add(new LexicalToken(escaped.append(command, copied, i).toString(), true));
                 }
+                return i + 1;
+            }
 
-                res.add(new LexicalToken(tk, false));
+            if (c == '\\' && i + 1 < command.length()) {
+                if (escaped == null) {
+                    escaped = new StringBuilder();
+                }
+                escaped.append(command, copied, i);
+                char e = command.charAt(++i);
+                escaped.append(e == 'n' ? '\n' : e == 't' ? '\t' : e);
+                copied = i + 1;
             }
+        }
+
+        throw new CoSQLQueryParseError("Unexpected end of query (literal not finished)");
+    }
+
+    /** The value as a '"' literal that {@link #tokenizeQuery} reads back as it is. */
+    public static String quote(String value) {
 
+        StringBuilder res = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                res.append('\\');
+            }
+            res.append(c);
         }
+        return res.append('"').toString();
+    }
 
-        if (literalMode) {
-            throw new CoSQLQueryParseError("Unexpected end of query (literal not finished)");
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isDelimiter(char c) {
+        switch (c) {
+            case '(':
+            case ')':
+            case ';':
+            case ',':
+            case '=':
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '?':
+                return true;
+            default:
+                return false;
         }
+    }
 
-        return res;
+    private static boolean endsWord(char c) {
+        return isWhitespace(c) || c == '"' || c == '\'' || isDelimiter(c);
     }
 
 }